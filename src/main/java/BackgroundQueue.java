@@ -0,0 +1,172 @@
+package main.java;
+
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Bounded queue processed by a background thread.
+ * <p/>
+ * The items are taken in batches and passed to process(). The queue counts
+ * the items added and not processed yet, so flush() can wait for them, and
+ * close() processes the pending items before stopping the thread. It is used
+ * by the ScreenshotWriter and the JiraReporter.
+ *
+ * @param <T> the type of the items
+ */
+abstract class BackgroundQueue<T> implements Runnable {
+    /**
+     * Class logger
+     */
+    protected static Log logger = LogFactory.getLog(BackgroundQueue.class);
+
+    private final String name;
+    private final int batchSize;
+    private final BlockingQueue<T> queue;
+    private final Thread thread;
+    private int pending = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * @param threadName the name of the background thread
+     * @param name       the name of the items in the log
+     * @param capacity   the maximum number of items waiting in the queue
+     * @param batchSize  the maximum number of items processed at once
+     */
+    BackgroundQueue(String threadName, String name, int capacity,
+                    int batchSize) {
+        this.name = name;
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<T>(capacity);
+        thread = new Thread(this, threadName);
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Starts the background thread
+     */
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Processes a batch of items in the background thread, the errors must
+     * be handled for each item
+     *
+     * @param batch the items taken from the queue
+     */
+    protected abstract void process(List<T> batch);
+
+    /**
+     * Adds an item to the queue, waiting up to the timeout if it is full
+     *
+     * @param item    the item
+     * @param timeout the time to wait, 0 to return at once
+     * @param unit    the unit of the timeout
+     * @return false if the queue is full or the thread is interrupted
+     */
+    boolean offer(T item, long timeout, TimeUnit unit) {
+        synchronized (this) {
+            pending++;
+        }
+        try {
+            if (queue.offer(item, timeout, unit)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finished(1);
+        return false;
+    }
+
+    /**
+     * Waits until the queued items have been processed
+     *
+     * @param timeout the maximum time to wait, in seconds
+     * @return true if all the items have been processed before the timeout
+     */
+    synchronized boolean flush(long timeout) {
+        long limit = System.currentTimeMillis() + timeout * 1000;
+        try {
+            while (pending > 0) {
+                long wait = limit - System.currentTimeMillis();
+                if (wait <= 0) {
+                    logger.error("Timeout waiting for the " + name + ", "
+                            + pending + " not processed");
+                    return false;
+                }
+                wait(wait);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Processes the pending items and stops the background thread
+     *
+     * @param timeout the maximum time to wait for the pending items, in
+     *                seconds
+     */
+    void close(long timeout) {
+        closed = true;
+        flush(timeout);
+        thread.interrupt();
+    }
+
+    /**
+     * @return true if the queue has been closed
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return the number of items waiting in the queue
+     */
+    int size() {
+        return queue.size();
+    }
+
+    public void run() {
+        List<T> batch = new ArrayList<T>(batchSize);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                if (closed) {
+                    return;
+                }
+                continue;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            try {
+                process(batch);
+            } catch (Throwable t) {
+                // The thread continues with the next items, also after an
+                // Error (i.e. out of memory with a big item)
+                logger.error("Error processing the " + name + ": " + t);
+            } finally {
+                finished(batch.size());
+                batch.clear();
+            }
+        }
+    }
+
+    private synchronized void finished(int items) {
+        pending -= items;
+        if (pending == 0) {
+            notifyAll();
+        }
+    }
+}
@@ -7,18 +7,13 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.rules.MethodRule;
+import org.junit.rules.TestRule;
 import org.junit.rules.TestName;
 import org.junit.rules.TestWatchman;
 import org.junit.runners.model.FrameworkMethod;
 
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLEncoder;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.Scanner;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 
 /**
@@ -46,7 +41,6 @@ public class BasicTestCase {
     /**
      * Jira Test Case configuration
      */
-    private static String JIRA_EXECUTION_URL = "http://dbatlas.db.com/jira01";
     protected String jiraTestCaseId = "";
     protected String jiraComment = "";
 
@@ -54,24 +48,28 @@ public class BasicTestCase {
     public TestName name = new TestName();
 
     /**
-     * BasicTestCase Properties
+     * BasicTestCase Properties, shared by the test threads
      */
-    protected static PropertiesManager properties;
+    protected static volatile PropertiesManager properties;
 
     public static PropertiesManager getProperties() {
         if (properties == null) {
-            // Initializing properties manager and loading file
-            properties = new PropertiesManager();
+            synchronized (BasicTestCase.class) {
+                if (properties == null) {
+                    // Initializing properties manager and loading file
+                    properties = new PropertiesManager();
+                }
+            }
         }
         return properties;
     }
 
     /**
-     * Database connection *
+     * Database connection of the test, borrowed from the connection pool
      */
-    protected static Connection dbconnection;
+    protected Connection dbconnection;
 
-    public static Connection getDbconnection() {
+    public Connection getDbconnection() {
         return dbconnection;
     }
 
@@ -96,30 +94,42 @@ public class BasicTestCase {
         logger.debug("New TestCase: " + name.getMethodName());
 
         // Initializing properties manager
+        long start = System.nanoTime();
         getProperties();
+        PhaseTimer.record(PhaseTimer.SETUP_PROPERTIES, start);
 
         // Initializing the database
+        start = System.nanoTime();
         initDatabase();
+        PhaseTimer.record(PhaseTimer.SETUP_DATABASE, start);
+        PhaseTimer.startTest();
     }
 
     /**
      * Initializes the database
      */
-    private void initDatabase() {
+    void initDatabase() {
+        try {
+            openDatabase();
+        } catch (SQLException e) {
+            logger.error("Database error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Borrows the connection of the test if the database is enabled
+     *
+     * @throws SQLException if the connection can not be borrowed
+     */
+    void openDatabase() throws SQLException {
         if (dbconnection == null
                 && properties.getBooleanProperty(properties.DATABASE_ENABLED)) {
-            // Opening DB connection
-            logger.debug("Opening database connection");
-            String dbDriverName = properties
-                    .getProperty(properties.DATABASE_DRIVERNAME);
-            String dbUrl = properties.getProperty(properties.DATABASE_URL);
-            String dbUsername = properties
-                    .getProperty(properties.DATABASE_USERNAME);
-            String dbPassword = properties
-                    .getProperty(properties.DATABASE_PASSWORD);
-
-            dbconnection = Utils.openDBConnection(dbDriverName, dbUrl,
-                    dbUsername, dbPassword);
+            // Borrowing a connection of the pool
+            ConnectionPool pool = ConnectionPool.getDefault();
+            if (pool == null) {
+                throw new SQLException("The database driver can not be loaded");
+            }
+            dbconnection = pool.getConnection();
         }
     }
 
@@ -128,18 +138,24 @@ public class BasicTestCase {
      */
     @After
     public void basicTearDown() throws Exception {
+        PhaseTimer.endTest();
+
         // Storing properties
+        long start = System.nanoTime();
         properties.storeProperties();
+        PhaseTimer.record(PhaseTimer.TEARDOWN_PROPERTIES, start);
 
         // Closing the database
+        start = System.nanoTime();
         closeDatabase();
+        PhaseTimer.record(PhaseTimer.TEARDOWN_DATABASE, start);
     }
 
     /**
      * Closes the database
      */
-    private void closeDatabase() {
-        // Closing DB connection
+    void closeDatabase() {
+        // Returning the DB connection to the pool
         if (dbconnection != null) {
             logger.debug("Closing database connection");
             try {
@@ -152,6 +168,12 @@ public class BasicTestCase {
         }
     }
 
+    /**
+     * Times the phases of the test, see PhaseTimer
+     */
+    @Rule
+    public TestRule phaseTimer = PhaseTimer.rule();
+
     @SuppressWarnings("deprecation")
     @Rule
     public MethodRule basicWatchman = new TestWatchman() {
@@ -179,6 +201,7 @@ public class BasicTestCase {
      */
     private void changeJiraStatus(String jiraStatus) {
         if (properties.getBooleanProperty(properties.JIRA_ENABLED)) {
+            long start = System.nanoTime();
             String fixVersion = properties
                     .getProperty(properties.JIRA_FIXVERSION);
             boolean onlyIfStatusChanges = properties
@@ -186,6 +209,7 @@ public class BasicTestCase {
 
             changeJiraStatus(jiraTestCaseId, jiraStatus, fixVersion,
                     jiraComment, onlyIfStatusChanges);
+            PhaseTimer.record(PhaseTimer.JIRA, start);
         }
     }
 
@@ -216,52 +240,10 @@ public class BasicTestCase {
                                         String jiraStatus, String fixVersion, String jiraComment,
                                         boolean onlyIfStatusChanges) {
         if (jiraTestCaseId != null && !jiraTestCaseId.equals("")) {
-            // Change the test case status
-            try {
-                String jiraUrl = JIRA_EXECUTION_URL + "jiraTestCaseId="
-                        + jiraTestCaseId + "&jiraStatus=" + jiraStatus;
-                if (jiraComment != null && !jiraComment.isEmpty()) {
-                    jiraUrl = jiraUrl + "&comments="
-                            + URLEncoder.encode(jiraComment, "UTF-8");
-                }
-                if (fixVersion != null && !fixVersion.isEmpty()) {
-                    jiraUrl = jiraUrl + "&version="
-                            + URLEncoder.encode(fixVersion, "UTF-8");
-                }
-                if (onlyIfStatusChanges == true) {
-                    jiraUrl = jiraUrl + "&onlyIfStatusChanges=true";
-                }
-                URL url = new URL(jiraUrl);
-                HttpURLConnection connection = (HttpURLConnection) url
-                        .openConnection();
-
-                // Check the HTTP response code
-                Scanner s;
-                if (connection.getResponseCode() != 200) {
-                    // Get HTTP response
-                    s = new Scanner(connection.getErrorStream());
-                    s.useDelimiter("\\Z");
-                    String response = s.next();
-                    s.close();
-
-                    // Extract error message from the HTTP response
-                    Pattern p = Pattern.compile(".*<u>(.*)</u></p><p>.*");
-                    Matcher m = p.matcher(response);
-                    if (m.find()) {
-                        response = m.group(1);
-                    }
-                    staticLogger.error("Test Case '" + jiraTestCaseId
-                            + "' not changed: " + response);
-                } else {
-                    s = new Scanner(connection.getInputStream());
-                    s.close();
-                    staticLogger.debug("Test Case '" + jiraTestCaseId
-                            + "' updated in Jira (" + jiraStatus + ")");
-                }
-            } catch (Throwable t) {
-                staticLogger.error("Test Case '" + jiraTestCaseId
-                        + "' not changed: " + t.getMessage());
-            }
+            // The status is changed in background by the Jira reporter
+            JiraReporter.getDefault().report(new JiraReporter.JiraResult(
+                    jiraTestCaseId, jiraStatus, fixVersion, jiraComment,
+                    onlyIfStatusChanges));
         }
     }
 }
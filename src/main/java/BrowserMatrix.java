@@ -0,0 +1,177 @@
+package main.java;
+
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Runs the tests once for each browser of the qa.browser list.
+ * <p/>
+ * qa.browser can have several browsers separated by commas, i.e.
+ * qa.browser = firefox, chrome, htmlunit. Each browser (a cell of the
+ * matrix) runs the tests in its own thread at the same time as the other
+ * browsers: the thread has its own driver, its screenshots are saved in the
+ * folder of the browser and the result files of the data driven tests have
+ * the browser in their names. A summary of all the browsers is logged at
+ * the end.
+ * <p/>
+ * It can be run from the command line with the names of the test classes,
+ * i.e. java main.java.BrowserMatrix test.java.ExampleTest
+ */
+public class BrowserMatrix {
+    /**
+     * Class logger
+     */
+    protected static Log logger = LogFactory.getLog(BrowserMatrix.class);
+
+    /**
+     * Runs the test classes in each configured browser
+     *
+     * @param testClasses the test classes
+     * @return the results of each browser, by browser info
+     */
+    public static Map<String, Result> run(Class<?>... testClasses) {
+        PropertiesManager properties = BasicTestCase.getProperties();
+        Map<String, BrowserSpec> browsers = new LinkedHashMap<String, BrowserSpec>();
+        for (BrowserSpec browser : properties.getBrowsers()) {
+            if (browsers.put(browser.getInfo(), browser) != null) {
+                logger.warn("The browser '" + browser
+                        + "' is repeated in the browsers list");
+            }
+        }
+        logger.info("Running the tests in " + browsers.size()
+                + " browsers: " + browsers.keySet());
+
+        // HtmlTestCase.driver is the driver of each browser thread
+        DriverHolder.startParallel();
+        Map<String, Result> results = new LinkedHashMap<String, Result>();
+        try {
+            ExecutorService executor =
+                    Executors.newFixedThreadPool(browsers.size());
+            Map<String, Future<Result>> futures =
+                    new LinkedHashMap<String, Future<Result>>();
+            for (BrowserSpec browser : browsers.values()) {
+                futures.put(browser.getInfo(), executor.submit(new Cell(
+                        browser, testClasses)));
+            }
+            executor.shutdown();
+
+            for (Map.Entry<String, Future<Result>> future : futures.entrySet()) {
+                try {
+                    results.put(future.getKey(), future.getValue().get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException e) {
+                    logger.error("Error running the tests in the browser '"
+                            + future.getKey() + "': " + e.getCause());
+                }
+            }
+        } finally {
+            DriverHolder.endParallel();
+        }
+        logSummary(results);
+        return results;
+    }
+
+    /**
+     * Suffix of the result files of the current thread
+     *
+     * @return "-" and the browser info in the matrix threads or "" if the
+     * tests are not run by the matrix
+     */
+    public static String getResultSuffix() {
+        BrowserSpec browser = PropertiesManager.getThreadBrowser();
+        return (browser == null) ? "" : "-" + browser.getInfo();
+    }
+
+    /**
+     * Logs the results of each browser and the failed tests
+     */
+    private static void logSummary(Map<String, Result> results) {
+        StringBuilder summary = new StringBuilder("Browser matrix summary:");
+        int total = 0;
+        int failures = 0;
+        for (Map.Entry<String, Result> entry : results.entrySet()) {
+            Result result = entry.getValue();
+            total += result.getRunCount();
+            failures += result.getFailureCount();
+            summary.append("\n  ").append(entry.getKey()).append(": ")
+                    .append(result.getRunCount()).append(" tests, ")
+                    .append(result.getFailureCount()).append(" failures, ")
+                    .append(result.getIgnoreCount()).append(" ignored, ")
+                    .append(result.getRunTime()).append(" ms");
+            for (Failure failure : result.getFailures()) {
+                summary.append("\n    ").append(failure.getTestHeader())
+                        .append(": ").append(failure.getMessage());
+            }
+        }
+        summary.append("\n  Total: ").append(total).append(" tests, ")
+                .append(failures).append(" failures");
+        if (failures > 0) {
+            logger.error(summary);
+        } else {
+            logger.info(summary);
+        }
+    }
+
+    /**
+     * Runs the test classes given as arguments in each configured browser
+     *
+     * @param args the test class names
+     */
+    public static void main(String[] args) throws Exception {
+        List<Class<?>> testClasses = new ArrayList<Class<?>>();
+        for (String className : args) {
+            testClasses.add(Class.forName(className));
+        }
+        Map<String, Result> results = run(testClasses
+                .toArray(new Class<?>[testClasses.size()]));
+        boolean successful = !results.isEmpty();
+        for (Result result : results.values()) {
+            successful &= result.wasSuccessful();
+        }
+        System.exit(successful ? 0 : 1);
+    }
+
+    /**
+     * Tests of a browser
+     */
+    private static class Cell implements Callable<Result> {
+        private final BrowserSpec browser;
+        private final Class<?>[] testClasses;
+
+        Cell(BrowserSpec browser, Class<?>[] testClasses) {
+            this.browser = browser;
+            this.testClasses = testClasses;
+        }
+
+        public Result call() {
+            DriverHolder.isolate();
+            PropertiesManager.setThreadBrowser(browser);
+            try {
+                logger.info("Running the tests in the browser '" + browser
+                        + "'");
+                return new JUnitCore().run(testClasses);
+            } finally {
+                // Reused drivers are stopped when the browser finishes
+                DriverHolder.quit();
+                PropertiesManager.setThreadBrowser(null);
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package main.java;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Name, version and platform of the configured browser.
+ * <p/>
+ * The qa.browser property has the format name[-version-on-platform] and an
+ * optional binary path after a space, i.e. firefox, firefox C:\firefox.exe
+ * or firefox-4.0-on-windows_7. Several browsers can be separated by commas
+ * to run the tests in each of them, see BrowserMatrix. The value is parsed
+ * once when the configuration snapshot is created.
+ */
+public final class BrowserSpec {
+
+    private final String name;
+    private final String version;
+    private final String platform;
+    private final String info;
+
+    private BrowserSpec(String name, String version, String platform,
+                        String info) {
+        this.name = name;
+        this.version = version;
+        this.platform = platform;
+        this.info = info;
+    }
+
+    /**
+     * Parses the value of the qa.browser property
+     *
+     * @param browser the property value
+     * @return the browser spec
+     */
+    public static BrowserSpec parse(String browser) {
+        // i.e. qa.browser = firefox C:\firefox.exe -> firefox, null, null
+        // i.e. qa.browser = firefox -> firefox, null, null
+        // i.e. qa.browser = firefox-4.0-on-windows_7 -> firefox, 4.0,
+        // windows 7
+        String[] browserSplit = browser.split(" ")[0].split("-");
+        String name = browserSplit[0];
+        String version = null;
+        if (browserSplit.length > 1) {
+            version = browserSplit[1];
+        }
+        String platform = null;
+        String info = name;
+        if (browserSplit.length > 3) {
+            platform = browserSplit[3].replace("_", " ");
+            info += "_" + browserSplit[1] + "_" + browserSplit[3];
+        }
+        return new BrowserSpec(name, version, platform, info);
+    }
+
+    /**
+     * Parses a comma separated list of browsers
+     *
+     * @param browsers the qa.browser property value
+     * @return the browser specs, at least one
+     */
+    public static List<BrowserSpec> parseList(String browsers) {
+        List<BrowserSpec> specs = new ArrayList<BrowserSpec>();
+        for (String browser : browsers.split(",")) {
+            if (!browser.trim().isEmpty()) {
+                specs.add(parse(browser.trim()));
+            }
+        }
+        if (specs.isEmpty()) {
+            specs.add(parse(browsers.trim()));
+        }
+        return specs;
+    }
+
+    /**
+     * @return the name of the browser
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the version of the browser or null if it is not specified
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the platform of the browser or null if it is not specified
+     */
+    public String getPlatform() {
+        return platform;
+    }
+
+    /**
+     * @return name_version_os of the browser, i.e. firefox_4.0_windows_7
+     */
+    public String getInfo() {
+        return info;
+    }
+
+    @Override
+    public String toString() {
+        return info;
+    }
+}
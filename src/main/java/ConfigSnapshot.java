@@ -0,0 +1,146 @@
+package main.java;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable view of the resolved configuration.
+ * <p/>
+ * Each value is resolved once (system property, environment and properties
+ * file, with the paths and urls already transformed) and its typed forms are
+ * precomputed, so the lookups do not allocate objects. The snapshots are
+ * created by PropertiesManager, that replaces its current snapshot when the
+ * configuration changes.
+ */
+public final class ConfigSnapshot {
+
+    private final Map<String, Value> values;
+    private final List<BrowserSpec> browsers;
+
+    /**
+     * Number of system properties when the snapshot was created
+     */
+    private final int systemCount;
+
+    /**
+     * Values resolved from system properties
+     */
+    private final List<Value> systemValues;
+
+    ConfigSnapshot(Map<String, Value> values, String browserKey,
+                   int systemCount) {
+        this.values = Collections.unmodifiableMap(
+                new HashMap<String, Value>(values));
+        this.systemCount = systemCount;
+        List<Value> fromSystem = new ArrayList<Value>();
+        for (Value value : values.values()) {
+            if (value.systemValue != null) {
+                fromSystem.add(value);
+            }
+        }
+        this.systemValues = Collections.unmodifiableList(fromSystem);
+        Value browserValue = values.get(browserKey);
+        this.browsers = Collections.unmodifiableList(BrowserSpec.parseList(
+                browserValue == null ? "" : browserValue.value));
+    }
+
+    /**
+     * @param key property key
+     * @return the property value or "" if the property does not exist
+     */
+    public String getString(String key) {
+        Value value = values.get(key);
+        return (value == null) ? "" : value.value;
+    }
+
+    /**
+     * @param key property key
+     * @return true if the property value is "true"
+     */
+    public boolean getBoolean(String key) {
+        Value value = values.get(key);
+        return value != null && value.booleanValue;
+    }
+
+    /**
+     * @param key          property key
+     * @param defaultValue value returned if the property is empty or it is
+     *                     not a number
+     * @return the property value
+     */
+    public int getInt(String key, int defaultValue) {
+        Value value = values.get(key);
+        return (value == null || value.intValue == null) ? defaultValue
+                : value.intValue;
+    }
+
+    /**
+     * @return the configured browser, the first one if there are several
+     */
+    public BrowserSpec getBrowser() {
+        return browsers.get(0);
+    }
+
+    /**
+     * @return the configured browsers
+     */
+    public List<BrowserSpec> getBrowsers() {
+        return browsers;
+    }
+
+    /**
+     * @return the resolved property keys
+     */
+    public Set<String> keys() {
+        return values.keySet();
+    }
+
+    Value getValue(String key) {
+        return values.get(key);
+    }
+
+    int getSystemCount() {
+        return systemCount;
+    }
+
+    List<Value> getSystemValues() {
+        return systemValues;
+    }
+
+    /**
+     * Resolved value of a property
+     */
+    static final class Value {
+        final String key;
+        final String value;
+        /**
+         * The system property the value was resolved from, to detect changes
+         */
+        final String systemValue;
+        final boolean authUrl;
+        final boolean booleanValue;
+        final Integer intValue;
+
+        Value(String key, String value, String systemValue, boolean authUrl) {
+            this.key = key;
+            this.value = value;
+            this.systemValue = systemValue;
+            this.authUrl = authUrl;
+            this.booleanValue = value.equals("true");
+            this.intValue = parseInt(value);
+        }
+
+        private static Integer parseInt(String value) {
+            try {
+                return Integer.valueOf(value.trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,539 @@
+package main.java;
+
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Pool of database connections.
+ * <p/>
+ * The connections are opened when they are needed, up to the maximum size,
+ * and they are reused by the next tests instead of connecting again. Each
+ * borrowed connection is a proxy: close() returns the connection to the pool
+ * (after rolling back the uncommitted changes) and the proxy can not be used
+ * again. The idle connections are validated before lending them and the
+ * connections that are not returned after the leak time are logged with the
+ * stack trace of the code that borrowed them.
+ */
+public class ConnectionPool {
+    /**
+     * Class logger
+     */
+    protected static Log logger = LogFactory.getLog(ConnectionPool.class);
+
+    /**
+     * Default maximum number of connections
+     */
+    private static final int DEFAULT_MAX_SIZE = 4;
+
+    /**
+     * Default time to wait for a free connection, in seconds
+     */
+    private static final int DEFAULT_TIMEOUT = 30;
+
+    /**
+     * Default time to consider a borrowed connection as leaked, in seconds
+     */
+    private static final int DEFAULT_LEAK_TIME = 300;
+
+    /**
+     * Time to validate an idle connection, in seconds
+     */
+    private static final int VALIDATION_TIMEOUT = 5;
+
+    /**
+     * Pool of the database configured in the properties
+     */
+    private static ConnectionPool defaultPool;
+
+    private final String databaseUrl;
+    private final String username;
+    private final String password;
+    private final AtomicInteger maxSize;
+    private final long timeout;
+    private final long leakTime;
+    private final Permits permits;
+    private final Deque<Connection> idle = new ArrayDeque<Connection>();
+    private final Set<Lease> leases =
+            Collections.newSetFromMap(new ConcurrentHashMap<Lease, Boolean>());
+    private final ScheduledExecutorService leakDetector;
+    private volatile boolean closed = false;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong waitTime = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+
+    /**
+     * @param driverName  the JDBC driver class
+     * @param databaseUrl the JDBC url
+     * @param username    the database user
+     * @param password    the password of the user
+     * @param maxSize     the maximum number of connections
+     * @param timeout     the time to wait for a free connection, in
+     *                    milliseconds
+     * @param leakTime    the time to log a borrowed connection as leaked, in
+     *                    milliseconds, 0 to disable the leak detection
+     * @throws ClassNotFoundException if the driver does not exist
+     */
+    public ConnectionPool(String driverName, String databaseUrl,
+                          String username, String password, int maxSize, long timeout,
+                          long leakTime) throws ClassNotFoundException {
+        // Load the database driver
+        Class.forName(driverName);
+        this.databaseUrl = databaseUrl;
+        this.username = username;
+        this.password = password;
+        this.maxSize = new AtomicInteger(maxSize);
+        this.timeout = timeout;
+        this.leakTime = leakTime;
+        this.permits = new Permits(maxSize);
+
+        if (leakTime > 0) {
+            leakDetector = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable,
+                                    "connection-leak-detector");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            long period = Math.max(leakTime / 2, 100);
+            leakDetector.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    detectLeaks();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            leakDetector = null;
+        }
+    }
+
+    /**
+     * Returns the pool of the database configured in the properties, it is
+     * created the first time and it is closed when the JVM exits
+     *
+     * @return the pool or null if the driver does not exist
+     */
+    public static synchronized ConnectionPool getDefault() {
+        if (defaultPool == null) {
+            PropertiesManager properties = BasicTestCase.getProperties();
+            ConfigSnapshot config = properties.getSnapshot();
+            try {
+                defaultPool = new ConnectionPool(
+                        config.getString(properties.DATABASE_DRIVERNAME),
+                        config.getString(properties.DATABASE_URL),
+                        config.getString(properties.DATABASE_USERNAME),
+                        config.getString(properties.DATABASE_PASSWORD),
+                        config.getInt(properties.DATABASE_POOL_MAXSIZE,
+                                DEFAULT_MAX_SIZE),
+                        config.getInt(properties.DATABASE_POOL_TIMEOUT,
+                                DEFAULT_TIMEOUT) * 1000L,
+                        config.getInt(properties.DATABASE_POOL_LEAKTIME,
+                                DEFAULT_LEAK_TIME) * 1000L);
+            } catch (ClassNotFoundException e) {
+                // Could not find the database driver
+                logger.error("Database error: " + e.getMessage());
+                return null;
+            }
+            final ConnectionPool pool = defaultPool;
+            Runtime.getRuntime().addShutdownHook(new Thread("connection-pool-close") {
+                @Override
+                public void run() {
+                    logger.info("Closing the connection pool: "
+                            + pool.getMetrics());
+                    pool.close();
+                }
+            });
+        }
+        return defaultPool;
+    }
+
+    /**
+     * Reserves connections in the pool of the database configured in the
+     * properties for the threads of a parallel execution, see reserve()
+     *
+     * @param connections the number of threads of the execution
+     * @return the pool, it must be unreserved when the execution finishes,
+     * or null if the database is disabled
+     */
+    public static ConnectionPool reserveDefault(int connections) {
+        PropertiesManager properties = BasicTestCase.getProperties();
+        if (!properties.getBooleanProperty(properties.DATABASE_ENABLED)) {
+            return null;
+        }
+        ConnectionPool pool = getDefault();
+        if (pool != null) {
+            pool.reserve(connections);
+        }
+        return pool;
+    }
+
+    /**
+     * Borrows a connection, it must be closed to return it to the pool
+     *
+     * @return the connection
+     * @throws SQLException if there are no free connections after the
+     *                      timeout or the connection can not be opened
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("The connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timeout waiting for a database "
+                        + "connection, " + maxSize.get()
+                        + " connections in use");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a database "
+                    + "connection");
+        }
+        waitTime.addAndGet(System.nanoTime() - start);
+
+        try {
+            Connection connection = takeIdle();
+            if (connection == null) {
+                connection = DriverManager.getConnection(databaseUrl,
+                        username, password);
+                created.incrementAndGet();
+            }
+            Lease lease = new Lease(connection);
+            leases.add(lease);
+            borrowed.incrementAndGet();
+            return lease.proxy;
+        } catch (SQLException e) {
+            permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Adds connections to the maximum size while a parallel execution runs,
+     * so each of its threads can hold its own connection without waiting
+     * for the other tests
+     *
+     * @param connections the number of threads of the execution
+     */
+    public void reserve(int connections) {
+        maxSize.addAndGet(connections);
+        permits.release(connections);
+    }
+
+    /**
+     * Removes the connections added by reserve(), the borrowed connections
+     * over the new maximum size are not replaced when they are returned
+     *
+     * @param connections the number of threads of the execution
+     */
+    public void unreserve(int connections) {
+        maxSize.addAndGet(-connections);
+        permits.reduce(connections);
+    }
+
+    /**
+     * @return the current state and the counters of the pool
+     */
+    public Metrics getMetrics() {
+        int idleCount;
+        synchronized (idle) {
+            idleCount = idle.size();
+        }
+        long borrowedCount = borrowed.get();
+        return new Metrics(maxSize.get(), leases.size(), idleCount, created.get(),
+                borrowedCount, borrowedCount == 0 ? 0 : waitTime.get()
+                / borrowedCount / 1000000, validationFailures.get(),
+                leaks.get());
+    }
+
+    /**
+     * Closes the idle connections, the borrowed ones are closed when they
+     * are returned
+     */
+    public void close() {
+        closed = true;
+        if (leakDetector != null) {
+            leakDetector.shutdownNow();
+        }
+        synchronized (idle) {
+            for (Connection connection : idle) {
+                closeQuietly(connection);
+            }
+            idle.clear();
+        }
+    }
+
+    /**
+     * @return a valid idle connection or null if there are no idle
+     * connections
+     */
+    private Connection takeIdle() {
+        while (true) {
+            Connection connection;
+            synchronized (idle) {
+                connection = idle.pollFirst();
+            }
+            if (connection == null || isValid(connection)) {
+                return connection;
+            }
+            validationFailures.incrementAndGet();
+            logger.debug("Discarding an invalid database connection");
+            closeQuietly(connection);
+        }
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(VALIDATION_TIMEOUT);
+        } catch (SQLException e) {
+            return false;
+        } catch (AbstractMethodError e) {
+            // JDBC 3 drivers
+            try {
+                return !connection.isClosed();
+            } catch (SQLException e2) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Returns a connection to the pool
+     */
+    private void release(Lease lease) {
+        leases.remove(lease);
+        Connection connection = lease.connection;
+        try {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            synchronized (idle) {
+                if (!closed) {
+                    idle.addFirst(connection);
+                    connection = null;
+                }
+            }
+        } catch (SQLException e) {
+            logger.debug("Discarding a database connection: " + e.getMessage());
+        } finally {
+            if (connection != null) {
+                closeQuietly(connection);
+            }
+            permits.release();
+        }
+    }
+
+    /**
+     * Logs the connections borrowed for longer than the leak time
+     */
+    private void detectLeaks() {
+        long now = System.currentTimeMillis();
+        for (Lease lease : leases) {
+            if (!lease.reported && now - lease.borrowTime > leakTime) {
+                lease.reported = true;
+                leaks.incrementAndGet();
+                logger.warn("Possible database connection leak, the "
+                        + "connection was borrowed " + (now - lease.borrowTime)
+                        + " ms ago", lease.borrower);
+            }
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.debug("Error closing a database connection: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Permits of the connections, they can be reduced while the connections
+     * are borrowed
+     */
+    private static class Permits extends Semaphore {
+        Permits(int permits) {
+            super(permits, true);
+        }
+
+        void reduce(int reduction) {
+            reducePermits(reduction);
+        }
+    }
+
+    /**
+     * Borrowed connection
+     */
+    private class Lease implements InvocationHandler {
+        private final Connection connection;
+        private final Connection proxy;
+        private final long borrowTime = System.currentTimeMillis();
+        private final Throwable borrower = new Throwable(
+                "Connection borrowed by thread '"
+                        + Thread.currentThread().getName() + "'");
+        private volatile boolean reported = false;
+        private boolean returned = false;
+
+        Lease(Connection connection) {
+            this.connection = connection;
+            this.proxy = (Connection) Proxy.newProxyInstance(
+                    ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, this);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            String name = method.getName();
+            if (method.getDeclaringClass() == Object.class) {
+                if (name.equals("equals")) {
+                    return proxy == args[0];
+                } else if (name.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                }
+                return "Pooled connection (" + connection + ")";
+            }
+
+            synchronized (this) {
+                if (name.equals("close")) {
+                    if (!returned) {
+                        returned = true;
+                        release(this);
+                    }
+                    return null;
+                } else if (name.equals("isClosed")) {
+                    return returned || connection.isClosed();
+                } else if (returned) {
+                    throw new SQLException("The connection has been returned "
+                            + "to the pool");
+                }
+            }
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * State and counters of the pool
+     */
+    public static class Metrics {
+        private final int maxSize;
+        private final int active;
+        private final int idle;
+        private final long created;
+        private final long borrowed;
+        private final long averageWait;
+        private final long validationFailures;
+        private final long leaks;
+
+        Metrics(int maxSize, int active, int idle, long created, long borrowed,
+                long averageWait, long validationFailures, long leaks) {
+            this.maxSize = maxSize;
+            this.active = active;
+            this.idle = idle;
+            this.created = created;
+            this.borrowed = borrowed;
+            this.averageWait = averageWait;
+            this.validationFailures = validationFailures;
+            this.leaks = leaks;
+        }
+
+        /**
+         * @return the maximum number of connections
+         */
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        /**
+         * @return the borrowed connections
+         */
+        public int getActive() {
+            return active;
+        }
+
+        /**
+         * @return the connections waiting in the pool
+         */
+        public int getIdle() {
+            return idle;
+        }
+
+        /**
+         * @return the connections opened
+         */
+        public long getCreated() {
+            return created;
+        }
+
+        /**
+         * @return the number of borrows
+         */
+        public long getBorrowed() {
+            return borrowed;
+        }
+
+        /**
+         * @return the average time waiting for a free connection, in
+         * milliseconds
+         */
+        public long getAverageWait() {
+            return averageWait;
+        }
+
+        /**
+         * @return the idle connections discarded because they were not valid
+         */
+        public long getValidationFailures() {
+            return validationFailures;
+        }
+
+        /**
+         * @return the connections logged as leaked
+         */
+        public long getLeaks() {
+            return leaks;
+        }
+
+        @Override
+        public String toString() {
+            return "active=" + active + ", idle=" + idle + ", max=" + maxSize
+                    + ", created=" + created + ", borrowed=" + borrowed
+                    + ", averageWait=" + averageWait + "ms, invalid="
+                    + validationFailures + ", leaks=" + leaks;
+        }
+    }
+}
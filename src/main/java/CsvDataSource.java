@@ -0,0 +1,150 @@
+package main.java;
+
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+
+/**
+ * Csv file read in small chunks with CsvParser.
+ */
+public class CsvDataSource implements DataSource {
+    /**
+     * Class logger
+     */
+    protected static Log logger = LogFactory.getLog(CsvDataSource.class);
+
+    private final String filePath;
+    private final boolean header;
+    private final char separator;
+    private final char quotechar;
+    private final int[] columns;
+
+    /**
+     * Bytes parsed at once, so only a few rows are kept in memory
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * @param filePath
+     * @param header    true if the first row is the header and has no data
+     * @param separator the delimiter to use for separating entries
+     * @param quotechar the character to use for quoted elements
+     */
+    public CsvDataSource(String filePath, boolean header, char separator,
+                         char quotechar) {
+        this(filePath, header, separator, quotechar, null);
+    }
+
+    /**
+     * @param filePath
+     * @param header    true if the first row is the header and has no data
+     * @param separator the delimiter to use for separating entries
+     * @param quotechar the character to use for quoted elements
+     * @param columns   the column indexes of the rows, null for all
+     */
+    public CsvDataSource(String filePath, boolean header, char separator,
+                         char quotechar, int[] columns) {
+        this.filePath = filePath;
+        this.header = header;
+        this.separator = separator;
+        this.quotechar = quotechar;
+        this.columns = columns;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public RowIterator open() {
+        logger.debug("Reading data from csv '" + filePath + "'");
+        try {
+            CsvParser parser = new CsvParser(filePath, header, separator,
+                    quotechar, CHUNK_SIZE, columns);
+            return new CsvRowIterator(parser);
+        } catch (IOException e) {
+            logger.error("Error reading the csv file '" + filePath + "': " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads a row in advance to know if there are more rows
+     */
+    private class CsvRowIterator implements RowIterator {
+        private CsvParser parser;
+        private Iterator<ArrayList<String>> chunk;
+        private ArrayList<String> nextRow;
+        private String error = null;
+
+        CsvRowIterator(CsvParser parser) {
+            this.parser = parser;
+            nextRow = readRow();
+        }
+
+        private ArrayList<String> readRow() {
+            if (parser == null) {
+                return null;
+            }
+            try {
+                while (chunk == null || !chunk.hasNext()) {
+                    List<ArrayList<String>> rows = parser.parseNextChunk();
+                    if (rows == null) {
+                        break;
+                    }
+                    chunk = rows.iterator();
+                }
+                if (chunk != null && chunk.hasNext()) {
+                    return chunk.next();
+                }
+            } catch (Exception e) {
+                error = e.toString();
+                logger.error("Error reading the csv file '" + filePath + "': "
+                        + e);
+            }
+            close();
+            return null;
+        }
+
+        public boolean hasNext() {
+            return nextRow != null;
+        }
+
+        public ArrayList<String> next() {
+            if (nextRow == null) {
+                throw new NoSuchElementException();
+            }
+            ArrayList<String> rowData = nextRow;
+            nextRow = readRow();
+            return rowData;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public void close() {
+            if (parser != null) {
+                try {
+                    parser.close();
+                } catch (IOException e) {
+                    logger.warn("Error closing the csv file '" + filePath
+                            + "': " + e.getMessage());
+                }
+                parser = null;
+            }
+            chunk = null;
+            nextRow = null;
+        }
+    }
+}
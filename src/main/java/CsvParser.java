@@ -0,0 +1,457 @@
+package main.java;
+
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ * Csv parser based on memory-mapped files.
+ * <p/>
+ * The file is split in chunks that start and end at the beginning of a
+ * record (line breaks inside quoted values are taken into account), and the
+ * chunks are parsed in parallel by fork/join workers. The rows are returned
+ * in file order and with the same values as opencsv 2.0 (escape char '\',
+ * doubled quotes, quoted line breaks and the header skipped as the first
+ * line). The file is decoded with the default charset, as FileReader does.
+ * The rows can be projected to some columns, the other values are scanned
+ * but not copied.
+ */
+public class CsvParser {
+    /**
+     * Class logger
+     */
+    protected static Log logger = LogFactory.getLog(CsvParser.class);
+
+    private static final char ESCAPE = '\\';
+    private static final int MIN_CHUNK_SIZE = 256 * 1024;
+    private static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Workers shared by all the parsers
+     */
+    private static final ForkJoinPool pool = new ForkJoinPool();
+
+    private final String filePath;
+    private final char separator;
+    private final char quotechar;
+    private final Charset charset = Charset.defaultCharset();
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long size;
+    private final int chunkSize;
+
+    /**
+     * Position of each file column in the projected rows, -1 if it is not
+     * read. Null to read all the columns
+     */
+    private final int[] slots;
+    private final int projectedColumns;
+
+    /**
+     * The record bytes can be scanned to find the chunk limits
+     */
+    private final boolean splittable;
+
+    /**
+     * Scan state
+     */
+    private long position;
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    /**
+     * Opens a csv file
+     *
+     * @param filePath
+     * @param header    true if the first row is the header and has no data
+     * @param separator the delimiter to use for separating entries
+     * @param quotechar the character to use for quoted elements
+     * @throws IOException if the file can not be opened
+     */
+    public CsvParser(String filePath, boolean header, char separator,
+                     char quotechar) throws IOException {
+        this(filePath, header, separator, quotechar, 0);
+    }
+
+    /**
+     * Opens a csv file
+     *
+     * @param filePath
+     * @param header    true if the first row is the header and has no data
+     * @param separator the delimiter to use for separating entries
+     * @param quotechar the character to use for quoted elements
+     * @param chunkSize approximate bytes of each chunk, 0 to calculate it
+     *                  from the file size and the number of processors
+     * @throws IOException if the file can not be opened
+     */
+    public CsvParser(String filePath, boolean header, char separator,
+                     char quotechar, int chunkSize) throws IOException {
+        this(filePath, header, separator, quotechar, chunkSize, null);
+    }
+
+    /**
+     * Opens a csv file to read some columns
+     *
+     * @param filePath
+     * @param header    true if the first row is the header and has no data
+     * @param separator the delimiter to use for separating entries
+     * @param quotechar the character to use for quoted elements
+     * @param chunkSize approximate bytes of each chunk, 0 to calculate it
+     *                  from the file size and the number of processors
+     * @param columns   the column indexes of the rows, null for all
+     * @throws IOException if the file can not be opened
+     */
+    public CsvParser(String filePath, boolean header, char separator,
+                     char quotechar, int chunkSize, int[] columns) throws IOException {
+        if (columns == null) {
+            slots = null;
+            projectedColumns = 0;
+        } else {
+            int maxColumn = -1;
+            for (int column : columns) {
+                maxColumn = Math.max(maxColumn, column);
+            }
+            slots = new int[maxColumn + 1];
+            Arrays.fill(slots, -1);
+            for (int i = 0; i < columns.length; i++) {
+                slots[columns[i]] = i;
+            }
+            projectedColumns = columns.length;
+        }
+        this.filePath = filePath;
+        this.separator = separator;
+        this.quotechar = quotechar;
+        file = new RandomAccessFile(filePath, "r");
+        channel = file.getChannel();
+        size = channel.size();
+        splittable = quotechar < 0x80 && isAsciiCompatible(charset);
+        if (chunkSize > 0) {
+            this.chunkSize = chunkSize;
+        } else {
+            long parallelChunk = size / (pool.getParallelism() * 4);
+            this.chunkSize = (int) Math.max(MIN_CHUNK_SIZE,
+                    Math.min(MAX_CHUNK_SIZE, parallelChunk));
+        }
+
+        position = 0;
+        if (header) {
+            // As opencsv, the header is the first line
+            position = skipLine(0);
+        }
+    }
+
+    /**
+     * Parses the whole file in parallel
+     *
+     * @return the rows in file order
+     * @throws IOException if the file can not be read
+     */
+    public ArrayList<ArrayList<String>> parseAll() throws IOException {
+        List<Future<List<ArrayList<String>>>> chunks =
+                new ArrayList<Future<List<ArrayList<String>>>>();
+        long start;
+        while ((start = position) < size) {
+            chunks.add(pool.submit(new ChunkTask(start, nextChunkEnd())));
+        }
+        logger.debug("Parsing csv '" + filePath + "' in " + chunks.size()
+                + " chunks");
+
+        ArrayList<ArrayList<String>> data = new ArrayList<ArrayList<String>>();
+        try {
+            for (Future<List<ArrayList<String>>> chunk : chunks) {
+                data.addAll(chunk.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted parsing the csv file", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error parsing the csv file", e.getCause());
+        }
+        return data;
+    }
+
+    /**
+     * Parses the next chunk of the file in the calling thread
+     *
+     * @return the rows of the chunk or null at the end of the file
+     * @throws IOException if the file can not be read
+     */
+    public List<ArrayList<String>> parseNextChunk() throws IOException {
+        long start = position;
+        if (start >= size) {
+            return null;
+        }
+        return parseChunk(start, nextChunkEnd());
+    }
+
+    /**
+     * Closes the file
+     */
+    public void close() throws IOException {
+        window = null;
+        file.close();
+    }
+
+    /**
+     * Task that parses a chunk in a fork/join worker
+     */
+    private class ChunkTask extends RecursiveTask<List<ArrayList<String>>> {
+        private static final long serialVersionUID = 1L;
+        private final long start;
+        private final long end;
+
+        ChunkTask(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected List<ArrayList<String>> compute() {
+            try {
+                return parseChunk(start, end);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Finds the end of the chunk that starts in the current position: the
+     * first line break out of quotes after chunkSize bytes
+     *
+     * @return the end of the chunk, the current position is moved there
+     */
+    private long nextChunkEnd() throws IOException {
+        if (!splittable) {
+            position = size;
+            return size;
+        }
+
+        long target = position + chunkSize;
+        boolean inQuotes = false;
+        long p = position;
+        while (p < size) {
+            byte b = byteAt(p);
+            if (b == '\n' || b == '\r') {
+                p = skipLineBreak(p);
+                if (!inQuotes && p >= target) {
+                    break;
+                }
+            } else if (b == ESCAPE) {
+                // The escape always consumes the next char of the line
+                p += isLineBreak(p + 1) ? 1 : 2;
+            } else if (b == quotechar) {
+                if (inQuotes && p + 1 < size && byteAt(p + 1) == quotechar) {
+                    p += 2;
+                } else {
+                    inQuotes = !inQuotes;
+                    p++;
+                }
+            } else {
+                p++;
+            }
+        }
+        position = Math.min(p, size);
+        return position;
+    }
+
+    /**
+     * @return the position after the line that starts in start
+     */
+    private long skipLine(long start) throws IOException {
+        long p = start;
+        while (p < size && !isLineBreak(p)) {
+            p++;
+        }
+        return p < size ? skipLineBreak(p) : size;
+    }
+
+    private boolean isLineBreak(long p) throws IOException {
+        if (p >= size) {
+            return true;
+        }
+        byte b = byteAt(p);
+        return b == '\n' || b == '\r';
+    }
+
+    /**
+     * @return the position after the line break (\n, \r or \r\n) in p
+     */
+    private long skipLineBreak(long p) throws IOException {
+        if (byteAt(p) == '\r' && p + 1 < size && byteAt(p + 1) == '\n') {
+            return p + 2;
+        }
+        return p + 1;
+    }
+
+    /**
+     * Reads a byte of the file through a memory-mapped window
+     */
+    private byte byteAt(long p) throws IOException {
+        if (window == null || p < windowStart
+                || p >= windowStart + window.limit()) {
+            windowStart = p;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, p,
+                    Math.min(WINDOW_SIZE, size - p));
+        }
+        return window.get((int) (p - windowStart));
+    }
+
+    /**
+     * Decodes and parses the records of a chunk
+     */
+    private List<ArrayList<String>> parseChunk(long start, long end)
+            throws IOException {
+        if (end - start > Integer.MAX_VALUE) {
+            throw new IOException("Csv record too big at byte " + start);
+        }
+        MappedByteBuffer bytes =
+                channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        CharBuffer chars;
+        try {
+            chars = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(bytes);
+        } catch (CharacterCodingException e) {
+            throw new IOException("Error decoding the csv file", e);
+        }
+        return parseRecords(chars.array(), chars.arrayOffset(),
+                chars.arrayOffset() + chars.limit());
+    }
+
+    /**
+     * Parses the records with the same rules as opencsv 2.0
+     * (CSVReader.parseLine)
+     */
+    private List<ArrayList<String>> parseRecords(char[] text, int from, int to) {
+        List<ArrayList<String>> rows = new ArrayList<ArrayList<String>>();
+        int pos = from;
+        StringBuilder sb = new StringBuilder(128);
+        while (pos < to) {
+            ArrayList<String> tokens = newRow();
+            sb.setLength(0);
+            boolean inQuotes = false;
+            int column = 0;
+            boolean read = isRead(0);
+            do {
+                if (inQuotes) {
+                    // continuing a quoted section, reappend newline
+                    if (read) {
+                        sb.append('\n');
+                    }
+                    if (pos >= to) {
+                        break;
+                    }
+                }
+                int lineStart = pos;
+                int lineEnd = pos;
+                while (lineEnd < to && text[lineEnd] != '\n'
+                        && text[lineEnd] != '\r') {
+                    lineEnd++;
+                }
+                for (int i = lineStart; i < lineEnd; i++) {
+                    char c = text[i];
+                    if (c == ESCAPE) {
+                        if (inQuotes && i + 1 < lineEnd && read
+                                && (text[i + 1] == quotechar || text[i + 1] == ESCAPE)) {
+                            sb.append(text[i + 1]);
+                        }
+                        i++;
+                    } else if (c == quotechar) {
+                        if (inQuotes && i + 1 < lineEnd
+                                && text[i + 1] == quotechar) {
+                            if (read) {
+                                sb.append(text[i + 1]);
+                            }
+                            i++;
+                        } else {
+                            inQuotes = !inQuotes;
+                            // embedded quote in the middle: a,bc"d"ef,g
+                            if (read && i - lineStart > 2
+                                    && text[i - 1] != separator
+                                    && i + 1 < lineEnd
+                                    && text[i + 1] != separator) {
+                                sb.append(c);
+                            }
+                        }
+                    } else if (c == separator && !inQuotes) {
+                        addToken(tokens, column, sb);
+                        column++;
+                        read = isRead(column);
+                    } else if (read) {
+                        sb.append(c);
+                    }
+                }
+                pos = lineEnd;
+                if (pos < to) {
+                    pos += (text[pos] == '\r' && pos + 1 < to
+                            && text[pos + 1] == '\n') ? 2 : 1;
+                }
+            } while (inQuotes);
+            addToken(tokens, column, sb);
+            rows.add(tokens);
+        }
+        return rows;
+    }
+
+    /**
+     * @return true if the column is read
+     */
+    private boolean isRead(int column) {
+        return slots == null || (column < slots.length && slots[column] >= 0);
+    }
+
+    /**
+     * @return an empty row, or a row of "" values for the projected columns
+     */
+    private ArrayList<String> newRow() {
+        if (slots == null) {
+            return new ArrayList<String>();
+        }
+        ArrayList<String> tokens = new ArrayList<String>(projectedColumns);
+        for (int i = 0; i < projectedColumns; i++) {
+            tokens.add("");
+        }
+        return tokens;
+    }
+
+    /**
+     * Adds the value of a column to the row, if the column is read
+     */
+    private void addToken(ArrayList<String> tokens, int column,
+                          StringBuilder sb) {
+        if (slots == null) {
+            tokens.add(sb.toString());
+        } else if (isRead(column)) {
+            tokens.set(slots[column], sb.toString());
+        }
+        sb.setLength(0);
+    }
+
+    /**
+     * @return true if the ASCII chars are encoded as single bytes
+     */
+    private static boolean isAsciiCompatible(Charset charset) {
+        byte[] encoded = "\n\r\\\"',;".getBytes(charset);
+        return encoded.length == 7 && encoded[0] == '\n' && encoded[6] == ';';
+    }
+}
@@ -0,0 +1,29 @@
+package main.java;
+
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds a parameter of a data driven test method to a column of the data
+ * file by its name in the header row.
+ * <p/>
+ * If all the parameters of the method are annotated, only those columns are
+ * read from the file, in the order of the parameters, i.e.
+ * <pre>
+ * public void login(@DataColumn("user") String user,
+ *                   &#64;DataColumn("password") String password)
+ * </pre>
+ * The names are compared ignoring the case and the surrounding spaces.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface DataColumn {
+
+    /**
+     * @return the name of the column in the header row
+     */
+    String value();
+}
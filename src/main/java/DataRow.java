@@ -0,0 +1,36 @@
+package main.java;
+
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * Row of an excel file that knows which of its values are numeric cells.
+ * <p/>
+ * The values are the same text as in the other rows, so it is used as any
+ * other row; the copies of the data (i.e. ResultWorkbookWriter) write the
+ * numeric cells as numbers and the rest as text.
+ */
+class DataRow extends ArrayList<String> {
+    private static final long serialVersionUID = 1L;
+
+    private final BitSet numbers = new BitSet();
+
+    DataRow(int capacity) {
+        super(capacity);
+    }
+
+    /**
+     * Marks the value of a column as a numeric cell
+     */
+    void setNumber(int index, boolean number) {
+        numbers.set(index, number);
+    }
+
+    /**
+     * @return true if the value of the column was a numeric cell
+     */
+    boolean isNumber(int index) {
+        return numbers.get(index);
+    }
+}
@@ -0,0 +1,23 @@
+package main.java;
+
+
+/**
+ * A data file (csv, xls or xlsx) whose rows can be read one at a time.
+ * <p/>
+ * Each call to open() starts a new reading of the file, so the rows are
+ * only kept in memory while they are being used.
+ */
+public interface DataSource {
+
+    /**
+     * Starts reading the data file
+     *
+     * @return the row iterator or null if the file could not be opened
+     */
+    RowIterator open();
+
+    /**
+     * @return the path of the data file
+     */
+    String getFilePath();
+}
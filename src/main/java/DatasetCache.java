@@ -0,0 +1,418 @@
+package main.java;
+
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Cache of the data read from the csv/excel files.
+ * <p/>
+ * The data are identified by the file path, its modification time and
+ * length, the reading parameters (sheet, header, separator and quote char)
+ * and the excel reading properties (qa.excel.streaming and
+ * qa.excel.evaluateformulas). There are two levels:
+ * <ul>
+ * <li>memory: the last used files, up to qa.datacache.size entries</li>
+ * <li>disk: a binary snapshot of each file in qa.datacache.path, read with a
+ * memory-mapped buffer in later executions, so the file is not parsed
+ * again. A new snapshot replaces the ones of the previous versions of the
+ * file, and the snapshots not used for MAX_AGE_DAYS are deleted</li>
+ * </ul>
+ * The number of hits and misses can be checked with the getters.
+ */
+public class DatasetCache {
+    /**
+     * Class logger
+     */
+    protected static Log logger = LogFactory.getLog(DatasetCache.class);
+
+    private static final int MAGIC = 0x51414443;
+    private static final int VERSION = 1;
+    private static final int DEFAULT_SIZE = 16;
+    private static final String DEFAULT_PATH = "target/datacache/";
+    private static final String SNAPSHOT_EXTENSION = ".bin";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final long MAX_AGE_DAYS = 30;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Memory level, in access order
+     */
+    private static final LinkedHashMap<String, ArrayList<ArrayList<String>>> memory =
+            new LinkedHashMap<String, ArrayList<ArrayList<String>>>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, ArrayList<ArrayList<String>>> eldest) {
+                    return size() > maxSize;
+                }
+            };
+    private static int maxSize = DEFAULT_SIZE;
+
+    /**
+     * Snapshot folders whose old snapshots have been deleted
+     */
+    private static final Set<String> prunedFolders = new HashSet<String>();
+
+    /**
+     * Statistics
+     */
+    private static final AtomicLong memoryHits = new AtomicLong();
+    private static final AtomicLong diskHits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @return true if the cache is enabled with the qa.datacache.enabled
+     * property
+     */
+    public static boolean isEnabled() {
+        PropertiesManager properties = BasicTestCase.getProperties();
+        return properties.getBooleanProperty(properties.DATACACHE_ENABLED);
+    }
+
+    /**
+     * Returns the data of a file, reading it only if it is not in the cache
+     *
+     * @param filePath
+     * @param sheetNumber [excel] the sheet number
+     * @param header      true if the first row is the header and has no data
+     * @param separator   [csv] the delimiter to use for separating entries
+     * @param quotechar   [csv] the character to use for quoted elements
+     * @param loader      reads the file if it is not in the cache
+     * @return a copy of the data or null if the file could not be read
+     */
+    public static ArrayList<ArrayList<String>> get(String filePath,
+                                                   int sheetNumber, boolean header, char separator, char quotechar,
+                                                   Loader loader) {
+        File file = new File(filePath);
+        if (!file.isFile()) {
+            return loader.load();
+        }
+        PropertiesManager properties = BasicTestCase.getProperties();
+        // The excel properties change the values of the cells
+        String reading = file.getAbsolutePath() + "|" + sheetNumber + "|"
+                + header + "|" + separator + "|" + quotechar + "|"
+                + properties.getBooleanProperty(properties.EXCEL_STREAMING)
+                + "|" + properties.getBooleanProperty(
+                properties.EXCEL_EVALUATEFORMULAS);
+        String key = reading + "|" + file.lastModified() + "|" + file.length();
+        configure();
+
+        ArrayList<ArrayList<String>> data;
+        synchronized (memory) {
+            data = memory.get(key);
+        }
+        if (data != null) {
+            memoryHits.incrementAndGet();
+            logger.debug("Data of '" + filePath + "' found in memory cache");
+            return copy(data);
+        }
+
+        File snapshot = getSnapshotFile(reading, key);
+        pruneFolder(snapshot.getParentFile());
+        data = readSnapshot(snapshot, key);
+        if (data != null) {
+            diskHits.incrementAndGet();
+            // The used snapshots are not deleted by age
+            snapshot.setLastModified(System.currentTimeMillis());
+            logger.debug("Data of '" + filePath + "' found in disk cache");
+        } else {
+            misses.incrementAndGet();
+            data = loader.load();
+            if (data == null) {
+                return null;
+            }
+            writeSnapshot(snapshot, key, data);
+            deleteOldVersions(snapshot);
+        }
+        synchronized (memory) {
+            memory.put(key, data);
+        }
+        return copy(data);
+    }
+
+    /**
+     * @return the number of files found in the memory level
+     */
+    public static long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    /**
+     * @return the number of files found in the disk level
+     */
+    public static long getDiskHits() {
+        return diskHits.get();
+    }
+
+    /**
+     * @return the number of files that had to be read
+     */
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the statistics of the cache
+     */
+    public static String getStatistics() {
+        return "memory hits: " + getMemoryHits() + ", disk hits: "
+                + getDiskHits() + ", misses: " + getMisses();
+    }
+
+    /**
+     * Removes the memory level, the disk snapshots are kept
+     */
+    public static void clearMemory() {
+        synchronized (memory) {
+            memory.clear();
+        }
+    }
+
+    /**
+     * Reads the file if it is not in the cache
+     */
+    public interface Loader {
+        /**
+         * @return the data of the file or null if it could not be read
+         */
+        ArrayList<ArrayList<String>> load();
+    }
+
+    /**
+     * Reads the size of the memory level
+     */
+    private static void configure() {
+        PropertiesManager properties = BasicTestCase.getProperties();
+        String size = properties.getProperty(properties.DATACACHE_SIZE);
+        int newSize = DEFAULT_SIZE;
+        if (!size.isEmpty()) {
+            try {
+                newSize = Integer.parseInt(size);
+            } catch (NumberFormatException e) {
+                logger.warn("Wrong data cache size '" + size + "'");
+            }
+        }
+        synchronized (memory) {
+            maxSize = newSize;
+        }
+    }
+
+    /**
+     * The name of the snapshot starts with the hash of the reading, so the
+     * snapshots of other versions of the file can be found
+     */
+    private static File getSnapshotFile(String reading, String key) {
+        PropertiesManager properties = BasicTestCase.getProperties();
+        String path = properties.getProperty(properties.DATACACHE_PATH);
+        if (path.isEmpty()) {
+            path = DEFAULT_PATH;
+        }
+        return new File(path, sha1(reading) + "-" + sha1(key)
+                + SNAPSHOT_EXTENSION);
+    }
+
+    /**
+     * Deletes the snapshots of the other versions of the file, with the same
+     * reading parameters
+     */
+    private static void deleteOldVersions(File snapshot) {
+        String name = snapshot.getName();
+        final String prefix = name.substring(0, name.indexOf('-') + 1);
+        File[] versions = snapshot.getParentFile().listFiles(
+                new FilenameFilter() {
+                    public boolean accept(File dir, String fileName) {
+                        return fileName.startsWith(prefix)
+                                && fileName.endsWith(SNAPSHOT_EXTENSION);
+                    }
+                });
+        if (versions == null) {
+            return;
+        }
+        for (File version : versions) {
+            if (!version.getName().equals(name) && version.delete()) {
+                logger.debug("Old data cache file '" + version + "' deleted");
+            }
+        }
+    }
+
+    /**
+     * Deletes the snapshots and temporal files not used for MAX_AGE_DAYS,
+     * i.e. of files that do not exist anymore. Each folder is checked once
+     */
+    private static void pruneFolder(File folder) {
+        synchronized (prunedFolders) {
+            if (!prunedFolders.add(folder.getAbsolutePath())) {
+                return;
+            }
+        }
+        File[] files = folder.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String fileName) {
+                return fileName.endsWith(SNAPSHOT_EXTENSION)
+                        || fileName.endsWith(TEMP_EXTENSION);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        long limit = System.currentTimeMillis()
+                - TimeUnit.DAYS.toMillis(MAX_AGE_DAYS);
+        int deleted = 0;
+        for (File file : files) {
+            if (file.lastModified() < limit && file.delete()) {
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            logger.info(deleted + " unused data cache files deleted from '"
+                    + folder + "'");
+        }
+    }
+
+    private static String sha1(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(
+                    key.getBytes(UTF8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+
+    /**
+     * Reads a snapshot with a memory-mapped buffer
+     *
+     * @return the data or null if the snapshot does not exist or it is not
+     * valid
+     */
+    private static ArrayList<ArrayList<String>> readSnapshot(File snapshot,
+                                                             String key) {
+        if (!snapshot.isFile()) {
+            return null;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(snapshot, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                MappedByteBuffer buffer = channel.map(
+                        FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                        || !key.equals(readString(buffer))) {
+                    logger.warn("Invalid data cache file '" + snapshot + "'");
+                    return null;
+                }
+                int rows = buffer.getInt();
+                ArrayList<ArrayList<String>> data =
+                        new ArrayList<ArrayList<String>>(rows);
+                for (int r = 0; r < rows; r++) {
+                    int cols = buffer.getInt();
+                    ArrayList<String> rowData = new ArrayList<String>(cols);
+                    for (int c = 0; c < cols; c++) {
+                        rowData.add(readString(buffer));
+                    }
+                    data.add(rowData);
+                }
+                return data;
+            } finally {
+                raf.close();
+            }
+        } catch (Exception e) {
+            logger.warn("Error reading the data cache file '" + snapshot
+                    + "': " + e);
+            return null;
+        }
+    }
+
+    private static String readString(MappedByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Writes a snapshot in a temporal file that is renamed at the end, so
+     * other executions never read an incomplete snapshot
+     */
+    private static void writeSnapshot(File snapshot, String key,
+                                      ArrayList<ArrayList<String>> data) {
+        File folder = snapshot.getParentFile();
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            logger.warn("Error creating the data cache folder '" + folder + "'");
+            return;
+        }
+        try {
+            File temp = File.createTempFile("datacache", TEMP_EXTENSION,
+                    folder);
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, key);
+                out.writeInt(data.size());
+                for (ArrayList<String> rowData : data) {
+                    out.writeInt(rowData.size());
+                    for (String value : rowData) {
+                        writeString(out, value);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(snapshot)) {
+                snapshot.delete();
+                if (!temp.renameTo(snapshot)) {
+                    temp.delete();
+                    logger.warn("Error saving the data cache file '"
+                            + snapshot + "'");
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Error saving the data cache file '" + snapshot + "': "
+                    + e.getMessage());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value)
+            throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static ArrayList<ArrayList<String>> copy(
+            ArrayList<ArrayList<String>> data) {
+        ArrayList<ArrayList<String>> copy =
+                new ArrayList<ArrayList<String>>(data.size());
+        for (ArrayList<String> rowData : data) {
+            copy.add(new ArrayList<String>(rowData));
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,314 @@
+package main.java;
+
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openqa.selenium.HasCapabilities;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NoSuchWindowException;
+import org.openqa.selenium.TakesScreenshot;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.interactions.HasInputDevices;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+
+/**
+ * Keeps the WebDriver of each thread.
+ * <p/>
+ * The threads share the driver of the thread that created them, so the
+ * threads started by a test (i.e. the JUnit @Test(timeout) thread) use the
+ * driver set in htmlSetUp. The parallel workers call isolate() and have
+ * their own driver.
+ * <p/>
+ * HtmlTestCase.driver is the real driver of the test thread, as long as
+ * there are no parallel executions (see startParallel) and the driver is not
+ * lazy. Otherwise it is a proxy that sends the commands to the driver of the
+ * current thread; if the thread has a starter instead of a driver, the
+ * driver is started by the first command (qa.driver.lazy). The proxy only
+ * implements the WebDriver, JavascriptExecutor, TakesScreenshot,
+ * HasInputDevices and HasCapabilities interfaces, so casts to other classes
+ * must use the real driver returned by HtmlTestCase.getRealDriver().
+ * quit() and close() do nothing if the driver has not been started.
+ */
+public class DriverHolder {
+    /**
+     * Class logger
+     */
+    protected static Log logger = LogFactory.getLog(DriverHolder.class);
+
+    /**
+     * Driver of each thread, shared with the threads it creates
+     */
+    private static final InheritableThreadLocal<DriverSlot> threadSlot =
+            new InheritableThreadLocal<DriverSlot>() {
+                @Override
+                protected DriverSlot initialValue() {
+                    return new DriverSlot(false);
+                }
+            };
+
+    /**
+     * Number of parallel executions running, HtmlTestCase.driver is the
+     * proxy while there are some
+     */
+    private static int parallelExecutions = 0;
+
+    /**
+     * Interfaces implemented by the proxy
+     */
+    private static final Class<?>[] PROXY_INTERFACES = new Class<?>[]{
+            WebDriver.class, JavascriptExecutor.class, TakesScreenshot.class,
+            HasInputDevices.class, HasCapabilities.class};
+
+    private static final WebDriver proxy = (WebDriver) Proxy.newProxyInstance(
+            DriverHolder.class.getClassLoader(), PROXY_INTERFACES,
+            new ThreadDriverHandler());
+
+    /**
+     * @return the driver of the current thread or null if there is no driver
+     */
+    public static WebDriver get() {
+        return threadSlot.get().driver;
+    }
+
+    /**
+     * Returns the driver of the current thread, starting it if it is lazy
+     *
+     * @return the driver or null if the thread has no driver nor starter
+     */
+    public static WebDriver current() {
+        DriverSlot slot = threadSlot.get();
+        WebDriver driver = slot.driver;
+        if (driver == null) {
+            driver = startLazyDriver(slot);
+        }
+        return driver;
+    }
+
+    /**
+     * Sets the driver of the current thread
+     *
+     * @param driver the driver or null to remove it
+     */
+    public static void set(WebDriver driver) {
+        DriverSlot slot = threadSlot.get();
+        slot.driver = driver;
+        updateTestDriver(slot);
+    }
+
+    /**
+     * Sets the starter of the driver of the current thread, it is called by
+     * the first command sent to the proxy when the thread has no driver and
+     * it must set the driver
+     *
+     * @param starter the starter or null to remove it
+     */
+    public static void setStarter(Callable<?> starter) {
+        DriverSlot slot = threadSlot.get();
+        slot.starter = starter;
+        updateTestDriver(slot);
+    }
+
+    /**
+     * Gives the current thread its own driver, instead of the driver of the
+     * thread that created it. It is called by the parallel workers before
+     * setting their driver; the threads created by them share it
+     */
+    public static void isolate() {
+        threadSlot.set(new DriverSlot(true));
+    }
+
+    /**
+     * Starts a parallel execution, HtmlTestCase.driver is the proxy until
+     * all the parallel executions end
+     */
+    public static synchronized void startParallel() {
+        parallelExecutions++;
+        HtmlTestCase.driver = proxy;
+    }
+
+    /**
+     * Ends a parallel execution, HtmlTestCase.driver is again the driver of
+     * the test thread if there are no more parallel executions
+     */
+    public static synchronized void endParallel() {
+        parallelExecutions--;
+        updateTestDriver(threadSlot.get());
+    }
+
+    /**
+     * Quits the driver of the current thread, or returns it to the
+     * WebDriverPool if it was leased, and removes it
+     */
+    public static void quit() {
+        DriverSlot slot = threadSlot.get();
+        WebDriver driver = slot.driver;
+        if (driver != null) {
+            try {
+                if (!WebDriverPool.release(driver)) {
+                    driver.quit();
+                }
+            } catch (WebDriverException e) {
+                logger.warn("Error stopping the driver: " + e.getMessage());
+            }
+            slot.driver = null;
+            updateTestDriver(slot);
+        }
+    }
+
+    /**
+     * Removes the state of the previous test from a reused driver: closes
+     * all the windows but the current one, deletes the cookies and the local
+     * and session storage and opens a blank page. It is much faster than
+     * starting a new browser.
+     *
+     * @param driver the driver
+     * @throws WebDriverException if the session is dead
+     */
+    public static void reset(WebDriver driver) {
+        Set<String> handles = driver.getWindowHandles();
+        String kept;
+        try {
+            kept = driver.getWindowHandle();
+        } catch (NoSuchWindowException e) {
+            // The current window has been closed, any other one is kept
+            kept = handles.iterator().next();
+        }
+        for (String handle : handles) {
+            if (!handle.equals(kept)) {
+                driver.switchTo().window(handle);
+                driver.close();
+            }
+        }
+        driver.switchTo().window(kept);
+        driver.manage().deleteAllCookies();
+        if (driver instanceof JavascriptExecutor) {
+            try {
+                ((JavascriptExecutor) driver).executeScript(
+                        "try { window.localStorage.clear(); "
+                                + "window.sessionStorage.clear(); } catch (e) {}");
+            } catch (WebDriverException e) {
+                // The page does not have storage
+            } catch (UnsupportedOperationException e) {
+                // JavaScript is disabled
+            }
+        }
+        driver.get("about:blank");
+    }
+
+    /**
+     * Starts the lazy driver of the current thread
+     *
+     * @return the driver or null if the thread has no starter
+     */
+    private static WebDriver startLazyDriver(DriverSlot slot) {
+        // The test thread and its threads can send the first command at
+        // the same time
+        synchronized (slot) {
+            Callable<?> starter = slot.starter;
+            if (slot.driver != null || starter == null) {
+                return slot.driver;
+            }
+            // The starter sends commands to the new driver
+            slot.starter = null;
+            try {
+                starter.call();
+            } catch (WebDriverException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new WebDriverException("Error starting the driver", e);
+            }
+            return slot.driver;
+        }
+    }
+
+    /**
+     * Sets HtmlTestCase.driver to the driver of the test thread: the real
+     * driver, the proxy if it is lazy or null. The isolated threads do not
+     * change it
+     */
+    private static synchronized void updateTestDriver(DriverSlot slot) {
+        if (slot.isolated || parallelExecutions > 0) {
+            return;
+        }
+        if (slot.driver != null) {
+            HtmlTestCase.driver = slot.driver;
+        } else {
+            HtmlTestCase.driver = (slot.starter != null) ? proxy : null;
+        }
+    }
+
+    /**
+     * @return the proxy that uses the driver of the current thread
+     */
+    public static WebDriver getProxy() {
+        return proxy;
+    }
+
+    /**
+     * Sends each command to the driver of the calling thread
+     */
+    private static class ThreadDriverHandler implements InvocationHandler {
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                return invokeObjectMethod(proxy, method, args);
+            }
+            if (get() == null && (method.getName().equals("quit")
+                    || method.getName().equals("close"))) {
+                // The lazy driver is not started to stop it
+                return null;
+            }
+
+            WebDriver driver = current();
+            if (driver == null) {
+                throw new IllegalStateException(
+                        "There is no WebDriver in the thread '"
+                                + Thread.currentThread().getName() + "'");
+            }
+            if (!method.getDeclaringClass().isInstance(driver)) {
+                // Same error as casting the driver, i.e. TakesScreenshot
+                throw new ClassCastException(driver.getClass().getName()
+                        + " cannot be cast to "
+                        + method.getDeclaringClass().getName());
+            }
+            try {
+                return method.invoke(driver, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private Object invokeObjectMethod(Object proxy, Method method,
+                                          Object[] args) {
+            String name = method.getName();
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            return "Thread WebDriver (" + get() + ")";
+        }
+    }
+
+    /**
+     * Driver and lazy starter of a thread and the threads it creates
+     */
+    private static class DriverSlot {
+        private final boolean isolated;
+        private volatile WebDriver driver = null;
+        private volatile Callable<?> starter = null;
+
+        DriverSlot(boolean isolated) {
+            this.isolated = isolated;
+        }
+    }
+}
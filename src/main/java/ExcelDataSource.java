@@ -0,0 +1,174 @@
+package main.java;
+
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Sheet of an excel file read with the streaming reader.
+ * <p/>
+ * The file is parsed in a background thread that leaves the rows in a
+ * bounded queue, so the first rows can be used while the rest of the sheet
+ * is still being parsed and only a few rows are in memory at the same time.
+ */
+public class ExcelDataSource implements DataSource {
+    /**
+     * Class logger
+     */
+    protected static Log logger = LogFactory.getLog(ExcelDataSource.class);
+
+    /**
+     * Maximum number of rows parsed in advance
+     */
+    private static final int QUEUE_SIZE = 100;
+
+    /**
+     * Marks the end of the sheet in the queue
+     */
+    private static final ArrayList<String> END = new ArrayList<String>();
+
+    private final String filePath;
+    private final int sheetNumber;
+    private final boolean header;
+    private final int[] columns;
+
+    /**
+     * @param filePath
+     * @param sheetNumber the sheet number
+     * @param header      true if the first row is the header and has no data
+     */
+    public ExcelDataSource(String filePath, int sheetNumber, boolean header) {
+        this(filePath, sheetNumber, header, null);
+    }
+
+    /**
+     * @param filePath
+     * @param sheetNumber the sheet number
+     * @param header      true if the first row is the header and has no data
+     * @param columns     the column indexes of the rows, null for all
+     */
+    public ExcelDataSource(String filePath, int sheetNumber, boolean header,
+                           int[] columns) {
+        this.filePath = filePath;
+        this.sheetNumber = sheetNumber;
+        this.header = header;
+        this.columns = columns;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public RowIterator open() {
+        ExcelRowIterator iterator = new ExcelRowIterator();
+        Thread reader = new Thread(iterator, "excel-reader-"
+                + new File(filePath).getName());
+        reader.setDaemon(true);
+        reader.start();
+        return iterator;
+    }
+
+    /**
+     * Producer (the reader thread) and consumer of the queued rows
+     */
+    private class ExcelRowIterator implements RowIterator, RowHandler,
+            Runnable {
+        private final BlockingQueue<ArrayList<String>> queue =
+                new ArrayBlockingQueue<ArrayList<String>>(QUEUE_SIZE);
+        private volatile boolean closed = false;
+        private volatile String error = null;
+        private ArrayList<String> nextRow = null;
+        private boolean finished = false;
+
+        public void run() {
+            try {
+                ExcelStreamReader.read(filePath, sheetNumber, header, columns,
+                        this);
+            } catch (Exception e) {
+                error = e.toString();
+                logger.error("Error reading the excel file '" + filePath
+                        + "': " + e);
+            } catch (Error e) {
+                // The consumer receives the error and the end of the rows
+                error = e.toString();
+                logger.error("Error reading the excel file '" + filePath
+                        + "': " + e);
+                throw e;
+            } finally {
+                put(END);
+            }
+        }
+
+        public boolean handleRow(ArrayList<String> rowData) {
+            return put(rowData);
+        }
+
+        /**
+         * Waits for space in the queue
+         *
+         * @return false if the iterator has been closed
+         */
+        private boolean put(ArrayList<String> rowData) {
+            try {
+                while (!closed) {
+                    if (queue.offer(rowData, 100, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        public boolean hasNext() {
+            if (nextRow == null && !finished) {
+                try {
+                    nextRow = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    error = "Interrupted while reading the file";
+                    nextRow = END;
+                }
+                if (nextRow == END) {
+                    nextRow = null;
+                    finished = true;
+                }
+            }
+            return nextRow != null;
+        }
+
+        public ArrayList<String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ArrayList<String> rowData = nextRow;
+            nextRow = null;
+            return rowData;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public void close() {
+            closed = true;
+            finished = true;
+            nextRow = null;
+            // The reader thread stops at the next row
+            queue.clear();
+        }
+    }
+}
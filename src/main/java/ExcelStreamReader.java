@@ -0,0 +1,839 @@
+package main.java;
+
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.poi.hssf.eventusermodel.AbortableHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BlankRecord;
+import org.apache.poi.hssf.record.BoolErrRecord;
+import org.apache.poi.hssf.record.BoundSheetRecord;
+import org.apache.poi.hssf.record.CellValueRecordInterface;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.RowRecord;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.StringRecord;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellValue;
+import org.apache.poi.ss.usermodel.ErrorConstants;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.SAXParserFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Reads a sheet of an excel file with the POI event APIs (SAX for xlsx,
+ * HSSF records for xls), emitting the rows one at a time.
+ * <p/>
+ * The workbook is never loaded in memory, so big files can be read with a
+ * flat memory usage. The rows have the same values as the ones returned by
+ * excelUtils.getFileData: the header row is skipped if required and the empty
+ * cells are filled with "" up to the width of the data rows. The width is
+ * found with a first pass over the sheet that does not decode the cells; the
+ * header and the sheet dimension do not widen the rows. The formula cells
+ * have the result saved in the file; if qa.excel.evaluateformulas is true
+ * they are evaluated, loading the whole workbook in memory the first time a
+ * formula cell is read. The rows can be projected to some columns; in xlsx
+ * files the other cells are not decoded.
+ */
+public class ExcelStreamReader {
+    /**
+     * Class logger
+     */
+    protected static Log logger = LogFactory.getLog(ExcelStreamReader.class);
+
+    /**
+     * Files whose formulas have been read with their cached results, the
+     * warning is logged once per file
+     */
+    private static final Set<String> cachedFormulaFiles =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Reads a sheet of an excel file and sends each row to the handler
+     *
+     * @param filePath    the xls or xlsx file
+     * @param sheetNumber the sheet number
+     * @param header      true if the first row is the header and has no data
+     * @param handler     the row handler
+     * @throws Exception if the file could not be read
+     */
+    public static void read(String filePath, int sheetNumber, boolean header,
+                            RowHandler handler) throws Exception {
+        read(filePath, sheetNumber, header, null, handler);
+    }
+
+    /**
+     * Reads some columns of a sheet of an excel file and sends each row to
+     * the handler
+     *
+     * @param filePath    the xls or xlsx file
+     * @param sheetNumber the sheet number
+     * @param header      true if the first row is the header and has no data
+     * @param columns     the column indexes of the rows, null for all
+     * @param handler     the row handler
+     * @throws Exception if the file could not be read
+     */
+    public static void read(String filePath, int sheetNumber, boolean header,
+                            int[] columns, RowHandler handler) throws Exception {
+        logger.debug("Streaming data from excel '" + filePath + "', sheet "
+                + sheetNumber);
+        PropertiesManager properties = BasicTestCase.getProperties();
+        SheetFormulas formulas = properties.getBooleanProperty(
+                properties.EXCEL_EVALUATEFORMULAS)
+                ? new SheetFormulas(filePath, sheetNumber) : null;
+        int firstRow = header ? 1 : 0;
+        RowEmitter emitter = new RowEmitter(filePath, handler, firstRow,
+                columns, formulas);
+        if (filePath.endsWith(".xlsx")) {
+            readXlsx(filePath, sheetNumber, firstRow, emitter);
+        } else {
+            readXls(filePath, sheetNumber, firstRow, emitter);
+        }
+    }
+
+    /**
+     * Reads a sheet of a xlsx file with the SAX parser
+     */
+    private static void readXlsx(String filePath, int sheetNumber,
+                                 int firstRow, RowEmitter emitter) throws Exception {
+        OPCPackage pkg = OPCPackage.open(filePath, PackageAccess.READ);
+        try {
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable strings =
+                    new ReadOnlySharedStringsTable(pkg);
+
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            XMLReader parser = factory.newSAXParser().getXMLReader();
+
+            if (emitter.needsColumns()) {
+                XlsxWidthHandler width = new XlsxWidthHandler(firstRow);
+                parser.setContentHandler(width);
+                InputStream sheet = openXlsxSheet(reader, sheetNumber);
+                try {
+                    parser.parse(new InputSource(sheet));
+                } finally {
+                    sheet.close();
+                }
+                emitter.setColumns(width.getWidth());
+            }
+
+            parser.setContentHandler(new XlsxSheetHandler(strings, emitter));
+            InputStream sheet = openXlsxSheet(reader, sheetNumber);
+            try {
+                parser.parse(new InputSource(sheet));
+            } catch (StopReadingException e) {
+                logger.debug("Excel reading stopped by the row handler");
+            } finally {
+                sheet.close();
+            }
+        } finally {
+            pkg.revert();
+        }
+    }
+
+    /**
+     * @return the xml stream of a sheet of a xlsx file
+     */
+    private static InputStream openXlsxSheet(XSSFReader reader,
+                                             int sheetNumber) throws Exception {
+        Iterator<InputStream> sheets = reader.getSheetsData();
+        InputStream sheet = null;
+        for (int i = 0; i <= sheetNumber && sheets.hasNext(); i++) {
+            if (sheet != null) {
+                sheet.close();
+            }
+            sheet = sheets.next();
+            if (i < sheetNumber) {
+                sheet.close();
+                sheet = null;
+            }
+        }
+        if (sheet == null) {
+            throw new IllegalArgumentException("Sheet index ("
+                    + sheetNumber + ") is out of range");
+        }
+        return sheet;
+    }
+
+    /**
+     * Reads a sheet of a xls file with the HSSF event API
+     */
+    private static void readXls(String filePath, int sheetNumber,
+                                int firstRow, RowEmitter emitter) throws Exception {
+        NPOIFSFileSystem fs = new NPOIFSFileSystem(new File(filePath));
+        try {
+            if (emitter.needsColumns()) {
+                XlsWidthListener width =
+                        new XlsWidthListener(sheetNumber, firstRow);
+                processXls(fs, sheetNumber, width);
+                emitter.setColumns(width.getWidth());
+            }
+            processXls(fs, sheetNumber,
+                    new XlsSheetListener(sheetNumber, emitter));
+        } finally {
+            fs.close();
+        }
+    }
+
+    /**
+     * Sends the records of a xls file to the listener
+     */
+    private static void processXls(NPOIFSFileSystem fs, int sheetNumber,
+                                   XlsSheetListener listener) throws Exception {
+        HSSFRequest request = new HSSFRequest();
+        request.addListenerForAllRecords(listener);
+        new HSSFEventFactory().abortableProcessWorkbookEvents(request,
+                fs.getRoot());
+        if (!listener.isSheetFound()) {
+            throw new IllegalArgumentException("Sheet index ("
+                    + sheetNumber + ") is out of range");
+        }
+    }
+
+    /**
+     * Builds the rows from the cells found by the parsers
+     */
+    private static class RowEmitter {
+        private final String filePath;
+        private final RowHandler handler;
+        private final int firstRow;
+        private final SheetFormulas formulas;
+        private int columns = 0;
+        private DataRow rowData = null;
+        private boolean stopped = false;
+
+        /**
+         * Position of each sheet column in the projected rows, -1 if it is
+         * not read. Null to read all the columns
+         */
+        private final int[] slots;
+        private final int projectedColumns;
+
+        RowEmitter(String filePath, RowHandler handler, int firstRow,
+                   int[] projection, SheetFormulas formulas) {
+            this.filePath = filePath;
+            this.handler = handler;
+            this.firstRow = firstRow;
+            this.formulas = formulas;
+            if (projection == null) {
+                slots = null;
+                projectedColumns = 0;
+            } else {
+                int maxColumn = -1;
+                for (int column : projection) {
+                    maxColumn = Math.max(maxColumn, column);
+                }
+                slots = new int[maxColumn + 1];
+                Arrays.fill(slots, -1);
+                for (int i = 0; i < projection.length; i++) {
+                    slots[projection[i]] = i;
+                }
+                projectedColumns = projection.length;
+            }
+        }
+
+        /**
+         * @return true if the column is read
+         */
+        boolean isRead(int column) {
+            return slots == null || (column < slots.length && slots[column] >= 0);
+        }
+
+        /**
+         * @return true if the width of the rows must be found before
+         * reading them, false if the rows are projected
+         */
+        boolean needsColumns() {
+            return slots == null;
+        }
+
+        /**
+         * Sets the width of the data rows
+         */
+        void setColumns(int columns) {
+            this.columns = columns;
+        }
+
+        void startRow(int rowIndex) {
+            if (rowIndex < firstRow) {
+                rowData = null;
+            } else if (slots != null) {
+                rowData = new DataRow(projectedColumns);
+                for (int i = 0; i < projectedColumns; i++) {
+                    rowData.add("");
+                }
+            } else {
+                rowData = new DataRow(columns);
+            }
+        }
+
+        /**
+         * @param number true if the cell is numeric
+         */
+        void setCell(int column, String value, boolean number) {
+            if (rowData == null) {
+                return;
+            }
+            if (slots != null) {
+                if (isRead(column)) {
+                    rowData.set(slots[column], value);
+                    rowData.setNumber(slots[column], number);
+                }
+                return;
+            }
+            while (rowData.size() < column) {
+                rowData.add("");
+            }
+            if (rowData.size() == column) {
+                rowData.add(value);
+            } else {
+                rowData.set(column, value);
+            }
+            rowData.setNumber(column, number);
+        }
+
+        /**
+         * Sets the value of a formula cell, evaluated if the formulas are
+         * evaluated. The formulas of the rows and columns that are not read
+         * are not evaluated
+         *
+         * @param cachedValue  the result saved in the file, used if the
+         *                     formula is not evaluated
+         * @param cachedNumber true if the saved result is numeric
+         */
+        void setFormulaCell(int row, int column, String cachedValue,
+                            boolean cachedNumber) {
+            if (formulas == null) {
+                if (rowData != null && isRead(column)
+                        && cachedFormulaFiles.add(filePath)) {
+                    logger.warn("The formulas of the excel '" + filePath
+                            + "' are not evaluated, their values are the "
+                            + "results saved in the file and they can be out "
+                            + "of date (qa.excel.evaluateformulas)");
+                }
+                setCell(column, cachedValue, cachedNumber);
+            } else if (rowData != null && isRead(column)) {
+                String value = formulas.evaluate(row, column, cachedValue,
+                        cachedNumber);
+                setCell(column, value, formulas.isLastNumber());
+            }
+        }
+
+        /**
+         * @return false if the handler does not want more rows
+         */
+        boolean endRow() {
+            if (rowData == null) {
+                return !stopped;
+            }
+            if (slots != null) {
+                return emit();
+            }
+            while (rowData.size() < columns) {
+                rowData.add("");
+            }
+            return emit();
+        }
+
+        private boolean emit() {
+            ArrayList<String> row = rowData;
+            rowData = null;
+            stopped = !handler.handleRow(row);
+            return !stopped;
+        }
+    }
+
+    /**
+     * Evaluates the formula cells of a sheet. The whole workbook is loaded
+     * in memory the first time a formula is found, the evaluator caches the
+     * evaluated cells
+     */
+    private static class SheetFormulas {
+        private final String filePath;
+        private final int sheetNumber;
+        private Sheet sheet = null;
+        private FormulaEvaluator evaluator = null;
+        private boolean loadFailed = false;
+        private boolean lastNumber = false;
+
+        SheetFormulas(String filePath, int sheetNumber) {
+            this.filePath = filePath;
+            this.sheetNumber = sheetNumber;
+        }
+
+        /**
+         * @return the evaluated value of the cell, or the cached value if
+         * the workbook can not be loaded
+         */
+        String evaluate(int row, int column, String cachedValue,
+                        boolean cachedNumber) {
+            if (sheet == null && !loadFailed) {
+                load();
+            }
+            Row sheetRow = (sheet == null) ? null : sheet.getRow(row);
+            Cell cell = (sheetRow == null) ? null : sheetRow.getCell(column);
+            if (cell == null) {
+                lastNumber = cachedNumber;
+                return cachedValue;
+            }
+            String value = excelUtils.getCellValue(cell, evaluator);
+            lastNumber = isNumber(cell);
+            return value;
+        }
+
+        /**
+         * @return true if the last value returned by evaluate() is numeric
+         */
+        boolean isLastNumber() {
+            return lastNumber;
+        }
+
+        /**
+         * @return true if the evaluated value of the cell is numeric, the
+         * evaluator keeps the result of the previous evaluation
+         */
+        private boolean isNumber(Cell cell) {
+            int type = cell.getCellType();
+            if (type == Cell.CELL_TYPE_FORMULA) {
+                try {
+                    CellValue value = evaluator.evaluate(cell);
+                    return value != null
+                            && value.getCellType() == Cell.CELL_TYPE_NUMERIC;
+                } catch (RuntimeException e) {
+                    type = cell.getCachedFormulaResultType();
+                }
+            }
+            return type == Cell.CELL_TYPE_NUMERIC;
+        }
+
+        private void load() {
+            logger.debug("Loading the excel '" + filePath
+                    + "' to evaluate its formulas");
+            try {
+                InputStream in = new FileInputStream(filePath);
+                try {
+                    Workbook wb = filePath.endsWith(".xlsx")
+                            ? new XSSFWorkbook(in) : new HSSFWorkbook(in);
+                    sheet = wb.getSheetAt(sheetNumber);
+                    evaluator = wb.getCreationHelper().createFormulaEvaluator();
+                } finally {
+                    in.close();
+                }
+            } catch (Exception e) {
+                loadFailed = true;
+                logger.warn("Error loading the excel '" + filePath
+                        + "' to evaluate its formulas, using the cached "
+                        + "values: " + e);
+            }
+        }
+    }
+
+    /**
+     * Thrown to stop the SAX parser when the handler does not want more rows
+     */
+    private static class StopReadingException extends SAXException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * SAX handler of the xlsx sheet xml
+     */
+    private static class XlsxSheetHandler extends DefaultHandler {
+        private final ReadOnlySharedStringsTable strings;
+        private final RowEmitter emitter;
+        private final StringBuilder value = new StringBuilder();
+        private boolean collecting = false;
+        private int rowIndex = -1;
+        private int column = -1;
+        private boolean skipCell = false;
+        private boolean formulaCell = false;
+        private String cellType;
+
+        XlsxSheetHandler(ReadOnlySharedStringsTable strings, RowEmitter emitter) {
+            this.strings = strings;
+            this.emitter = emitter;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                                 Attributes attributes) throws SAXException {
+            if ("row".equals(localName)) {
+                String r = attributes.getValue("r");
+                rowIndex = (r != null) ? Integer.parseInt(r) - 1 : rowIndex + 1;
+                column = -1;
+                emitter.startRow(rowIndex);
+            } else if ("c".equals(localName)) {
+                String r = attributes.getValue("r");
+                column = (r != null) ? new CellReference(r).getCol()
+                        : column + 1;
+                cellType = attributes.getValue("t");
+                skipCell = !emitter.isRead(column);
+                formulaCell = false;
+                value.setLength(0);
+            } else if ("f".equals(localName)) {
+                formulaCell = true;
+            } else if ("v".equals(localName) || "t".equals(localName)) {
+                // The cells out of the projection are not decoded
+                collecting = !skipCell;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (collecting) {
+                value.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName)
+                throws SAXException {
+            if ("v".equals(localName) || "t".equals(localName)) {
+                collecting = false;
+            } else if ("c".equals(localName)) {
+                if (skipCell) {
+                    return;
+                } else if (formulaCell) {
+                    emitter.setFormulaCell(rowIndex, column, getCellValue(),
+                            isNumber());
+                } else {
+                    emitter.setCell(column, getCellValue(), isNumber());
+                }
+            } else if ("row".equals(localName)) {
+                if (!emitter.endRow()) {
+                    throw new StopReadingException();
+                }
+            }
+        }
+
+        /**
+         * @return the cell value with the same format as getExcelData, the
+         * ISO 8601 dates (t="d") as they are written in the file
+         */
+        private String getCellValue() {
+            String text = value.toString();
+            if ("inlineStr".equals(cellType) || "str".equals(cellType)
+                    || "e".equals(cellType) || "d".equals(cellType)) {
+                return text;
+            } else if (text.trim().length() == 0) {
+                return "";
+            } else if ("s".equals(cellType)) {
+                return strings.getEntryAt(Integer.parseInt(text.trim()));
+            } else if ("b".equals(cellType)) {
+                return Boolean.toString("1".equals(text.trim()));
+            }
+            return Double.toString(Double.parseDouble(text));
+        }
+
+        /**
+         * @return true if the cell is numeric
+         */
+        private boolean isNumber() {
+            return (cellType == null || "n".equals(cellType))
+                    && value.toString().trim().length() > 0;
+        }
+    }
+
+    /**
+     * SAX handler that finds the width of the data rows of a xlsx sheet: the
+     * last column with a cell in the rows after the header
+     */
+    private static class XlsxWidthHandler extends DefaultHandler {
+        private final int firstRow;
+        private int rowIndex = -1;
+        private int column = -1;
+        private int width = 0;
+
+        XlsxWidthHandler(int firstRow) {
+            this.firstRow = firstRow;
+        }
+
+        int getWidth() {
+            return width;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                                 Attributes attributes) {
+            if ("row".equals(localName)) {
+                String r = attributes.getValue("r");
+                rowIndex = (r != null) ? Integer.parseInt(r) - 1 : rowIndex + 1;
+                column = -1;
+            } else if ("c".equals(localName)) {
+                String r = attributes.getValue("r");
+                column = (r != null) ? new CellReference(r).getCol()
+                        : column + 1;
+                if (rowIndex >= firstRow && column >= width) {
+                    width = column + 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * HSSF listener of the xls records
+     */
+    private static class XlsSheetListener extends AbortableHSSFListener {
+        private final int sheetNumber;
+        private final RowEmitter emitter;
+        private final ArrayList<BoundSheetRecord> boundSheets =
+                new ArrayList<BoundSheetRecord>();
+        private final LinkedList<Integer> pendingRows = new LinkedList<Integer>();
+        private SSTRecord strings;
+        private int targetSubstream = -1;
+        private int substream = -1;
+        private int depth = 0;
+        private boolean inSheet = false;
+        private boolean sheetFound = false;
+        private int currentRow = -1;
+        private FormulaRecord stringFormula = null;
+
+        XlsSheetListener(int sheetNumber, RowEmitter emitter) {
+            this.sheetNumber = sheetNumber;
+            this.emitter = emitter;
+        }
+
+        boolean isSheetFound() {
+            return sheetFound;
+        }
+
+        @Override
+        public short abortableProcessRecord(Record record) {
+            switch (record.getSid()) {
+                case BoundSheetRecord.sid:
+                    boundSheets.add((BoundSheetRecord) record);
+                    break;
+                case SSTRecord.sid:
+                    strings = (SSTRecord) record;
+                    break;
+                case BOFRecord.sid:
+                    depth++;
+                    if (depth == 1
+                            && ((BOFRecord) record).getType() != BOFRecord.TYPE_WORKBOOK) {
+                        startSubstream();
+                    }
+                    break;
+                case EOFRecord.sid:
+                    depth--;
+                    if (inSheet && depth == 0) {
+                        // The rest of the workbook is not needed
+                        endSheet();
+                        return 1;
+                    }
+                    break;
+                default:
+                    if (inSheet && depth == 1 && !processSheetRecord(record)) {
+                        return 1;
+                    }
+            }
+            return 0;
+        }
+
+        private void startSubstream() {
+            substream++;
+            if (targetSubstream < 0 && sheetNumber < boundSheets.size()) {
+                // Substreams are stored in BOF position order
+                BoundSheetRecord[] ordered =
+                        BoundSheetRecord.orderByBofPosition(boundSheets);
+                BoundSheetRecord target = boundSheets.get(sheetNumber);
+                for (int i = 0; i < ordered.length; i++) {
+                    if (ordered[i] == target) {
+                        targetSubstream = i;
+                    }
+                }
+            }
+            inSheet = (substream == targetSubstream);
+            sheetFound = sheetFound || inSheet;
+        }
+
+        /**
+         * @return false if the handler does not want more rows
+         */
+        protected boolean processSheetRecord(Record record) {
+            switch (record.getSid()) {
+                case RowRecord.sid:
+                    pendingRows.add(((RowRecord) record).getRowNumber());
+                    return true;
+                case LabelSSTRecord.sid:
+                    LabelSSTRecord label = (LabelSSTRecord) record;
+                    return cell(label.getRow(), label.getColumn(), strings
+                            .getString(label.getSSTIndex()).getString());
+                case LabelRecord.sid:
+                    LabelRecord oldLabel = (LabelRecord) record;
+                    return cell(oldLabel.getRow(), oldLabel.getColumn(),
+                            oldLabel.getValue());
+                case NumberRecord.sid:
+                    NumberRecord number = (NumberRecord) record;
+                    return cell(number.getRow(), number.getColumn(),
+                            Double.toString(number.getValue()), false, true);
+                case BlankRecord.sid:
+                    BlankRecord blank = (BlankRecord) record;
+                    return cell(blank.getRow(), blank.getColumn(), "");
+                case BoolErrRecord.sid:
+                    BoolErrRecord boolErr = (BoolErrRecord) record;
+                    return cell(boolErr.getRow(), boolErr.getColumn(),
+                            boolErr.isBoolean() ? Boolean.toString(boolErr
+                                    .getBooleanValue()) : ErrorConstants
+                                    .getText(boolErr.getErrorValue()));
+                case FormulaRecord.sid:
+                    return formula((FormulaRecord) record);
+                case StringRecord.sid:
+                    if (stringFormula != null) {
+                        FormulaRecord formula = stringFormula;
+                        stringFormula = null;
+                        return cell(formula.getRow(), formula.getColumn(),
+                                ((StringRecord) record).getString(), true,
+                                false);
+                    }
+                    return true;
+                default:
+                    return true;
+            }
+        }
+
+        /**
+         * Adds a formula cell with its cached result, evaluated by the
+         * emitter if the formulas are evaluated
+         */
+        private boolean formula(FormulaRecord formula) {
+            if (formula.hasCachedResultString()) {
+                // The value is in the next StringRecord
+                stringFormula = formula;
+                return true;
+            }
+            String value;
+            boolean number = false;
+            switch (formula.getCachedResultType()) {
+                case Cell.CELL_TYPE_STRING:
+                    value = "";
+                    break;
+                case Cell.CELL_TYPE_BOOLEAN:
+                    value = Boolean.toString(formula.getCachedBooleanValue());
+                    break;
+                case Cell.CELL_TYPE_ERROR:
+                    value = ErrorConstants.getText(formula.getCachedErrorValue());
+                    break;
+                default:
+                    value = Double.toString(formula.getValue());
+                    number = true;
+            }
+            return cell(formula.getRow(), formula.getColumn(), value, true,
+                    number);
+        }
+
+        private boolean cell(int row, int column, String value) {
+            return cell(row, column, value, false, false);
+        }
+
+        /**
+         * Adds a cell, emitting the previous rows when the row changes
+         */
+        private boolean cell(int row, int column, String value,
+                             boolean formula, boolean number) {
+            if (row != currentRow) {
+                if (currentRow >= 0 && !emitter.endRow()) {
+                    return false;
+                }
+                // Rows without cells are emitted as empty rows
+                while (!pendingRows.isEmpty() && pendingRows.getFirst() < row) {
+                    emitter.startRow(pendingRows.removeFirst());
+                    if (!emitter.endRow()) {
+                        return false;
+                    }
+                }
+                if (!pendingRows.isEmpty() && pendingRows.getFirst() == row) {
+                    pendingRows.removeFirst();
+                }
+                currentRow = row;
+                emitter.startRow(row);
+            }
+            if (formula) {
+                emitter.setFormulaCell(row, column, value, number);
+            } else {
+                emitter.setCell(column, value, number);
+            }
+            return true;
+        }
+
+        protected void endSheet() {
+            if (currentRow >= 0 && !emitter.endRow()) {
+                return;
+            }
+            while (!pendingRows.isEmpty()) {
+                emitter.startRow(pendingRows.removeFirst());
+                if (!emitter.endRow()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * HSSF listener that finds the width of the data rows of a xls sheet:
+     * the last column with a cell in the rows after the header
+     */
+    private static class XlsWidthListener extends XlsSheetListener {
+        private final int firstRow;
+        private int width = 0;
+
+        XlsWidthListener(int sheetNumber, int firstRow) {
+            super(sheetNumber, null);
+            this.firstRow = firstRow;
+        }
+
+        int getWidth() {
+            return width;
+        }
+
+        @Override
+        protected boolean processSheetRecord(Record record) {
+            if (record instanceof CellValueRecordInterface) {
+                CellValueRecordInterface cell =
+                        (CellValueRecordInterface) record;
+                if (cell.getRow() >= firstRow && cell.getColumn() >= width) {
+                    width = cell.getColumn() + 1;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        protected void endSheet() {
+        }
+    }
+}
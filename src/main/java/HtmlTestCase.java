@@ -1,7 +1,6 @@
 package main.java;
 
 import junit.framework.TestCase;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.junit.After;
@@ -22,15 +21,16 @@ import org.openqa.selenium.support.ui.ExpectedConditions;
 import org.openqa.selenium.support.ui.FluentWait;
 import org.openqa.selenium.support.ui.WebDriverWait;
 import com.gargoylesoftware.htmlunit.*;
-import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.IOException;
 import java.net.URL;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
 
@@ -58,21 +58,41 @@ public class HtmlTestCase extends BasicTestCase {
     /**
      * Screenshots
      */
-    private static String screenshotsPath;
-    private static int screenshotsNumber;
-    private File screenshotFile = null;
+    private static String screenshotsDate;
+    private static final Map<String, String> screenshotsPaths =
+            new HashMap<String, String>();
+    private static final Map<String, Integer> screenshotsNumbers =
+            new HashMap<String, Integer>();
+    private byte[] screenshotBytes = null;
+    private BufferedImage screenshotImage = null;
 
     /**
      * WebDriver instance
+     * <p/>
+     * The driver of the test thread, or a proxy of the driver of the current
+     * thread if the driver is lazy or the tests run in parallel, see
+     * DriverHolder. Use getRealDriver() to cast the driver.
      */
-    public static WebDriver driver;
+    public static volatile WebDriver driver;
 
+    /**
+     * @return the driver, the proxy if the driver is lazy or the tests run
+     * in parallel, it does not start the lazy driver
+     */
     public WebDriver getDriver() {
         return driver;
     }
 
+    /**
+     * @return the real driver of the current thread, started if it is lazy,
+     * or null if there is no driver
+     */
+    public WebDriver getRealDriver() {
+        return DriverHolder.current();
+    }
+
     public void setDriver(WebDriver driver) {
-        HtmlTestCase.driver = driver;
+        DriverHolder.set(driver);
     }
 
     /**
@@ -82,15 +102,81 @@ public class HtmlTestCase extends BasicTestCase {
     public void htmlSetUp() throws Exception {
         // Return if the driver is running
         if (properties.getBooleanProperty(properties.DRIVER_REUSE)
-                && HtmlTestCase.driver != null) {
-            return;
+                && DriverHolder.get() != null) {
+            if (!properties.getBooleanProperty(properties.DRIVER_RESET)
+                    || resetDriver()) {
+                PhaseTimer.startTest();
+                return;
+            }
         }
 
+        if (properties.getBooleanProperty(properties.DRIVER_LAZY)) {
+            // The driver is started by the first command of the test
+            DriverHolder.setStarter(new Callable<Void>() {
+                public Void call() throws Exception {
+                    startDriver();
+                    return null;
+                }
+            });
+        } else {
+            startDriver();
+        }
+        PhaseTimer.startTest();
+    }
+
+    /**
+     * Removes the state of the previous test from the reused driver and
+     * opens the URL again
+     *
+     * @return false if the session is dead, the driver is stopped
+     */
+    private boolean resetDriver() {
+        long start = System.nanoTime();
+        try {
+            DriverHolder.reset(DriverHolder.get());
+        } catch (WebDriverException e) {
+            logger.warn("The reused driver can not be reset, starting a new "
+                    + "driver: " + e.getMessage());
+            stopDriver();
+            return false;
+        }
+        PhaseTimer.record(PhaseTimer.DRIVER_RESET, start);
+        openInitialUrl();
+        return true;
+    }
+
+    /**
+     * Creates the WebDriver of the current thread, opens the URL and
+     * maximizes the window
+     * <p/>
+     * If qa.driver.pool.size is set, the driver is leased from the warm
+     * drivers of the WebDriverPool, they are already maximized. The test
+     * classes that override createWebDriver() have their own pools
+     *
+     * @throws Exception
+     */
+    void startDriver() throws Exception {
         // Initializing screenshots configuration
         initScreenshots();
 
         // Initializing WebDriver instance
-        HtmlTestCase.driver = createWebDriver();
+        long start = System.nanoTime();
+        Class<? extends HtmlTestCase> creator = getClass();
+        String creatorName = null;
+        if (creator.getMethod("createWebDriver").getDeclaringClass()
+                == HtmlTestCase.class) {
+            creator = HtmlTestCase.class;
+        } else {
+            creatorName = creator.getMethod("createWebDriver")
+                    .getDeclaringClass().getName();
+        }
+        WebDriverPool pool = WebDriverPool.getDefault(creatorName,
+                new PoolDriverFactory(creator));
+        if (pool != null) {
+            DriverHolder.set(pool.lease());
+        } else {
+            DriverHolder.set(createWebDriver());
+        }
 
         // Implicit wait
         String timeout = properties.getProperty(properties.TIMEOUT);
@@ -100,39 +186,73 @@ public class HtmlTestCase extends BasicTestCase {
             driver.manage().timeouts()
                     .implicitlyWait(seconds, TimeUnit.SECONDS);
         }
+        PhaseTimer.record(PhaseTimer.DRIVER_CREATE, start);
 
         // Open the URL
+        openInitialUrl();
+
+        // Maximizing the window
+        if (pool == null) {
+            start = System.nanoTime();
+            windowMaximize();
+            PhaseTimer.record(PhaseTimer.DRIVER_MAXIMIZE, start);
+        }
+    }
+
+    /**
+     * Opens the qa.url URL
+     */
+    private void openInitialUrl() {
         String initialUrl = properties.getProperty(properties.URL);
         if (!initialUrl.equals("")) {
             logger.debug("URL: " + initialUrl);
+            long start = System.nanoTime();
             driver.get(initialUrl);
 
             // Skipping IE security alert
             skipIESecurityAlert();
+            PhaseTimer.record(PhaseTimer.DRIVER_OPEN_URL, start);
         }
+    }
 
-        // Maximizing the window
-        windowMaximize();
+    /**
+     * Creates a driver of the pool and maximizes its window
+     */
+    private WebDriver createMaximizedWebDriver() throws Exception {
+        WebDriver pooledDriver = createWebDriver();
+        DriverHolder.set(pooledDriver);
+        try {
+            windowMaximize();
+        } finally {
+            DriverHolder.set(null);
+        }
+        return pooledDriver;
     }
 
     /**
      * Initializes the screenshots configuration
+     *
+     * @return the screenshots folder of the browser of the current thread
      */
-    private void initScreenshots() {
+    private static synchronized String initScreenshots() {
+        String browserInfo = properties.getBrowserInfo();
+        String screenshotsPath = screenshotsPaths.get(browserInfo);
         if (screenshotsPath != null) {
-            return;
+            return screenshotsPath;
         }
 
-        // Unique screenshots directory
-        String DATE_FORMAT_NOW = "yyyy-MM-dd_HHmmss";
-        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT_NOW);
-        Calendar cal = Calendar.getInstance();
-        String date = sdf.format(cal.getTime());
-        String browserInfo = properties.getBrowserInfo();
+        // Unique screenshots directory, one for each browser
+        if (screenshotsDate == null) {
+            String DATE_FORMAT_NOW = "yyyy-MM-dd_HHmmss";
+            SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT_NOW);
+            Calendar cal = Calendar.getInstance();
+            screenshotsDate = sdf.format(cal.getTime());
+        }
         screenshotsPath =
-                properties.getProperty(properties.SCREENSHOTS_PATH) + date
-                        + "_" + browserInfo + File.separator;
-        screenshotsNumber = 1;
+                properties.getProperty(properties.SCREENSHOTS_PATH)
+                        + screenshotsDate + "_" + browserInfo + File.separator;
+        screenshotsPaths.put(browserInfo, screenshotsPath);
+        return screenshotsPath;
     }
 
     /**
@@ -380,6 +500,10 @@ public class HtmlTestCase extends BasicTestCase {
                 || browserName.equals("safari")) {
             logger.debug("Maximizing the window");
 
+            // The driver of the current thread, the pool starts its drivers
+            // in other threads
+            WebDriver driver = DriverHolder.getProxy();
+
             // Get the available screen size
             JavascriptExecutor js = (JavascriptExecutor) driver;
             Long availWidth =
@@ -410,17 +534,33 @@ public class HtmlTestCase extends BasicTestCase {
      */
     @After
     public void htmlTearDown() throws Exception {
+        PhaseTimer.endTest();
+        // The lazy driver is not started if the test has not used it
+        DriverHolder.setStarter(null);
+
         // Capturing the last screenshot
         if (!isExcelTest()) {
+            long start = System.nanoTime();
             captureScreenshot();
+            PhaseTimer.record(PhaseTimer.SCREENSHOT, start);
         }
 
         // Stopping driver
         if (!properties.getBooleanProperty(properties.DRIVER_REUSE)) {
-            driver.quit();
+            long start = System.nanoTime();
+            stopDriver();
+            PhaseTimer.record(PhaseTimer.DRIVER_STOP, start);
         }
     }
 
+    /**
+     * Quits the WebDriver of the current thread or returns it to the
+     * WebDriverPool
+     */
+    void stopDriver() {
+        DriverHolder.quit();
+    }
+
 
     /**
      * Captures and saves a PNG screenshot if the 'screenshot_enable' property
@@ -430,8 +570,10 @@ public class HtmlTestCase extends BasicTestCase {
      */
     public void captureAndSaveScreenshot(String fileSuffix) {
         if (properties.getBooleanProperty(properties.SCREENSHOTS_ENABLED)) {
+            long start = System.nanoTime();
             captureScreenshot();
             saveScreenshot(fileSuffix);
+            PhaseTimer.record(PhaseTimer.SCREENSHOT, start);
         }
     }
 
@@ -439,8 +581,10 @@ public class HtmlTestCase extends BasicTestCase {
      * Captures and saves an error screenshot
      */
     public void captureAndSaveErrorScreenshot() {
+        long start = System.nanoTime();
         captureScreenshot();
         saveScreenshot("error");
+        PhaseTimer.record(PhaseTimer.SCREENSHOT, start);
     }
 
     /**
@@ -449,6 +593,11 @@ public class HtmlTestCase extends BasicTestCase {
     // TODO Eliminar funcion si al final se captura igual con todos los
     // navegadores
     private void captureScreenshot() {
+        if (DriverHolder.get() == null) {
+            logger.debug("Couldn't capture the screenshot, the browser has "
+                    + "not been started");
+            return;
+        }
         String browserName = properties.getBrowserName();
         if (browserName.equals("firefox")) {
             captureScreenshotFirefox();
@@ -472,8 +621,9 @@ public class HtmlTestCase extends BasicTestCase {
     private boolean captureScreenshotFirefox() {
         // Capture the screenshot
         try {
-            screenshotFile =
-                    ((TakesScreenshot) driver).getScreenshotAs(OutputType.FILE);
+            screenshotBytes =
+                    ((TakesScreenshot) driver).getScreenshotAs(OutputType.BYTES);
+            screenshotImage = null;
         } catch (java.lang.ClassCastException e) {
             logger.error("Couldn't capture the screenshot: " + e.getMessage());
             return false;
@@ -501,78 +651,61 @@ public class HtmlTestCase extends BasicTestCase {
             logger.error("Couldn't capture the screenshot: " + e.getMessage());
             return false;
         }
-        BufferedImage bufferedImage = robot.createScreenCapture(captureSize);
-
-        if (screenshotsNumber == 1) {
-            // Create the screenshots folder the first time
-            File f = new File(screenshotsPath);
-            if (!f.mkdirs()) {
-                logger.error("Error creating folder: " + screenshotsPath);
-            }
-        }
-
-        // Create temporary file.
-        File tempfile;
-        try {
-            tempfile = File.createTempFile("screenshot", ".png");
-            tempfile.deleteOnExit();
-        } catch (IOException e) {
-            logger.error("Couldn't save the screenshot in a temporal file: "
-                    + e.getMessage());
-            return false;
-        }
-
-        // Save the screenshot
-        try {
-            ImageIO.write(bufferedImage, "png", tempfile);
-        } catch (IOException e) {
-            logger.error("Couldn't save the screenshot in a temporal file: "
-                    + e.getMessage());
-            return false;
-        }
-        screenshotFile = tempfile;
+        // The image is encoded by the screenshot writer
+        screenshotImage = robot.createScreenCapture(captureSize);
+        screenshotBytes = null;
         return true;
     }
 
     /**
-     * Saves the last screenshot to a file
+     * Saves the last screenshot to a file in background, see
+     * ScreenshotWriter
      *
      * @param fileSuffix string added to the file name
-     * @return true if there are no errors
+     * @return true if the screenshot has been queued
      */
     private boolean saveScreenshot(String fileSuffix) {
-        if (screenshotFile == null) {
+        if (screenshotBytes == null && screenshotImage == null) {
             logger.error("There are no screenshots to save");
             return false;
         }
 
-        // Screenshot file name
+        // Screenshot file name, the extension is added by the writer
         String browserInfo = properties.getBrowserInfo();
-        String path =
-                screenshotsPath + String.format("%02d", screenshotsNumber)
-                        + "_" + browserInfo + "_" + name.getMethodName();
+        String screenshotsPath = initScreenshots();
+        String path = screenshotsPath
+                + String.format("%02d", nextScreenshotNumber(screenshotsPath))
+                + "_" + browserInfo + "_" + name.getMethodName();
         if (fileSuffix != null) {
             path = path + "_" + fileSuffix;
         }
-        path = path + ".png";
-
-        // Save the screenshot
-        try {
-            FileUtils.copyFile(screenshotFile, new File(path));
-        } catch (Exception e) {
-            logger.error("Couldn't save the screenshot " + path + ": "
-                    + e.getMessage());
-            return false;
-        }
+        boolean error = fileSuffix != null && fileSuffix.compareTo("error") == 0;
+
+        // Queue the screenshot
+        ScreenshotWriter writer = ScreenshotWriter.getDefault();
+        String savedPath = (screenshotBytes != null)
+                ? writer.write(screenshotBytes, path, error)
+                : writer.write(screenshotImage, path, error);
+        screenshotBytes = null;
+        screenshotImage = null;
+        return savedPath != null;
+    }
 
-        if (fileSuffix != null && fileSuffix.compareTo("error") == 0) {
-            logger.warn("Saved screenshot " + path);
-        } else {
-            logger.debug("Saved screenshot " + path);
+    /**
+     * Reserves the number of the next screenshot of a folder, the tests of
+     * parallel threads must not save screenshots with the same name
+     *
+     * @param screenshotsPath the screenshots folder of the browser
+     * @return the screenshot number
+     */
+    private static synchronized int nextScreenshotNumber(
+            String screenshotsPath) {
+        Integer number = screenshotsNumbers.get(screenshotsPath);
+        if (number == null) {
+            number = 1;
         }
-        screenshotsNumber++;
-        screenshotFile = null;
-        return true;
+        screenshotsNumbers.put(screenshotsPath, number + 1);
+        return number;
     }
 
     /**
@@ -744,4 +877,21 @@ public class HtmlTestCase extends BasicTestCase {
         Actions action = new Actions(driver);
         action.moveToElement(we).build().perform();
     }
+
+    /**
+     * Creates the drivers of a pool with a new instance of the test class,
+     * so the pool does not keep the test that created it
+     */
+    private static class PoolDriverFactory implements WebDriverPool.DriverFactory {
+        private final Class<? extends HtmlTestCase> testClass;
+
+        PoolDriverFactory(Class<? extends HtmlTestCase> testClass) {
+            this.testClass = testClass;
+        }
+
+        public WebDriver create() throws Exception {
+            return testClass.getDeclaredConstructor().newInstance()
+                    .createMaximizedWebDriver();
+        }
+    }
 }
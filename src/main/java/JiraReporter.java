@@ -0,0 +1,370 @@
+package main.java;
+
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Sends the test results to Jira in a background thread.
+ * <p/>
+ * The results are added to a bounded queue and the tests continue without
+ * waiting for Jira. The sender thread takes the results in batches and
+ * sends them one after another through the same keep-alive connection (the
+ * execution endpoint receives one test case per request). The requests that
+ * fail because of a connection error or a server error are retried with
+ * exponential backoff. The pending results are sent before the JVM exits.
+ * <p/>
+ * The reported statuses are saved in a JiraStatusCache: the results with
+ * onlyIfStatusChanges whose status has not changed since the previous sent
+ * result are not sent.
+ */
+public class JiraReporter {
+    /**
+     * Class logger
+     */
+    protected static Log logger = LogFactory.getLog(JiraReporter.class);
+
+    /**
+     * Default url of the execution endpoint
+     */
+    private static final String DEFAULT_URL = "http://dbatlas.db.com/jira01";
+
+    /**
+     * Default file of the status cache
+     */
+    private static final String DEFAULT_STATUS_CACHE =
+            "target/jira-status.properties";
+
+    /**
+     * Default capacity of the queue
+     */
+    private static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    /**
+     * Maximum results taken from the queue at once
+     */
+    private static final int BATCH_SIZE = 50;
+
+    /**
+     * Attempts to send a result
+     */
+    private static final int MAX_ATTEMPTS = 4;
+
+    /**
+     * Time to wait before the first retry, it is doubled in each retry
+     */
+    private static final long INITIAL_BACKOFF = 500;
+
+    /**
+     * Time to wait for a free place in the queue, in seconds
+     */
+    private static final long QUEUE_TIMEOUT = 30;
+
+    /**
+     * Maximum time to wait for the pending results, in seconds
+     */
+    private static final long FLUSH_TIMEOUT = 60;
+
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 30000;
+
+    private static final Pattern ERROR_MESSAGE =
+            Pattern.compile(".*<u>(.*)</u></p><p>.*");
+
+    /**
+     * Reporter of the Jira configured in the properties
+     */
+    private static JiraReporter defaultReporter;
+
+    private final String jiraUrl;
+    private final BackgroundQueue<JiraResult> queue;
+    private final JiraStatusCache statusCache;
+
+    /**
+     * @param jiraUrl   the url of the execution endpoint, the parameters are
+     *                  appended to it
+     * @param queueSize the maximum number of results waiting to be sent
+     */
+    public JiraReporter(String jiraUrl, int queueSize) {
+        this(jiraUrl, queueSize, null);
+    }
+
+    /**
+     * @param jiraUrl     the url of the execution endpoint, the parameters
+     *                    are appended to it
+     * @param queueSize   the maximum number of results waiting to be sent
+     * @param statusCache the last reported statuses or null to send all the
+     *                    results
+     */
+    public JiraReporter(String jiraUrl, int queueSize,
+                        JiraStatusCache statusCache) {
+        this.jiraUrl = jiraUrl;
+        this.statusCache = statusCache;
+        this.queue = new BackgroundQueue<JiraResult>("jira-reporter",
+                "Jira results", queueSize, BATCH_SIZE) {
+            @Override
+            protected void process(List<JiraResult> batch) {
+                sendBatch(batch);
+            }
+        };
+        queue.start();
+    }
+
+    /**
+     * Returns the reporter of the Jira configured in the properties, it is
+     * created the first time and the pending results are sent when the JVM
+     * exits
+     *
+     * @return the reporter
+     */
+    public static synchronized JiraReporter getDefault() {
+        if (defaultReporter == null) {
+            PropertiesManager properties = BasicTestCase.getProperties();
+            ConfigSnapshot config = properties.getSnapshot();
+            String url = config.getString(properties.JIRA_URL);
+            String cachePath = config.getString(properties.JIRA_STATUSCACHE);
+            defaultReporter = new JiraReporter(url.isEmpty() ? DEFAULT_URL
+                    : url, config.getInt(properties.JIRA_QUEUESIZE,
+                    DEFAULT_QUEUE_SIZE), JiraStatusCache.load(new File(
+                    cachePath.isEmpty() ? DEFAULT_STATUS_CACHE : cachePath)));
+            final JiraReporter reporter = defaultReporter;
+            Runtime.getRuntime().addShutdownHook(new Thread("jira-flush") {
+                @Override
+                public void run() {
+                    reporter.close();
+                }
+            });
+        }
+        return defaultReporter;
+    }
+
+    /**
+     * Adds a result to the queue, waits if the queue is full
+     *
+     * @param result the test result
+     * @return true if the result has been queued
+     */
+    public boolean report(JiraResult result) {
+        if (queue.isClosed()) {
+            logger.error("Test Case '" + result.getTestCaseId()
+                    + "' not changed: the Jira reporter is closed");
+            return false;
+        }
+        if (queue.offer(result, QUEUE_TIMEOUT, TimeUnit.SECONDS)) {
+            return true;
+        }
+        logger.error("Test Case '" + result.getTestCaseId()
+                + "' not changed: the Jira queue is full");
+        return false;
+    }
+
+    /**
+     * Waits until the queued results have been sent
+     *
+     * @return true if all the results have been sent before the timeout
+     */
+    public boolean flush() {
+        return queue.flush(FLUSH_TIMEOUT);
+    }
+
+    /**
+     * Sends the pending results and stops the sender
+     */
+    public void close() {
+        queue.close(FLUSH_TIMEOUT);
+    }
+
+    /**
+     * Sends a batch of results and saves the status cache. The unchanged
+     * statuses are skipped here, in queue order, because the cache only
+     * has the statuses already sent
+     */
+    private void sendBatch(List<JiraResult> batch) {
+        for (JiraResult result : batch) {
+            try {
+                if (result.onlyIfStatusChanges && statusCache != null
+                        && statusCache.isUnchanged(result.testCaseId,
+                        result.fixVersion, result.status)) {
+                    logger.debug("Test Case '" + result.getTestCaseId()
+                            + "' not sent to Jira, the status has not "
+                            + "changed (" + result.getStatus() + ")");
+                    continue;
+                }
+                send(result);
+            } catch (RuntimeException e) {
+                // The reporter continues with the next results
+                logger.error("Test Case '" + result.getTestCaseId()
+                        + "' not changed: " + e);
+            }
+        }
+        if (statusCache != null) {
+            try {
+                statusCache.save();
+            } catch (RuntimeException e) {
+                logger.error("Error saving the Jira status cache: " + e);
+            }
+        }
+    }
+
+    /**
+     * Sends a result, retrying the connection and server errors
+     */
+    private void send(JiraResult result) {
+        long backoff = INITIAL_BACKOFF;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                sendRequest(result);
+                return;
+            } catch (IOException e) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    logger.error("Test Case '" + result.getTestCaseId()
+                            + "' not changed after " + attempt
+                            + " attempts: " + e.getMessage());
+                    return;
+                }
+                logger.debug("Test Case '" + result.getTestCaseId()
+                        + "' not changed, retrying in " + backoff + " ms: "
+                        + e.getMessage());
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                // The pending results are sent when the reporter is closed
+                if (!queue.isClosed()) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            backoff *= 2;
+        }
+    }
+
+    /**
+     * Sends the request of a result, the errors of the test case (i.e. it
+     * does not exist) are logged
+     *
+     * @throws IOException if there is a connection error or a server error
+     */
+    private void sendRequest(JiraResult result) throws IOException {
+        URL url = new URL(jiraUrl + result.toQuery());
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        try {
+            // Check the HTTP response code
+            int responseCode = connection.getResponseCode();
+            if (responseCode == 200) {
+                // The response is read completely to reuse the connection
+                readResponse(connection.getInputStream());
+                if (statusCache != null) {
+                    statusCache.update(result.testCaseId, result.fixVersion,
+                            result.status);
+                }
+                logger.debug("Test Case '" + result.getTestCaseId()
+                        + "' updated in Jira (" + result.getStatus() + ")");
+                return;
+            }
+
+            // Extract error message from the HTTP response
+            String response = readResponse(connection.getErrorStream());
+            Matcher m = ERROR_MESSAGE.matcher(response);
+            if (m.find()) {
+                response = m.group(1);
+            }
+            if (responseCode >= 500) {
+                throw new IOException("HTTP " + responseCode + " " + response);
+            }
+            logger.error("Test Case '" + result.getTestCaseId()
+                    + "' not changed: " + response);
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    private static String readResponse(InputStream in) throws IOException {
+        if (in == null) {
+            return "";
+        }
+        try {
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                response.write(buffer, 0, read);
+            }
+            return response.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Result of a test case
+     */
+    public static class JiraResult {
+        private final String testCaseId;
+        private final String status;
+        private final String fixVersion;
+        private final String comment;
+        private final boolean onlyIfStatusChanges;
+
+        /**
+         * @param testCaseId          Test Case Id in Jira
+         * @param status              execution status: Fail or Pass
+         * @param fixVersion          execution Fix Version
+         * @param comment             execution comment
+         * @param onlyIfStatusChanges if true, create a new execution only if
+         *                            the status has changed
+         */
+        public JiraResult(String testCaseId, String status, String fixVersion,
+                          String comment, boolean onlyIfStatusChanges) {
+            this.testCaseId = testCaseId;
+            this.status = status;
+            this.fixVersion = fixVersion;
+            this.comment = comment;
+            this.onlyIfStatusChanges = onlyIfStatusChanges;
+        }
+
+        public String getTestCaseId() {
+            return testCaseId;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the parameters of the request
+         */
+        String toQuery() throws UnsupportedEncodingException {
+            String query = "jiraTestCaseId=" + testCaseId + "&jiraStatus="
+                    + status;
+            if (comment != null && !comment.isEmpty()) {
+                query = query + "&comments=" + URLEncoder.encode(comment,
+                        "UTF-8");
+            }
+            if (fixVersion != null && !fixVersion.isEmpty()) {
+                query = query + "&version=" + URLEncoder.encode(fixVersion,
+                        "UTF-8");
+            }
+            if (onlyIfStatusChanges) {
+                query = query + "&onlyIfStatusChanges=true";
+            }
+            return query;
+        }
+    }
+}
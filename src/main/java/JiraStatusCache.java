@@ -0,0 +1,121 @@
+package main.java;
+
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Last status reported to Jira of each test case and fix version.
+ * <p/>
+ * The statuses are saved in a properties file, so the results of the next
+ * executions that have not changed (qa.jira.onlyifchanges) are not sent to
+ * Jira. The cache only knows the statuses reported from this machine: the
+ * file must be deleted if the statuses are changed in Jira by other means.
+ */
+public class JiraStatusCache {
+    /**
+     * Class logger
+     */
+    protected static Log logger = LogFactory.getLog(JiraStatusCache.class);
+
+    private final File file;
+    private final Map<String, String> statuses =
+            new ConcurrentHashMap<String, String>();
+    private volatile boolean changed = false;
+
+    private JiraStatusCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the statuses of the file
+     *
+     * @param file the cache file, it is created if it does not exist
+     * @return the cache
+     */
+    public static JiraStatusCache load(File file) {
+        JiraStatusCache cache = new JiraStatusCache(file);
+        if (file.isFile()) {
+            Properties properties = new Properties();
+            try {
+                InputStream in = new FileInputStream(file);
+                try {
+                    properties.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                logger.warn("Error loading the Jira status cache '" + file
+                        + "': " + e.getMessage());
+            }
+            for (String key : properties.stringPropertyNames()) {
+                cache.statuses.put(key, properties.getProperty(key));
+            }
+            logger.info("Loaded " + cache.statuses.size()
+                    + " statuses from the Jira status cache '" + file + "'");
+        }
+        return cache;
+    }
+
+    /**
+     * @param testCaseId Test Case Id in Jira
+     * @param fixVersion execution Fix Version
+     * @param status     execution status: Fail or Pass
+     * @return true if the status is the last reported status
+     */
+    public boolean isUnchanged(String testCaseId, String fixVersion,
+                               String status) {
+        return status.equals(statuses.get(getKey(testCaseId, fixVersion)));
+    }
+
+    /**
+     * Saves the status reported to Jira
+     *
+     * @param testCaseId Test Case Id in Jira
+     * @param fixVersion execution Fix Version
+     * @param status     execution status: Fail or Pass
+     */
+    public void update(String testCaseId, String fixVersion, String status) {
+        if (!status.equals(statuses.put(getKey(testCaseId, fixVersion),
+                status))) {
+            changed = true;
+        }
+    }
+
+    /**
+     * Writes the statuses to the file if they have changed
+     */
+    public synchronized void save() {
+        if (!changed) {
+            return;
+        }
+        changed = false;
+        Properties properties = new Properties();
+        properties.putAll(statuses);
+        try {
+            File folder = file.getAbsoluteFile().getParentFile();
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                throw new IOException("the folder can not be created");
+            }
+            PropertiesFileWriter.write(file, properties);
+        } catch (IOException e) {
+            changed = true;
+            logger.error("Error saving the Jira status cache '" + file
+                    + "': " + e.getMessage());
+        }
+    }
+
+    private static String getKey(String testCaseId, String fixVersion) {
+        return (fixVersion == null || fixVersion.isEmpty()) ? testCaseId
+                : testCaseId + "@" + fixVersion;
+    }
+}
@@ -0,0 +1,313 @@
+package main.java;
+
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.runners.model.FrameworkMethod;
+import org.junit.runners.model.TestClass;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * Runs the rows of a data driven test in several threads.
+ * <p/>
+ * Each thread creates its own instance of the test class, which borrows its
+ * own database connection (the pool grows by one connection per thread
+ * during the execution) and, for html tests, starts its own WebDriver (the
+ * driver of the calling thread is not handed off to the workers). The
+ * @Before and @After methods of the test class (not the framework ones, the
+ * properties are shared) are run in each thread before the first row and
+ * after the last one. The rows
+ * are read by the calling thread and the error messages are returned in row
+ * order, as in the sequential execution.
+ */
+class ParallelRowRunner {
+    /**
+     * Class logger
+     */
+    protected static Log logger = LogFactory.getLog(ParallelRowRunner.class);
+
+    /**
+     * Marks the end of the rows in the queue
+     */
+    private static final NumberedRow END = new NumberedRow(0, null);
+
+    /**
+     * Time to wait for a free place in the queue before checking the
+     * workers, in milliseconds
+     */
+    private static final long QUEUE_POLL = 500;
+
+    private final BasicTestCase testClass;
+    private final String methodName;
+    private final int threads;
+    private final RowShard shard;
+    private final RowJournal journal;
+    private final RowResultListener listener;
+
+    private final BlockingQueue<NumberedRow> queue;
+    private final SortedMap<Integer, String> rowErrors =
+            new ConcurrentSkipListMap<Integer, String>();
+    private final AtomicReference<String> fatalError =
+            new AtomicReference<String>();
+
+    ParallelRowRunner(BasicTestCase testClass, String methodName, int threads,
+                      RowShard shard, RowJournal journal, RowResultListener listener) {
+        this.testClass = testClass;
+        this.methodName = methodName;
+        this.threads = threads;
+        this.shard = shard;
+        this.journal = journal;
+        this.listener = listener;
+        this.queue = new ArrayBlockingQueue<NumberedRow>(threads * 2);
+    }
+
+    /**
+     * Runs the rows of the file
+     *
+     * @param columns the column indexes of the rows, null for all
+     * @return an array list with the error messages
+     */
+    ArrayList<String> execute(String filePath, int sheetNumber, boolean header,
+                              char separator, char quotechar, int[] columns) {
+        ArrayList<String> errors = new ArrayList<String>();
+        RowIterator rows = excelUtils.openRows(filePath, sheetNumber, header,
+                separator, quotechar, columns, errors);
+        if (rows == null) {
+            return errors;
+        }
+
+        logger.info("Parallel data driven test with " + threads + " threads"
+                + (shard != RowShard.ALL ? ", rows of the " + shard : ""));
+        // The test methods of the workers use HtmlTestCase.driver
+        DriverHolder.startParallel();
+        // Each worker holds a connection until the rows end
+        ConnectionPool pool = ConnectionPool.reserveDefault(threads);
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 1; i <= threads; i++) {
+            Thread worker = new Thread(new Worker(), "data-driven-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+
+        int rowNumber = 0;
+        int executed = 0;
+        int skipped = 0;
+        try {
+            while (fatalError.get() == null && rows.hasNext()) {
+                rowNumber++;
+                ArrayList<String> rowData = rows.next();
+                if (!shard.contains(rowNumber)) {
+                    continue;
+                }
+                if (journal != null && journal.hasPassed(rowNumber)) {
+                    // Passed in a previous execution
+                    skipped++;
+                    if (listener != null) {
+                        try {
+                            listener.rowExecuted(rowNumber, rowData, null, 0);
+                        } catch (RuntimeException e) {
+                            logger.error("Error reporting the row " + rowNumber
+                                    + ": " + e);
+                        }
+                    }
+                    continue;
+                }
+                if (!put(new NumberedRow(rowNumber, rowData), workers)) {
+                    break;
+                }
+                executed++;
+            }
+            for (int i = 0; i < threads; i++) {
+                if (!put(END, workers)) {
+                    break;
+                }
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            // The total number of rows of the error messages, the rest of
+            // the file is not read after a fatal error
+            if (fatalError.get() == null) {
+                rowNumber += excelUtils.countRows(rows);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fatalError.compareAndSet(null, "Parallel execution interrupted");
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+        } finally {
+            rows.close();
+            DriverHolder.endParallel();
+            if (pool != null) {
+                pool.unreserve(threads);
+            }
+        }
+
+        errors.addAll(rowErrors.values());
+        if (fatalError.get() != null) {
+            errors.add(fatalError.get());
+        } else {
+            RowCall.addRowTotal(errors, rowNumber);
+            excelUtils.addReadingError(rows, filePath, rowNumber, errors);
+        }
+        logger.info("Iterator test: " + executed + " values"
+                + (skipped > 0 ? ", " + skipped + " already passed" : ""));
+        return errors;
+    }
+
+    /**
+     * Adds a row to the queue, waiting while some worker is alive
+     *
+     * @return false if all the workers have stopped
+     */
+    private boolean put(NumberedRow row, List<Thread> workers)
+            throws InterruptedException {
+        while (!queue.offer(row, QUEUE_POLL, TimeUnit.MILLISECONDS)) {
+            boolean alive = false;
+            for (Thread worker : workers) {
+                alive = alive || worker.isAlive();
+            }
+            if (!alive) {
+                fatalError.compareAndSet(null, "The threads of the parallel "
+                        + "execution have stopped");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates the test instance of a thread
+     */
+    private BasicTestCase createTestInstance() throws Exception {
+        BasicTestCase instance = testClass.getClass()
+                .getDeclaredConstructor().newInstance();
+        instance.name = testClass.name;
+        instance.setExcelTest(true);
+        return instance;
+    }
+
+    /**
+     * Runs the @Before or @After methods of the test class, skipping the
+     * framework ones
+     */
+    private static void runLifecycleMethods(BasicTestCase instance,
+                                            Class<? extends Annotation> annotation)
+            throws Throwable {
+        TestClass testClass = new TestClass(instance.getClass());
+        for (FrameworkMethod method : testClass.getAnnotatedMethods(annotation)) {
+            if (!method.getMethod().getDeclaringClass()
+                    .isAssignableFrom(HtmlTestCase.class)) {
+                method.invokeExplosively(instance);
+            }
+        }
+    }
+
+    /**
+     * Thread that runs rows with its own test instance
+     */
+    private class Worker implements Runnable {
+
+        public void run() {
+            BasicTestCase instance = null;
+            RowCall call = null;
+            DriverHolder.isolate();
+            try {
+                instance = createTestInstance();
+                // The rows can not run without their connection
+                instance.openDatabase();
+                if (instance instanceof HtmlTestCase) {
+                    ((HtmlTestCase) instance).startDriver();
+                }
+                runLifecycleMethods(instance, Before.class);
+                call = new RowCall(instance, methodName);
+            } catch (Throwable t) {
+                fatal("Error preparing the thread '"
+                        + Thread.currentThread().getName() + "': " + t);
+            }
+
+            try {
+                // After an error the rows are taken until the end mark, so
+                // the reader is never blocked
+                NumberedRow row;
+                while ((row = queue.take()) != END) {
+                    if (call == null || fatalError.get() != null) {
+                        continue;
+                    }
+                    logger.info("Iteration " + row.number + " ("
+                            + Thread.currentThread().getName() + ")");
+                    String error = call.execute(row.data, row.number);
+                    if (error != null) {
+                        if (call.isAborted()) {
+                            fatal(error);
+                            continue;
+                        }
+                        rowErrors.put(row.number, error);
+                    }
+                    try {
+                        if (journal != null) {
+                            journal.rowExecuted(row.number, error);
+                        }
+                        if (listener != null) {
+                            listener.rowExecuted(row.number, row.data, error,
+                                    call.getLastDuration());
+                        }
+                    } catch (RuntimeException e) {
+                        // The thread continues with the next rows
+                        logger.error("Error reporting the row " + row.number
+                                + ": " + e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (call != null) {
+                    try {
+                        runLifecycleMethods(instance, After.class);
+                    } catch (Throwable t) {
+                        logger.warn("Error in @After of thread '"
+                                + Thread.currentThread().getName() + "': " + t);
+                    }
+                }
+                if (instance instanceof HtmlTestCase) {
+                    ((HtmlTestCase) instance).stopDriver();
+                }
+                if (instance != null) {
+                    instance.closeDatabase();
+                }
+            }
+        }
+
+        private void fatal(String errorMessage) {
+            if (fatalError.compareAndSet(null, errorMessage)) {
+                logger.error(errorMessage);
+            }
+        }
+    }
+
+    /**
+     * Row with its number in the file
+     */
+    private static class NumberedRow {
+        private final int number;
+        private final ArrayList<String> data;
+
+        NumberedRow(int number, ArrayList<String> data) {
+            this.number = number;
+            this.data = data;
+        }
+    }
+}
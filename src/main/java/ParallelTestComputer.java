@@ -0,0 +1,263 @@
+package main.java;
+
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.runner.Computer;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.Runner;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.junit.runners.ParentRunner;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerBuilder;
+import org.junit.runners.model.RunnerScheduler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Runs the test methods of several test classes in parallel.
+ * <p/>
+ * The test classes are started at once and their test methods are run by
+ * a fixed number of worker threads (qa.parallel.threads, by default the
+ * number of processors). Each worker has its own WebDriver, reused by its
+ * tests if qa.driver.reuse is true and stopped when the execution finishes;
+ * each test instance borrows its own database connection, the pool grows by
+ * one connection per worker until shutdown. The classes that
+ * do not use the default runner run their children sequentially.
+ * <p/>
+ * It is a JUnit Computer: new JUnitCore().run(computer, classes) followed
+ * by computer.shutdown(), or ParallelTestComputer.run(classes) that also
+ * stops the workers. It can be
+ * run from the command line with the names of the test classes, i.e.
+ * java main.java.ParallelTestComputer test.java.ExampleTest
+ */
+public class ParallelTestComputer extends Computer {
+    /**
+     * Class logger
+     */
+    protected static Log logger = LogFactory.getLog(ParallelTestComputer.class);
+
+    /**
+     * Maximum time to wait for the workers to stop their drivers, in seconds
+     */
+    private static final long SHUTDOWN_TIMEOUT = 60;
+
+    private final int threads;
+    private final ExecutorService classExecutor;
+    private final ExecutorService workers;
+    private final TestThreadFactory workerFactory;
+    private final ConnectionPool connectionPool;
+    private final AtomicBoolean shutdown = new AtomicBoolean();
+
+    /**
+     * @param threads the number of worker threads
+     */
+    public ParallelTestComputer(int threads) {
+        this.threads = threads;
+        // HtmlTestCase.driver is the driver of each worker until shutdown
+        DriverHolder.startParallel();
+        // The tests of the workers hold their connections at the same time
+        connectionPool = ConnectionPool.reserveDefault(threads);
+        classExecutor = Executors.newCachedThreadPool(
+                new TestThreadFactory("test-class-", false));
+        workerFactory = new TestThreadFactory("test-worker-", true);
+        workers = Executors.newFixedThreadPool(threads, workerFactory);
+    }
+
+    /**
+     * Creates a computer with the qa.parallel.threads workers
+     *
+     * @return the computer
+     */
+    public static ParallelTestComputer getDefault() {
+        PropertiesManager properties = BasicTestCase.getProperties();
+        int threads = properties.getSnapshot().getInt(
+                properties.PARALLEL_THREADS, 0);
+        return new ParallelTestComputer(threads > 0 ? threads
+                : Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Runs the test classes in parallel with the qa.parallel.threads workers
+     *
+     * @param testClasses the test classes
+     * @return the result of all the tests
+     */
+    public static Result run(Class<?>... testClasses) {
+        ParallelTestComputer computer = getDefault();
+        logger.info("Running " + testClasses.length + " test classes in "
+                + computer.threads + " threads");
+        try {
+            return new JUnitCore().run(computer, testClasses);
+        } finally {
+            computer.shutdown();
+        }
+    }
+
+    /**
+     * Stops the worker threads and their drivers
+     */
+    public void shutdown() {
+        if (!shutdown.compareAndSet(false, true)) {
+            return;
+        }
+        classExecutor.shutdown();
+        workers.shutdown();
+        // The executor terminates before the workers stop their drivers
+        long limit = System.currentTimeMillis() + SHUTDOWN_TIMEOUT * 1000;
+        try {
+            for (Thread worker : workerFactory.getThreads()) {
+                worker.join(Math.max(limit - System.currentTimeMillis(), 1));
+                if (worker.isAlive()) {
+                    logger.error("Timeout stopping the test worker "
+                            + worker.getName());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            DriverHolder.endParallel();
+            if (connectionPool != null) {
+                connectionPool.unreserve(threads);
+            }
+        }
+    }
+
+    /**
+     * @return the number of worker threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    @Override
+    public Runner getSuite(RunnerBuilder builder, Class<?>[] classes)
+            throws InitializationError {
+        Runner suite = super.getSuite(builder, classes);
+        // The class threads only wait for the tests run by the workers
+        ((ParentRunner<?>) suite).setScheduler(new ExecutorScheduler(
+                classExecutor));
+        return suite;
+    }
+
+    @Override
+    protected Runner getRunner(RunnerBuilder builder, Class<?> testClass)
+            throws Throwable {
+        Runner runner = super.getRunner(builder, testClass);
+        if (runner instanceof BlockJUnit4ClassRunner) {
+            ((BlockJUnit4ClassRunner) runner).setScheduler(
+                    new ExecutorScheduler(workers));
+        } else {
+            // The children of other runners may wait for other tasks
+            logger.debug("The tests of '" + testClass.getName()
+                    + "' are run sequentially by "
+                    + runner.getClass().getSimpleName());
+        }
+        return runner;
+    }
+
+    /**
+     * Runs the test classes given as arguments in parallel
+     *
+     * @param args the test class names
+     */
+    public static void main(String[] args) throws Exception {
+        List<Class<?>> testClasses = new ArrayList<Class<?>>();
+        for (String className : args) {
+            testClasses.add(Class.forName(className));
+        }
+        Result result = run(testClasses.toArray(new Class<?>[testClasses
+                .size()]));
+        logger.info(result.getRunCount() + " tests, "
+                + result.getFailureCount() + " failures, "
+                + result.getRunTime() + " ms");
+        System.exit(result.wasSuccessful() ? 0 : 1);
+    }
+
+    /**
+     * Schedules the children of a runner in an executor and waits for them
+     */
+    private static class ExecutorScheduler implements RunnerScheduler {
+        private final ExecutorService executor;
+        private final List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        ExecutorScheduler(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        public void schedule(Runnable childStatement) {
+            futures.add(executor.submit(childStatement));
+        }
+
+        public void finished() {
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    // The failures are reported to the JUnit notifier
+                    logger.error("Error running a test: " + e.getCause());
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the test threads, the workers start without driver and stop
+     * their driver when they finish
+     */
+    private static class TestThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final boolean worker;
+        private final AtomicInteger number = new AtomicInteger(1);
+        private final List<Thread> threads =
+                Collections.synchronizedList(new ArrayList<Thread>());
+
+        TestThreadFactory(String prefix, boolean worker) {
+            this.prefix = prefix;
+            this.worker = worker;
+        }
+
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    // The test threads do not share the driver of the
+                    // thread that created them
+                    DriverHolder.isolate();
+                    try {
+                        runnable.run();
+                    } finally {
+                        if (worker) {
+                            DriverHolder.quit();
+                        }
+                    }
+                }
+            }, prefix + number.getAndIncrement());
+            thread.setDaemon(true);
+            threads.add(thread);
+            return thread;
+        }
+
+        /**
+         * @return the created threads
+         */
+        List<Thread> getThreads() {
+            synchronized (threads) {
+                return new ArrayList<Thread>(threads);
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package main.java;
+
+
+/**
+ * Converts the text of a data file cell to the type of a test method
+ * parameter.
+ * <p/>
+ * The converters are resolved once for each test method (see
+ * ParamConverters) and applied to every row.
+ */
+public interface ParamConverter {
+
+    /**
+     * Converts a cell value
+     *
+     * @param value the cell text, never null
+     * @return the parameter value
+     * @throws IllegalArgumentException if the text is not a valid value
+     */
+    Object convert(String value);
+}
@@ -0,0 +1,246 @@
+package main.java;
+
+
+import org.apache.poi.ss.usermodel.DateUtil;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Registry of the converters of the data driven test parameters.
+ * <p/>
+ * Supported types: String, int, long, double, boolean (and their wrappers),
+ * Date and enums. Other types can be added with register. Numbers accept the
+ * excel format ("3.0"), dates accept excel serial numbers (up to
+ * 9999-12-31) and the formats yyyy-MM-dd [HH:mm:ss] and
+ * dd/MM/yyyy [HH:mm:ss]. Empty cells are null for the object types and an
+ * error for the primitive ones.
+ */
+public class ParamConverters {
+
+    private static final ConcurrentMap<Class<?>, ParamConverter> converters =
+            new ConcurrentHashMap<Class<?>, ParamConverter>();
+
+    /**
+     * Excel serial number of 9999-12-31, the last excel date
+     */
+    private static final double MAX_EXCEL_DATE = 2958465;
+
+    private static final String[] DATE_FORMATS = {"yyyy-MM-dd HH:mm:ss",
+            "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd", "dd/MM/yyyy HH:mm:ss",
+            "dd/MM/yyyy"};
+
+    /**
+     * SimpleDateFormat is not thread safe
+     */
+    private static final ThreadLocal<SimpleDateFormat[]> dateFormats =
+            new ThreadLocal<SimpleDateFormat[]>() {
+                @Override
+                protected SimpleDateFormat[] initialValue() {
+                    SimpleDateFormat[] formats =
+                            new SimpleDateFormat[DATE_FORMATS.length];
+                    for (int i = 0; i < formats.length; i++) {
+                        formats[i] = new SimpleDateFormat(DATE_FORMATS[i]);
+                        formats[i].setLenient(false);
+                    }
+                    return formats;
+                }
+            };
+
+    static {
+        register(String.class, new ParamConverter() {
+            public Object convert(String value) {
+                return value;
+            }
+        });
+        ParamConverter intConverter = new TypedConverter("int") {
+            Object parse(String value) {
+                long number = parseLong(value);
+                if (number < Integer.MIN_VALUE || number > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("'" + value
+                            + "' is out of the int range");
+                }
+                return (int) number;
+            }
+        };
+        ParamConverter longConverter = new TypedConverter("long") {
+            Object parse(String value) {
+                return parseLong(value);
+            }
+        };
+        ParamConverter doubleConverter = new TypedConverter("double") {
+            Object parse(String value) {
+                return Double.parseDouble(value);
+            }
+        };
+        ParamConverter booleanConverter = new TypedConverter("boolean") {
+            Object parse(String value) {
+                if (value.equalsIgnoreCase("true") || value.equals("1")
+                        || value.equals("1.0")) {
+                    return Boolean.TRUE;
+                } else if (value.equalsIgnoreCase("false") || value.equals("0")
+                        || value.equals("0.0")) {
+                    return Boolean.FALSE;
+                }
+                throw new IllegalArgumentException("'" + value
+                        + "' is not a boolean");
+            }
+        };
+        register(int.class, intConverter);
+        register(Integer.class, intConverter);
+        register(long.class, longConverter);
+        register(Long.class, longConverter);
+        register(double.class, doubleConverter);
+        register(Double.class, doubleConverter);
+        register(boolean.class, booleanConverter);
+        register(Boolean.class, booleanConverter);
+        register(Date.class, new TypedConverter("Date") {
+            Object parse(String value) {
+                return parseDate(value);
+            }
+        });
+    }
+
+    /**
+     * Adds or replaces the converter of a type
+     *
+     * @param type      the parameter type
+     * @param converter the converter of the cell values
+     */
+    public static void register(Class<?> type, ParamConverter converter) {
+        converters.put(type, converter);
+    }
+
+    /**
+     * Returns the converter of a parameter type
+     *
+     * @param type the parameter type
+     * @return the converter or null if the type is not supported
+     */
+    public static ParamConverter get(Class<?> type) {
+        ParamConverter converter = converters.get(type);
+        if (converter == null && type.isEnum()) {
+            converter = enumConverter(type);
+            converters.putIfAbsent(type, converter);
+        }
+        return converter;
+    }
+
+    /**
+     * Finds the constants by name, and then ignoring the case
+     */
+    private static ParamConverter enumConverter(final Class<?> type) {
+        final Map<String, Object> constants = new HashMap<String, Object>();
+        for (Object constant : type.getEnumConstants()) {
+            constants.put(((Enum<?>) constant).name(), constant);
+        }
+        for (Object constant : type.getEnumConstants()) {
+            String upperName = ((Enum<?>) constant).name().toUpperCase();
+            if (!constants.containsKey(upperName)) {
+                constants.put(upperName, constant);
+            }
+        }
+        return new TypedConverter(type.getSimpleName()) {
+            Object parse(String value) {
+                Object constant = constants.get(value);
+                if (constant == null) {
+                    constant = constants.get(value.toUpperCase());
+                }
+                if (constant == null) {
+                    throw new IllegalArgumentException("'" + value
+                            + "' is not a value of " + type.getSimpleName());
+                }
+                return constant;
+            }
+        };
+    }
+
+    /**
+     * Parses an integer number, also with the excel format (3.0)
+     */
+    private static long parseLong(String value) {
+        if (isNumber(value, false)) {
+            return Long.parseLong(value);
+        }
+        double number = Double.parseDouble(value);
+        if (number != Math.rint(number) || Double.isInfinite(number)) {
+            throw new IllegalArgumentException("'" + value
+                    + "' is not an integer number");
+        }
+        return (long) number;
+    }
+
+    /**
+     * Parses a date from an excel serial number or a text. The numbers out
+     * of the excel dates (i.e. 20240115) are not dates
+     */
+    private static Date parseDate(String value) {
+        if (isNumber(value, true)) {
+            double serial = Double.parseDouble(value);
+            if (serial >= 0 && serial < MAX_EXCEL_DATE + 1) {
+                return DateUtil.getJavaDate(serial);
+            }
+        }
+        for (SimpleDateFormat format : dateFormats.get()) {
+            ParsePosition position = new ParsePosition(0);
+            Date date = format.parse(value, position);
+            if (date != null && position.getIndex() == value.length()) {
+                return date;
+            }
+        }
+        throw new IllegalArgumentException("'" + value + "' is not a date");
+    }
+
+    /**
+     * @return true if the text has only digits, an optional sign and, if
+     * decimals is true, an optional decimal point
+     */
+    private static boolean isNumber(String value, boolean decimals) {
+        boolean digits = false;
+        boolean point = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits = true;
+            } else if (c == '.' && decimals && !point) {
+                point = true;
+            } else if (!(i == 0 && (c == '-' || c == '+'))) {
+                return false;
+            }
+        }
+        return digits;
+    }
+
+    /**
+     * Trims the values and checks the empty cells
+     */
+    private abstract static class TypedConverter implements ParamConverter {
+        private final String typeName;
+
+        TypedConverter(String typeName) {
+            this.typeName = typeName;
+        }
+
+        public Object convert(String value) {
+            String text = value.trim();
+            if (text.isEmpty()) {
+                // RowInvoker rejects it for the primitive parameters
+                return null;
+            }
+            return parse(text);
+        }
+
+        abstract Object parse(String value);
+
+        @Override
+        public String toString() {
+            return typeName + " converter";
+        }
+    }
+}
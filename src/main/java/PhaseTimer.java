@@ -0,0 +1,339 @@
+package main.java;
+
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+/**
+ * Times the phases of the framework in each test.
+ * <p/>
+ * The rule of BasicTestCase starts the timings of each test and the
+ * framework methods record the time of their phases (setup, driver
+ * creation, test body, screenshots, Jira...) with System.nanoTime, the
+ * phases executed several times in a test are added. When the qa.timings.path
+ * property is set, the timings are saved in that folder at the end of the
+ * execution: timings.csv and timings.json with the phases of each test and
+ * timings.prom with the p50, p95 and p99 of each phase in the Prometheus
+ * text format.
+ */
+public class PhaseTimer {
+    /**
+     * Class logger
+     */
+    protected static Log logger = LogFactory.getLog(PhaseTimer.class);
+
+    /**
+     * Phase names
+     */
+    public static final String SETUP_PROPERTIES = "setup.properties";
+    public static final String SETUP_DATABASE = "setup.database";
+    public static final String DRIVER_CREATE = "driver.create";
+    public static final String DRIVER_OPEN_URL = "driver.openurl";
+    public static final String DRIVER_MAXIMIZE = "driver.maximize";
+    public static final String DRIVER_RESET = "driver.reset";
+    public static final String TEST = "test";
+    public static final String SCREENSHOT = "screenshot";
+    public static final String DRIVER_STOP = "driver.stop";
+    public static final String TEARDOWN_PROPERTIES = "teardown.properties";
+    public static final String TEARDOWN_DATABASE = "teardown.database";
+    public static final String JIRA = "jira";
+    public static final String TOTAL = "total";
+
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    /**
+     * Timings of the test of the current thread
+     */
+    private static final ThreadLocal<TestTimings> current =
+            new ThreadLocal<TestTimings>();
+
+    /**
+     * Timings of the finished tests
+     */
+    private static final ConcurrentLinkedQueue<TestTimings> finished =
+            new ConcurrentLinkedQueue<TestTimings>();
+
+    private static boolean exportRegistered = false;
+
+    /**
+     * @return the rule that starts and finishes the timings of each test
+     */
+    public static TestRule rule() {
+        return new TestRule() {
+            public Statement apply(final Statement base,
+                                   final Description description) {
+                return new Statement() {
+                    @Override
+                    public void evaluate() throws Throwable {
+                        if (!isEnabled()) {
+                            base.evaluate();
+                            return;
+                        }
+                        long start = System.nanoTime();
+                        TestTimings timings = new TestTimings(
+                                getTestName(description));
+                        current.set(timings);
+                        try {
+                            base.evaluate();
+                        } finally {
+                            record(TOTAL, start);
+                            current.remove();
+                            finished.add(timings);
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Records the time of a phase of the current test
+     *
+     * @param phase the phase name
+     * @param start the System.nanoTime() when the phase started
+     */
+    public static void record(String phase, long start) {
+        TestTimings timings = current.get();
+        if (timings != null) {
+            timings.add(phase, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Marks the start of the test body, called at the end of the setup
+     */
+    public static void startTest() {
+        TestTimings timings = current.get();
+        if (timings != null) {
+            timings.testStart = System.nanoTime();
+        }
+    }
+
+    /**
+     * Records the time of the test body, called at the start of the tear
+     * down
+     */
+    public static void endTest() {
+        TestTimings timings = current.get();
+        if (timings != null && timings.testStart != 0) {
+            timings.add(TEST, System.nanoTime() - timings.testStart);
+            timings.testStart = 0;
+        }
+    }
+
+    /**
+     * Saves the timings of the finished tests in the qa.timings.path folder
+     *
+     * @return true if success
+     */
+    public static boolean export() {
+        PropertiesManager properties = BasicTestCase.getProperties();
+        String path = properties.getProperty(properties.TIMINGS_PATH);
+        if (path.isEmpty()) {
+            return false;
+        }
+        File folder = new File(path);
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            logger.error("Error creating the timings folder '" + path + "'");
+            return false;
+        }
+
+        List<TestTimings> tests = new ArrayList<TestTimings>(finished);
+        Map<String, List<Long>> phases = new TreeMap<String, List<Long>>();
+        for (TestTimings test : tests) {
+            for (Map.Entry<String, Long> phase : test.phases.entrySet()) {
+                List<Long> values = phases.get(phase.getKey());
+                if (values == null) {
+                    values = new ArrayList<Long>();
+                    phases.put(phase.getKey(), values);
+                }
+                values.add(phase.getValue());
+            }
+        }
+        for (List<Long> values : phases.values()) {
+            Collections.sort(values);
+        }
+
+        try {
+            writeCsv(new File(folder, "timings.csv"), tests);
+            writeJson(new File(folder, "timings.json"), tests, phases);
+            writePrometheus(new File(folder, "timings.prom"), phases);
+        } catch (IOException e) {
+            logger.error("Error saving the timings in '" + path + "': "
+                    + e.getMessage());
+            return false;
+        }
+        logger.info("Saved the timings of " + tests.size() + " tests in '"
+                + path + "'");
+        return true;
+    }
+
+    /**
+     * Clears the timings of the finished tests
+     */
+    public static void clear() {
+        finished.clear();
+    }
+
+    /**
+     * Checks if the timings are enabled, the first time it registers the
+     * export at the end of the execution
+     */
+    private static synchronized boolean isEnabled() {
+        PropertiesManager properties = BasicTestCase.getProperties();
+        if (properties.getProperty(properties.TIMINGS_PATH).isEmpty()) {
+            return false;
+        }
+        if (!exportRegistered) {
+            exportRegistered = true;
+            Runtime.getRuntime().addShutdownHook(new Thread("timings-export") {
+                @Override
+                public void run() {
+                    export();
+                }
+            });
+        }
+        return true;
+    }
+
+    private static String getTestName(Description description) {
+        Class<?> testClass = description.getTestClass();
+        String className = (testClass != null) ? testClass.getSimpleName()
+                : description.getClassName();
+        return className + "." + description.getMethodName();
+    }
+
+    private static void writeCsv(File file, List<TestTimings> tests)
+            throws IOException {
+        Writer out = new FileWriter(file);
+        try {
+            out.write("test,phase,milliseconds\n");
+            for (TestTimings test : tests) {
+                for (Map.Entry<String, Long> phase : test.phases.entrySet()) {
+                    out.write(test.name + "," + phase.getKey() + ","
+                            + millis(phase.getValue()) + "\n");
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeJson(File file, List<TestTimings> tests,
+                                  Map<String, List<Long>> phases) throws IOException {
+        Writer out = new FileWriter(file);
+        try {
+            out.write("{\n  \"tests\": [");
+            for (int t = 0; t < tests.size(); t++) {
+                TestTimings test = tests.get(t);
+                out.write((t > 0 ? "," : "") + "\n    {\"test\": \""
+                        + jsonEscape(test.name) + "\", \"phases\": {");
+                int p = 0;
+                for (Map.Entry<String, Long> phase : test.phases.entrySet()) {
+                    out.write((p++ > 0 ? ", " : "") + "\"" + phase.getKey()
+                            + "\": " + millis(phase.getValue()));
+                }
+                out.write("}}");
+            }
+            out.write("\n  ],\n  \"summary\": {");
+            int p = 0;
+            for (Map.Entry<String, List<Long>> phase : phases.entrySet()) {
+                List<Long> values = phase.getValue();
+                out.write((p++ > 0 ? "," : "") + "\n    \"" + phase.getKey()
+                        + "\": {\"count\": " + values.size() + ", \"p50\": "
+                        + millis(percentile(values, 0.5)) + ", \"p95\": "
+                        + millis(percentile(values, 0.95)) + ", \"p99\": "
+                        + millis(percentile(values, 0.99)) + "}");
+            }
+            out.write("\n  }\n}\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writePrometheus(File file, Map<String, List<Long>> phases)
+            throws IOException {
+        Writer out = new FileWriter(file);
+        try {
+            out.write("# HELP qa_phase_duration_seconds Duration of the "
+                    + "framework phases of the tests\n");
+            out.write("# TYPE qa_phase_duration_seconds summary\n");
+            for (Map.Entry<String, List<Long>> phase : phases.entrySet()) {
+                List<Long> values = phase.getValue();
+                String label = "phase=\"" + phase.getKey() + "\"";
+                for (double quantile : QUANTILES) {
+                    out.write("qa_phase_duration_seconds{" + label
+                            + ",quantile=\"" + quantile + "\"} "
+                            + seconds(percentile(values, quantile)) + "\n");
+                }
+                long sum = 0;
+                for (long value : values) {
+                    sum += value;
+                }
+                out.write("qa_phase_duration_seconds_sum{" + label + "} "
+                        + seconds(sum) + "\n");
+                out.write("qa_phase_duration_seconds_count{" + label + "} "
+                        + values.size() + "\n");
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Nearest-rank percentile
+     *
+     * @param values the sorted values
+     */
+    static long percentile(List<Long> values, double quantile) {
+        int rank = (int) Math.ceil(quantile * values.size());
+        return values.get(Math.max(rank, 1) - 1);
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000000.0);
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.6f", nanos / 1000000000.0);
+    }
+
+    private static String jsonEscape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * Phases of a test
+     */
+    private static class TestTimings {
+        private final String name;
+        private final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+        private long testStart = 0;
+
+        TestTimings(String name) {
+            this.name = name;
+        }
+
+        void add(String phase, long nanos) {
+            Long previous = phases.get(phase);
+            phases.put(phase, (previous == null) ? nanos : previous + nanos);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package main.java;
+
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Saves a properties file in a background thread.
+ * <p/>
+ * The stores are coalesced: only the last copy of the properties is kept
+ * while the previous one is being written. The file is written to a
+ * temporary file in the same folder and then renamed, so it is never
+ * truncated if the process dies while writing. The pending writes are done
+ * before the JVM exits.
+ */
+public class PropertiesFileWriter implements Runnable {
+    /**
+     * Class logger
+     */
+    protected static Log logger = LogFactory.getLog(PropertiesFileWriter.class);
+
+    /**
+     * Maximum time to wait for the pending writes
+     */
+    private static final long FLUSH_TIMEOUT = 10;
+
+    private static final ExecutorService executor =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "properties-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread("properties-flush") {
+            @Override
+            public void run() {
+                // The queued writes are done before the executor terminates
+                executor.shutdown();
+                try {
+                    if (!executor.awaitTermination(FLUSH_TIMEOUT,
+                            TimeUnit.SECONDS)) {
+                        logger.error("Timeout saving the properties files");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    private final File file;
+    private final AtomicReference<Properties> pending =
+            new AtomicReference<Properties>();
+
+    /**
+     * Error of the last write, null if it has been saved
+     */
+    private volatile IOException lastError = null;
+
+    /**
+     * Last properties written to the file, guarded by this
+     */
+    private Properties written = null;
+
+    /**
+     * @param file the properties file
+     */
+    public PropertiesFileWriter(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Schedules the write of the properties
+     *
+     * @param properties the properties, they are copied
+     */
+    public void store(Properties properties) {
+        Properties copy = new Properties();
+        copy.putAll(properties);
+        if (pending.getAndSet(copy) == null) {
+            executor.execute(this);
+        }
+    }
+
+    /**
+     * Waits until the pending writes have finished
+     *
+     * @return true if the properties have been saved, false if the last
+     * write failed
+     */
+    public boolean flush() {
+        try {
+            executor.submit(this).get(FLUSH_TIMEOUT, TimeUnit.SECONDS);
+            return lastError == null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.error("Error saving properties file '" + file + "': "
+                    + e.getCause());
+        } catch (TimeoutException e) {
+            logger.error("Timeout saving properties file '" + file + "'");
+        }
+        return false;
+    }
+
+    public void run() {
+        Properties properties = pending.getAndSet(null);
+        if (properties == null) {
+            return;
+        }
+        try {
+            synchronized (this) {
+                write(file, properties);
+                written = properties;
+            }
+            lastError = null;
+            logger.info("Saved properties file '" + file + "'");
+        } catch (IOException e) {
+            lastError = e;
+            logger.error("Error saving properties file '" + file + "': "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the file if it has not been written by this writer, so the
+     * watcher events of its own writes can be ignored
+     *
+     * @return the properties or null if the file has the last properties
+     * written by this writer
+     * @throws IOException if the file can not be read
+     */
+    public synchronized Properties readChanged() throws IOException {
+        Properties properties = read(file);
+        return properties.equals(written) ? null : properties;
+    }
+
+    /**
+     * Reads a properties file
+     *
+     * @param file the properties file
+     * @return the properties
+     * @throws IOException if the file can not be read
+     */
+    static Properties read(File file) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return properties;
+    }
+
+    /**
+     * Writes the properties to a temporary file and replaces the file
+     *
+     * @param file       the properties file
+     * @param properties the properties
+     * @throws IOException if the file can not be written
+     */
+    static void write(File file, Properties properties) throws IOException {
+        File temp = File.createTempFile(file.getName(), ".tmp",
+                file.getAbsoluteFile().getParentFile());
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                properties.store(out, null);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+}
@@ -5,9 +5,14 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
 
 public class PropertiesManager {
     /**
@@ -23,13 +28,34 @@ public class PropertiesManager {
     /**
      * Properties object
      */
-    private Properties prop;
+    private volatile Properties prop;
 
     /**
      * Properties object
      */
     private boolean localChanges = false;
 
+    /**
+     * Resolved configuration, replaced when the configuration changes
+     */
+    private volatile ConfigSnapshot snapshot;
+
+    /**
+     * Watcher of the properties file, if the reload is enabled
+     */
+    private PropertiesWatcher watcher;
+
+    /**
+     * Background writer of the properties file
+     */
+    private PropertiesFileWriter writer;
+
+    /**
+     * Browser of the current thread, used by the browser matrix
+     */
+    private static final InheritableThreadLocal<BrowserSpec> threadBrowser =
+            new InheritableThreadLocal<BrowserSpec>();
+
     /**
      * Properties names
      */
@@ -37,11 +63,16 @@ public class PropertiesManager {
     public final String SERVER_PORT = "qa.server.port";
     public final String SCREENSHOTS_PATH = "qa.screenshots.path";
     public final String SCREENSHOTS_ENABLED = "qa.screenshots.enabled";
+    public final String SCREENSHOTS_FORMAT = "qa.screenshots.format";
+    public final String SCREENSHOTS_QUEUESIZE = "qa.screenshots.queuesize";
     public final String DATABASE_ENABLED = "qa.database.enabled";
     public final String DATABASE_DRIVERNAME = "qa.database.drivername";
     public final String DATABASE_URL = "qa.database.url";
     public final String DATABASE_USERNAME = "qa.database.username";
     public final String DATABASE_PASSWORD = "qa.database.password";
+    public final String DATABASE_POOL_MAXSIZE = "qa.database.pool.maxsize";
+    public final String DATABASE_POOL_TIMEOUT = "qa.database.pool.timeout";
+    public final String DATABASE_POOL_LEAKTIME = "qa.database.pool.leaktime";
     public final String BROWSER = "qa.browser";
     public final String FIREFOX_PROFILE = "qa.firefox.profile";
     public final String FIREFOX_BIN = "qa.firefox.bin";
@@ -56,17 +87,41 @@ public class PropertiesManager {
     public final String JSCOVERAGE_OUTPUTFILE = "qa.jscoverage.outputFile";
     public final String JSCOVERAGE_SOURCEPATH = "qa.jscoverage.sourcePath";
     public final String JIRA_ENABLED = "qa.jira.enabled";
+    public final String JIRA_URL = "qa.jira.url";
+    public final String JIRA_QUEUESIZE = "qa.jira.queuesize";
+    public final String JIRA_STATUSCACHE = "qa.jira.statuscache";
     public final String JIRA_FIXVERSION = "qa.jira.fixversion";
     public final String JIRA_COMMENT = "qa.jira.comment";
     public final String JIRA_ONLYIFCHANGES = "qa.jira.onlyifchanges";
     public final String TIMEOUT = "qa.timeout";
     public final String DRIVER_REUSE = "qa.driver.reuse";
+    public final String DRIVER_RESET = "qa.driver.reset";
+    public final String DRIVER_LAZY = "qa.driver.lazy";
+    public final String DRIVER_POOL_SIZE = "qa.driver.pool.size";
+    public final String DRIVER_POOL_TIMEOUT = "qa.driver.pool.timeout";
+    public final String EXCEL_STREAMING = "qa.excel.streaming";
+    public final String EXCEL_EVALUATEFORMULAS = "qa.excel.evaluateformulas";
+    public final String DATADRIVEN_THREADS = "qa.datadriven.threads";
+    public final String PARALLEL_THREADS = "qa.parallel.threads";
+    public final String DATACACHE_ENABLED = "qa.datacache.enabled";
+    public final String DATACACHE_SIZE = "qa.datacache.size";
+    public final String DATACACHE_PATH = "qa.datacache.path";
+    public final String SHARD_INDEX = "qa.shard.index";
+    public final String SHARD_COUNT = "qa.shard.count";
+    public final String SHARD_RESULTPATH = "qa.shard.resultpath";
+    public final String JOURNAL_ENABLED = "qa.journal.enabled";
+    public final String JOURNAL_PATH = "qa.journal.path";
+    public final String RESULTS_PATH = "qa.results.path";
+    public final String PROPERTIES_RELOAD = "qa.properties.reload";
+    public final String TIMINGS_PATH = "qa.timings.path";
 
     /**
      * Constructs a PropertiesManager with the default file
      */
     public PropertiesManager() {
         prop = loadProperties();
+        snapshot = createSnapshot(new HashSet<String>());
+        startWatcher();
     }
 
     /**
@@ -79,6 +134,8 @@ public class PropertiesManager {
             propertiesFileName = newPropertiesFileName;
         }
         prop = loadProperties();
+        snapshot = createSnapshot(new HashSet<String>());
+        startWatcher();
     }
 
     /**
@@ -102,32 +159,144 @@ public class PropertiesManager {
     }
 
     /**
-     * Store the prop object in the prop file
+     * Starts watching the properties file if qa.properties.reload is true
+     */
+    private void startWatcher() {
+        if (prop == null || !getBooleanProperty(PROPERTIES_RELOAD)) {
+            return;
+        }
+        String filePath = Utils.getResourcePath(propertiesFileName);
+        if (filePath != null) {
+            watcher = PropertiesWatcher.start(this, filePath);
+        }
+    }
+
+    /**
+     * Stops watching the properties file
+     */
+    public void stopWatcher() {
+        if (watcher != null) {
+            watcher.stop();
+            watcher = null;
+        }
+    }
+
+    /**
+     * Reads the prop file again and publishes the new configuration
+     * <p/>
+     * The new values replace the snapshot at once, so the tests that are
+     * running see the previous configuration or the new one. The file is
+     * not reloaded if it has the last properties stored by this manager;
+     * otherwise the local changes that have not been stored are lost.
      *
      * @return true if success
      */
-    public boolean storeProperties() {
-        if (localChanges) {
-            String filePath = Utils.getResourcePath(propertiesFileName);
-            if (filePath == null) {
-                logger.error("Error saving properties file '"
-                        + propertiesFileName + "'");
-                return false;
+    public boolean reloadProperties() {
+        String filePath = Utils.getResourcePath(propertiesFileName);
+        if (filePath == null) {
+            logger.error("Error reloading properties file '"
+                    + propertiesFileName + "'");
+            return false;
+        }
+
+        PropertiesFileWriter currentWriter;
+        synchronized (this) {
+            currentWriter = writer;
+        }
+        Properties properties;
+        try {
+            if (currentWriter == null) {
+                properties = PropertiesFileWriter.read(new File(filePath));
+            } else {
+                properties = currentWriter.readChanged();
+                if (properties == null) {
+                    logger.debug("Properties file '" + propertiesFileName
+                            + "' not reloaded, it has the stored properties");
+                    return true;
+                }
             }
+        } catch (Exception e) {
+            logger.error("Error reloading properties file '" + filePath
+                    + "': " + e.getMessage());
+            return false;
+        }
 
-            try {
-                prop.store(new FileOutputStream(filePath), null);
-            } catch (Exception e) {
-                logger.error("Error saving properties file '" + filePath
-                        + "': " + e.getMessage());
-                return false;
+        Set<String> changedKeys;
+        synchronized (this) {
+            changedKeys = getChangedKeys(prop, properties);
+            prop = properties;
+            localChanges = false;
+            snapshot = createSnapshot(new HashSet<String>(snapshot.keys()));
+        }
+        if (changedKeys.isEmpty()) {
+            logger.debug("Reloaded properties file '" + propertiesFileName
+                    + "' without changes");
+        } else {
+            logger.info("Reloaded properties file '" + propertiesFileName
+                    + "', changed properties: " + changedKeys);
+        }
+        return true;
+    }
+
+    /**
+     * @return the keys that have been added, removed or modified
+     */
+    private static Set<String> getChangedKeys(Properties oldProperties,
+                                              Properties newProperties) {
+        Set<String> changedKeys = new TreeSet<String>();
+        Set<String> keys = new HashSet<String>(newProperties.stringPropertyNames());
+        if (oldProperties != null) {
+            keys.addAll(oldProperties.stringPropertyNames());
+        }
+        for (String key : keys) {
+            String oldValue = (oldProperties == null) ? null
+                    : oldProperties.getProperty(key);
+            String newValue = newProperties.getProperty(key);
+            if (oldValue == null ? newValue != null : !oldValue.equals(newValue)) {
+                changedKeys.add(key);
             }
+        }
+        return changedKeys;
+    }
+
+    /**
+     * Store the prop object in the prop file
+     * <p/>
+     * The file is written in background, use flushProperties() to wait for
+     * the write.
+     *
+     * @return true if success
+     */
+    public synchronized boolean storeProperties() {
+        if (localChanges) {
+            if (writer == null) {
+                String filePath = Utils.getResourcePath(propertiesFileName);
+                if (filePath == null) {
+                    logger.error("Error saving properties file '"
+                            + propertiesFileName + "'");
+                    return false;
+                }
+                writer = new PropertiesFileWriter(new File(filePath));
+            }
+            writer.store(prop);
             localChanges = false;
-            logger.info("Saved properties file '" + propertiesFileName + "'");
         }
         return true;
     }
 
+    /**
+     * Waits until the stored properties have been written to the prop file
+     *
+     * @return true if success
+     */
+    public boolean flushProperties() {
+        PropertiesFileWriter currentWriter;
+        synchronized (this) {
+            currentWriter = writer;
+        }
+        return currentWriter == null || currentWriter.flush();
+    }
+
     /**
      * Searches for the property with the specified key
      *
@@ -135,8 +304,170 @@ public class PropertiesManager {
      * @return the property value
      */
     public String getProperty(String key) {
+        return currentSnapshot(key).getString(key);
+    }
+
+    /**
+     * Returns the resolved configuration
+     * <p/>
+     * The snapshot is created again only if the number of system properties
+     * or the system properties of its values have changed, the system
+     * properties are not scanned in each call.
+     *
+     * @return the current snapshot, including the qa.* system properties
+     * set after the last snapshot
+     */
+    public ConfigSnapshot getSnapshot() {
+        ConfigSnapshot current = snapshot;
+        if (!isSystemCurrent(current)) {
+            current = refreshSnapshot();
+        }
+        return current;
+    }
+
+    /**
+     * Returns the snapshot with the current value of the property
+     * <p/>
+     * The system properties can be changed while the tests are running, so
+     * the snapshot is created again if the system property of the value has
+     * changed or if the property has not been resolved yet.
+     *
+     * @param key property key
+     * @return the snapshot
+     */
+    private ConfigSnapshot currentSnapshot(String key) {
+        ConfigSnapshot current = snapshot;
+        ConfigSnapshot.Value value = current.getValue(key);
+        if (value == null || !isCurrent(current, value)) {
+            current = refreshSnapshot(key);
+        }
+        return current;
+    }
+
+    /**
+     * Checks that the system properties used to resolve a value have not
+     * changed
+     */
+    private boolean isCurrent(ConfigSnapshot current, ConfigSnapshot.Value value) {
+        String systemValue = System.getProperty(value.key);
+        if (systemValue == null ? value.systemValue != null
+                : !systemValue.equals(value.systemValue)) {
+            return false;
+        }
+        if (value.authUrl) {
+            return isCurrent(current, current.getValue(USERNAME))
+                    && isCurrent(current, current.getValue(PASSWORD));
+        }
+        return true;
+    }
+
+    /**
+     * Checks that no system property has been added or removed, and that
+     * the system properties of the snapshot values have not changed
+     */
+    private static boolean isSystemCurrent(ConfigSnapshot current) {
+        if (System.getProperties().size() != current.getSystemCount()) {
+            return false;
+        }
+        List<ConfigSnapshot.Value> systemValues = current.getSystemValues();
+        for (int i = 0; i < systemValues.size(); i++) {
+            ConfigSnapshot.Value value = systemValues.get(i);
+            if (!value.systemValue.equals(System.getProperty(value.key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates a new snapshot if the system properties have changed
+     *
+     * @return the current snapshot
+     */
+    private synchronized ConfigSnapshot refreshSnapshot() {
+        ConfigSnapshot current = snapshot;
+        if (!isSystemCurrent(current)) {
+            current = createSnapshot(new HashSet<String>(current.keys()));
+            snapshot = current;
+        }
+        return current;
+    }
+
+    /**
+     * Creates a new snapshot if the property is not resolved or it has
+     * changed
+     *
+     * @param key property key
+     * @return the current snapshot
+     */
+    private synchronized ConfigSnapshot refreshSnapshot(String key) {
+        ConfigSnapshot current = snapshot;
+        ConfigSnapshot.Value value = current.getValue(key);
+        if (value == null || !isCurrent(current, value)) {
+            Set<String> keys = new HashSet<String>(current.keys());
+            keys.add(key);
+            current = createSnapshot(keys);
+            snapshot = current;
+        }
+        return current;
+    }
+
+    /**
+     * Resolves the properties of the file, the qa.* system and environment
+     * properties and the specified keys
+     *
+     * @param keys other properties to resolve
+     * @return the snapshot
+     */
+    private ConfigSnapshot createSnapshot(Set<String> keys) {
+        // Counted first, a property added while creating it is detected
+        int systemCount = System.getProperties().size();
+        Set<String> allKeys = new HashSet<String>(keys);
+        if (prop != null) {
+            allKeys.addAll(prop.stringPropertyNames());
+        }
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith("qa.")) {
+                allKeys.add(key);
+            }
+        }
+        for (String key : System.getenv().keySet()) {
+            if (key.startsWith("qa.")) {
+                allKeys.add(key);
+            }
+        }
+        allKeys.add(BROWSER);
+        allKeys.add(USERNAME);
+        allKeys.add(PASSWORD);
+
+        String username = resolveProperty(USERNAME, System.getProperty(USERNAME),
+                null, null);
+        String password = resolveProperty(PASSWORD, System.getProperty(PASSWORD),
+                null, null);
+        Map<String, ConfigSnapshot.Value> values =
+                new HashMap<String, ConfigSnapshot.Value>();
+        for (String key : allKeys) {
+            String systemValue = System.getProperty(key);
+            values.put(key, new ConfigSnapshot.Value(key, resolveProperty(key,
+                    systemValue, username, password), systemValue,
+                    key.startsWith(URL)));
+        }
+        return new ConfigSnapshot(values, BROWSER, systemCount);
+    }
+
+    /**
+     * Resolves the value of a property
+     *
+     * @param key         property key
+     * @param systemValue the system property value
+     * @param username    the resolved username, to add it to the urls
+     * @param password    the resolved password, to add it to the urls
+     * @return the property value
+     */
+    private String resolveProperty(String key, String systemValue,
+                                   String username, String password) {
         // Get system property, readed from 'mvn -Dkey=value'
-        String propertyValue = System.getProperty(key);
+        String propertyValue = systemValue;
         if (propertyValue == null) {
             // Get environment property, readed from system
             propertyValue = System.getenv(key);
@@ -154,7 +485,7 @@ public class PropertiesManager {
             // Replaces file separators of the properties that have local paths
             propertyValue = propertyValue.replace("/", File.separator);
         } else if (key.startsWith(URL)) {
-            propertyValue = addAuthToUrl(propertyValue);
+            propertyValue = addAuthToUrl(propertyValue, username, password);
         }
 
         return propertyValue;
@@ -167,7 +498,7 @@ public class PropertiesManager {
      * @return the property value or "" if the property does not exist
      */
     private String getPropertyNotNull(String key) {
-        String property = prop.getProperty(key);
+        String property = (prop == null) ? null : prop.getProperty(key);
         String modifiedProperty = (property == null) ? "" : property.trim();
         try {
             // Properties.load() uses the ISO 8859-1 character encoding with
@@ -191,12 +522,7 @@ public class PropertiesManager {
      * @return the property value
      */
     public boolean getBooleanProperty(String key) {
-        boolean propertyValue = false;
-        String stringPropertyValue = getProperty(key);
-        if (stringPropertyValue.equals("true")) {
-            propertyValue = true;
-        }
-        return propertyValue;
+        return currentSnapshot(key).getBoolean(key);
     }
 
     /**
@@ -207,30 +533,66 @@ public class PropertiesManager {
      * @return the previous property value
      */
     public Object setProperty(String key, String value) {
-        localChanges = true;
-        return prop.setProperty(key, value);
+        Object previousValue;
+        synchronized (this) {
+            previousValue = prop.setProperty(key, value);
+            localChanges = true;
+            snapshot = createSnapshot(new HashSet<String>(snapshot.keys()));
+        }
+        return previousValue;
     }
 
     /**
-     * Get name_version_os of the configured browser
+     * Get the configured browser
      *
-     * @return the name, version and OS of the browser
+     * @return the name, version and platform of the browser of the current
+     * thread or the first configured browser
      */
-    public String getBrowserInfo() {
-        String browser = getProperty(BROWSER);
+    public BrowserSpec getBrowser() {
+        BrowserSpec browser = threadBrowser.get();
+        if (browser != null) {
+            return browser;
+        }
+        return currentSnapshot(BROWSER).getBrowser();
+    }
 
-        // The browser info has name, version and OS of the browser variable
-        // i.e. qa.browser = firefox C:\firefox.exe -> browserInfo = firefox
-        // i.e. qa.browser = firefox -> browserInfo = firefox
-        // i.e. qa.browser = firefox-4.0-on-windows_7 -> browserInfo =
-        // firefox_4.0_windows_7
-        String[] browserSplit = browser.split(" ")[0].split("-");
-        String browserInfo = browserSplit[0];
-        if (browserSplit.length > 3) {
-            browserInfo += "_" + browserSplit[1] + "_" + browserSplit[3];
+    /**
+     * Get the configured browsers, qa.browser can be a comma separated list
+     *
+     * @return the browsers
+     */
+    public List<BrowserSpec> getBrowsers() {
+        return currentSnapshot(BROWSER).getBrowsers();
+    }
+
+    /**
+     * Sets the browser of the current thread and the threads it creates
+     *
+     * @param browser the browser or null to use the configured one
+     */
+    public static void setThreadBrowser(BrowserSpec browser) {
+        if (browser == null) {
+            threadBrowser.remove();
+        } else {
+            threadBrowser.set(browser);
         }
+    }
+
+    /**
+     * @return the browser of the current thread or null if it has not been
+     * set
+     */
+    public static BrowserSpec getThreadBrowser() {
+        return threadBrowser.get();
+    }
 
-        return browserInfo;
+    /**
+     * Get name_version_os of the configured browser
+     *
+     * @return the name, version and OS of the browser
+     */
+    public String getBrowserInfo() {
+        return getBrowser().getInfo();
     }
 
     /**
@@ -239,13 +601,7 @@ public class PropertiesManager {
      * @return the name of the browser
      */
     public String getBrowserName() {
-        String browser = getProperty(BROWSER);
-
-        // The browser name is the first part of the browser variable
-        // i.e. qa.browser = firefox C:\firefox.exe -> browserName = firefox
-        // i.e. qa.browser = firefox -> browserName = firefox
-        // i.e. qa.browser = firefox-4.0-on-windows_7 -> browserName = firefox
-        return browser.split(" ")[0].split("-")[0];
+        return getBrowser().getName();
     }
 
     /**
@@ -254,18 +610,7 @@ public class PropertiesManager {
      * @return the version of the browser or null if it is not specified
      */
     public String getBrowserVersion() {
-        String browser = getProperty(BROWSER);
-
-        // The browser version is the second part of the browser variable
-        // i.e. qa.browser = firefox C:\firefox.exe -> version = null
-        // i.e. qa.browser = firefox -> version = null
-        // i.e. qa.browser = firefox-4.0-on-windows_7 -> version = 4.0
-        String[] browserSplit = browser.split(" ")[0].split("-");
-        String version = null;
-        if (browserSplit.length > 1) {
-            version = browserSplit[1];
-        }
-        return version;
+        return getBrowser().getVersion();
     }
 
     /**
@@ -274,18 +619,7 @@ public class PropertiesManager {
      * @return the platform of the browser or null if it is not specified
      */
     public String getBrowserPlatform() {
-        String browser = getProperty(BROWSER);
-
-        // The browser platform is the fourth part of the browser variable
-        // i.e. qa.browser = firefox C:\firefox.exe -> platform = null
-        // i.e. qa.browser = firefox -> platform = null
-        // i.e. qa.browser = firefox-4.0-on-windows_7 -> platform = windows 7
-        String[] browserSplit = browser.split(" ")[0].split("-");
-        String platform = null;
-        if (browserSplit.length > 3) {
-            platform = browserSplit[3].replace("_", " ");
-        }
-        return platform;
+        return getBrowser().getPlatform();
     }
 
     /**
@@ -293,10 +627,8 @@ public class PropertiesManager {
      *
      * @return the composed url
      */
-    private String addAuthToUrl(String url) {
+    private String addAuthToUrl(String url, String username, String password) {
         // Adding username and password to the url
-        String username = getProperty(USERNAME);
-        String password = getProperty(PASSWORD);
         if (username != null && password != null && !username.equals("")
                 && !password.equals("")) {
             String[] urlSplit = url.split("http://");
@@ -0,0 +1,123 @@
+package main.java;
+
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the properties file and reloads it when it changes.
+ * <p/>
+ * The folder of the file is watched with a WatchService in a daemon thread,
+ * so the tests are not stopped while the file is parsed. The events are
+ * grouped (editors usually write the file in several steps) and then the
+ * PropertiesManager publishes the new configuration at once.
+ */
+public class PropertiesWatcher implements Runnable {
+    /**
+     * Class logger
+     */
+    protected static Log logger = LogFactory.getLog(PropertiesWatcher.class);
+
+    /**
+     * Time to wait for more events of the same change
+     */
+    private static final long SETTLE_TIME = 200;
+
+    private final PropertiesManager properties;
+    private final Path file;
+    private final WatchService watchService;
+
+    private PropertiesWatcher(PropertiesManager properties, Path file,
+                              WatchService watchService) {
+        this.properties = properties;
+        this.file = file;
+        this.watchService = watchService;
+    }
+
+    /**
+     * Starts watching a properties file
+     *
+     * @param properties the properties manager that will reload the file
+     * @param filePath   the file path
+     * @return the watcher or null if the file can not be watched
+     */
+    public static PropertiesWatcher start(PropertiesManager properties,
+                                          String filePath) {
+        Path file = new File(filePath).getAbsoluteFile().toPath();
+        try {
+            WatchService watchService = FileSystems.getDefault().newWatchService();
+            file.getParent().register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            PropertiesWatcher watcher = new PropertiesWatcher(properties,
+                    file, watchService);
+            Thread thread = new Thread(watcher, "properties-watcher");
+            thread.setDaemon(true);
+            thread.start();
+            logger.info("Watching properties file '" + file + "'");
+            return watcher;
+        } catch (IOException e) {
+            logger.error("Error watching properties file '" + file + "': "
+                    + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stops watching the file
+     */
+    public void stop() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.warn("Error closing the properties watcher: " + e);
+        }
+    }
+
+    public void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = pollEvents(key);
+                // Waits until the file is completely written
+                while (changed && (key = watchService.poll(SETTLE_TIME,
+                        TimeUnit.MILLISECONDS)) != null) {
+                    pollEvents(key);
+                }
+                if (changed && file.toFile().isFile()) {
+                    properties.reloadProperties();
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            logger.debug("Properties watcher stopped");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return true if there are events of the properties file
+     */
+    private boolean pollEvents(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || file.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+}
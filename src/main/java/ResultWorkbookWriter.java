@@ -0,0 +1,251 @@
+package main.java;
+
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.TreeMap;
+
+
+/**
+ * Writes a copy of the data sheet with the result of each row.
+ * <p/>
+ * The rows of the data file are copied to a xlsx workbook with three more
+ * columns: status (PASS or FAIL), duration in milliseconds and error
+ * message, the cells keep the type of the data file. The workbook is
+ * written with SXSSF: the rows are copied as their
+ * results arrive (in row order, the results of parallel rows are kept until
+ * the previous rows finish) and they are flushed to disk at once, so the
+ * sheet is never in memory. The rows of other shards are copied without
+ * result. The workbook is saved in the qa.results.path folder as
+ * [data file name]-results.xlsx (with the browser before -results in the
+ * browser matrix) when the execution finishes.
+ */
+public class ResultWorkbookWriter implements RowResultListener {
+    /**
+     * Class logger
+     */
+    protected static Log logger = LogFactory.getLog(ResultWorkbookWriter.class);
+
+    /**
+     * Rows kept in memory by SXSSF
+     */
+    private static final int WINDOW_SIZE = 100;
+
+    private final File output;
+    private final RowShard shard;
+    private final RowIterator source;
+    private final SXSSFWorkbook workbook = new SXSSFWorkbook(WINDOW_SIZE);
+    private final Sheet sheet = workbook.createSheet("Results");
+    private final TreeMap<Integer, Result> pending = new TreeMap<Integer, Result>();
+    private int resultColumn;
+    private ArrayList<String> firstDataRow = null;
+    private int nextRow = 1;
+    private int sheetRow = 0;
+    private boolean closed = false;
+
+    private ResultWorkbookWriter(File output, RowIterator source,
+                                 boolean header, RowShard shard) {
+        this.output = output;
+        this.source = source;
+        this.shard = shard;
+
+        ArrayList<String> firstRow = source.hasNext() ? source.next()
+                : new ArrayList<String>();
+        resultColumn = firstRow.size();
+        if (header) {
+            Row row = copyRow(firstRow);
+            row.createCell(resultColumn).setCellValue("Status");
+            row.createCell(resultColumn + 1).setCellValue("Duration (ms)");
+            row.createCell(resultColumn + 2).setCellValue("Error");
+        } else {
+            firstDataRow = firstRow;
+        }
+    }
+
+    /**
+     * Creates the result workbook of a data file if the qa.results.path
+     * property is set
+     *
+     * @param filePath
+     * @param sheetNumber [excel] the sheet number
+     * @param header      true if the first row is the header and has no data
+     * @param separator   [csv] the delimiter to use for separating entries
+     * @param quotechar   [csv] the character to use for quoted elements
+     * @param shard       the rows that will have results
+     * @return the writer or null if it is not enabled or the file can not
+     * be read
+     */
+    public static ResultWorkbookWriter open(String filePath, int sheetNumber,
+                                            boolean header, char separator, char quotechar, RowShard shard) {
+        PropertiesManager properties = BasicTestCase.getProperties();
+        String path = properties.getProperty(properties.RESULTS_PATH);
+        if (path.isEmpty()) {
+            return null;
+        }
+        File folder = new File(path);
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            logger.error("Error creating the results folder '" + path + "'");
+            return null;
+        }
+        String name = new File(filePath).getName();
+        if (name.lastIndexOf('.') > 0) {
+            name = name.substring(0, name.lastIndexOf('.'));
+        }
+
+        // The source is read again with all the columns and the header
+        DataSource dataSource = excelUtils.getDataSource(filePath, sheetNumber,
+                false, separator, quotechar);
+        RowIterator source = (dataSource == null) ? null : dataSource.open();
+        if (source == null) {
+            return null;
+        }
+        return new ResultWorkbookWriter(new File(folder, name
+                + BrowserMatrix.getResultSuffix() + "-results.xlsx"), source,
+                header, shard);
+    }
+
+    /**
+     * @return the result workbook
+     */
+    public File getOutput() {
+        return output;
+    }
+
+    public synchronized void rowExecuted(int rowNumber,
+                                         ArrayList<String> rowData, String error, long duration) {
+        if (closed) {
+            return;
+        }
+        pending.put(rowNumber, new Result(error, duration));
+        writeFinishedRows(false);
+    }
+
+    /**
+     * Copies the rest of the rows and saves the workbook
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        writeFinishedRows(true);
+        closed = true;
+        source.close();
+
+        File temp = new File(output.getPath() + ".tmp");
+        try {
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                workbook.write(out);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(output)) {
+                output.delete();
+                if (!temp.renameTo(output)) {
+                    throw new IOException("the file can not be renamed");
+                }
+            }
+            logger.info("Results saved in '" + output + "'");
+        } catch (IOException e) {
+            logger.error("Error saving the results workbook '" + output
+                    + "': " + e);
+        } finally {
+            workbook.dispose();
+        }
+    }
+
+    /**
+     * Copies the rows whose result has arrived, in order
+     *
+     * @param all true to copy all the remaining rows
+     */
+    private void writeFinishedRows(boolean all) {
+        boolean written = false;
+        while (true) {
+            Result result = pending.remove(nextRow);
+            if (result == null && !all && shard.contains(nextRow)) {
+                // Still running
+                break;
+            }
+            ArrayList<String> rowData = nextSourceRow();
+            if (rowData == null) {
+                break;
+            }
+            Row row = copyRow(rowData);
+            if (result != null) {
+                row.createCell(resultColumn).setCellValue(
+                        result.error == null ? "PASS" : "FAIL");
+                row.createCell(resultColumn + 1).setCellValue(result.duration);
+                if (result.error != null) {
+                    row.createCell(resultColumn + 2).setCellValue(result.error);
+                }
+            }
+            nextRow++;
+            written = true;
+        }
+
+        if (written) {
+            try {
+                ((SXSSFSheet) sheet).flushRows();
+            } catch (IOException e) {
+                logger.warn("Error flushing the results workbook: " + e);
+            }
+        }
+    }
+
+    private ArrayList<String> nextSourceRow() {
+        if (firstDataRow != null) {
+            ArrayList<String> rowData = firstDataRow;
+            firstDataRow = null;
+            return rowData;
+        }
+        return source.hasNext() ? source.next() : null;
+    }
+
+    /**
+     * Copies the values of a row, the values of the columns wider than the
+     * first row are placed after the result columns. The numeric cells of
+     * the excel files are copied as numbers, the rest of the values (all
+     * the csv values) as text
+     */
+    private Row copyRow(ArrayList<String> rowData) {
+        Row row = sheet.createRow(sheetRow++);
+        for (int c = 0; c < rowData.size(); c++) {
+            String value = rowData.get(c);
+            if (value == null || value.isEmpty()) {
+                continue;
+            }
+            Cell cell = row.createCell(c < resultColumn ? c : c + 3);
+            if (rowData instanceof DataRow && ((DataRow) rowData).isNumber(c)) {
+                cell.setCellValue(Double.parseDouble(value));
+            } else {
+                cell.setCellValue(value);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Result of a row
+     */
+    private static class Result {
+        private final String error;
+        private final long duration;
+
+        Result(String error, long duration) {
+            this.error = error;
+            this.duration = duration;
+        }
+    }
+}
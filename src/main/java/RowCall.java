@@ -0,0 +1,138 @@
+package main.java;
+
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+
+
+/**
+ * Invokes the data driven test method of a test object with the rows of a
+ * data file.
+ * <p/>
+ * The invoker and the parameters array are reused while the rows have the
+ * same number of values. It is not thread safe, each thread needs its own
+ * RowCall.
+ */
+class RowCall {
+    /**
+     * Class logger
+     */
+    protected static Log logger = LogFactory.getLog(RowCall.class);
+
+    /**
+     * Start of the error messages of the rows
+     */
+    private static final String ROW_ERROR = "Error in row ";
+
+    private final BasicTestCase testClass;
+    private final String methodName;
+    private RowInvoker invoker = null;
+    private Object[] params = null;
+    private boolean aborted = false;
+    private long lastDuration = 0;
+
+    RowCall(BasicTestCase testClass, String methodName) {
+        this.testClass = testClass;
+        this.methodName = methodName;
+    }
+
+    /**
+     * @return true if the method can not be invoked and the execution must
+     * stop
+     */
+    boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * @return the execution time of the last row in milliseconds
+     */
+    long getLastDuration() {
+        return lastDuration;
+    }
+
+    /**
+     * Invokes the test method with the values of a row
+     *
+     * @param rowData   the row values
+     * @param rowNumber the row number used in the error messages
+     * @return the error message or null if the row has passed
+     */
+    String execute(ArrayList<String> rowData, int rowNumber) {
+        long start = System.nanoTime();
+        try {
+            return invoke(rowData, rowNumber);
+        } finally {
+            lastDuration = (System.nanoTime() - start) / 1000000;
+        }
+    }
+
+    private String invoke(ArrayList<String> rowData, int rowNumber) {
+        int paramsSize = rowData.size();
+        if (invoker == null || invoker.getArity() != paramsSize) {
+            try {
+                invoker = RowInvoker.getInvoker(testClass.getClass(),
+                        methodName, paramsSize);
+            } catch (SecurityException e) {
+                return abort("Security error searching the method '"
+                        + methodName + "'", e);
+            } catch (NoSuchMethodException e) {
+                return abort("The method name (" + methodName
+                        + ") or the number of paramaters (" + paramsSize
+                        + ") are wrong", e);
+            } catch (IllegalAccessException e) {
+                return abort("Illegal access invoking the method '"
+                        + methodName + "'", e);
+            }
+            params = new Object[paramsSize];
+        }
+
+        try {
+            invoker.bind(rowData, params);
+            invoker.invoke(testClass, params);
+        } catch (IllegalArgumentException e) {
+            String errorMessage = ROW_ERROR + rowNumber
+                    + ": wrong value, " + e.getMessage();
+            logger.warn(errorMessage);
+            return errorMessage;
+        } catch (InvocationTargetException e) {
+            // Saving the original exception
+            Throwable cause = e.getCause();
+            String errorMessage =
+                    ROW_ERROR + rowNumber + ": " + cause.getMessage();
+            logger.warn(errorMessage);
+            if (testClass instanceof HtmlTestCase) {
+                ((HtmlTestCase) testClass).captureAndSaveErrorScreenshot();
+            }
+            return errorMessage;
+        }
+        return null;
+    }
+
+    /**
+     * Adds the total number of rows to the row error messages, which is
+     * only known when the whole file has been read: "Error in row N of T"
+     *
+     * @param errors the error messages
+     * @param total  the number of rows of the file
+     */
+    static void addRowTotal(ArrayList<String> errors, int total) {
+        for (int i = 0; i < errors.size(); i++) {
+            String error = errors.get(i);
+            int end = error.indexOf(':');
+            if (error.startsWith(ROW_ERROR) && end > ROW_ERROR.length()) {
+                errors.set(i, error.substring(0, end) + " of " + total
+                        + error.substring(end));
+            }
+        }
+    }
+
+    private String abort(String errorMessage, Exception e) {
+        logger.error(errorMessage + ": " + e.getMessage());
+        aborted = true;
+        return errorMessage;
+    }
+}
@@ -0,0 +1,21 @@
+package main.java;
+
+
+import java.util.ArrayList;
+
+/**
+ * Receives the rows of a data file one at a time while it is being read.
+ * <p/>
+ * Used by the streaming readers, so the whole file never needs to be kept in
+ * memory.
+ */
+public interface RowHandler {
+
+    /**
+     * Handles the next row of the file
+     *
+     * @param rowData the cell values of the row
+     * @return true to continue reading, false to stop
+     */
+    boolean handleRow(ArrayList<String> rowData);
+}
@@ -0,0 +1,252 @@
+package main.java;
+
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Invokes a data driven test method with the values of a row.
+ * <p/>
+ * The method is searched only once for each test class, method name and
+ * number of parameters, and it is invoked through a cached MethodHandle
+ * instead of the reflection API. The parameters can be String or any type
+ * supported by ParamConverters; the converters are also resolved once. If
+ * there are several methods, the one with only String parameters is used.
+ */
+public class RowInvoker {
+
+    /**
+     * Invokers already resolved
+     */
+    private static final ConcurrentMap<Key, RowInvoker> invokers =
+            new ConcurrentHashMap<Key, RowInvoker>();
+
+    /**
+     * Type of the spread handle: (target, parameters) -> void
+     */
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(
+            void.class, Object.class, Object[].class);
+
+    private final MethodHandle handle;
+    private final int arity;
+    private final ParamConverter[] converters;
+
+    private RowInvoker(MethodHandle handle, ParamConverter[] converters) {
+        this.handle = handle;
+        this.arity = converters.length;
+        this.converters = converters;
+    }
+
+    /**
+     * Returns the invoker of a test method
+     *
+     * @param testClass  the class of the test
+     * @param methodName the name of the test method
+     * @param arity      the number of parameters
+     * @return the cached invoker
+     * @throws NoSuchMethodException if the method does not exist
+     * @throws IllegalAccessException if the method is not accessible
+     */
+    public static RowInvoker getInvoker(Class<?> testClass, String methodName,
+                                        int arity) throws NoSuchMethodException, IllegalAccessException {
+        Key key = new Key(testClass, methodName, arity);
+        RowInvoker invoker = invokers.get(key);
+        if (invoker == null) {
+            Method method = findMethod(testClass, methodName, arity);
+            MethodHandle handle = MethodHandles.lookup().unreflect(method)
+                    .asSpreader(Object[].class, arity).asType(INVOKER_TYPE);
+            invoker = new RowInvoker(handle,
+                    getConverters(method.getParameterTypes()));
+            invokers.putIfAbsent(key, invoker);
+        }
+        return invoker;
+    }
+
+    /**
+     * Returns the column names of a test method whose parameters are all
+     * annotated with DataColumn
+     *
+     * @param testClass  the class of the test
+     * @param methodName the name of the test method
+     * @return the names in the order of the parameters or null if there is
+     * no such method
+     */
+    public static String[] getColumnNames(Class<?> testClass, String methodName) {
+        for (Method method : testClass.getMethods()) {
+            if (!method.getName().equals(methodName)
+                    || method.getParameterTypes().length == 0) {
+                continue;
+            }
+            Annotation[][] annotations = method.getParameterAnnotations();
+            String[] names = new String[annotations.length];
+            for (int i = 0; i < annotations.length; i++) {
+                for (Annotation annotation : annotations[i]) {
+                    if (annotation instanceof DataColumn) {
+                        names[i] = ((DataColumn) annotation).value();
+                    }
+                }
+                if (names[i] == null) {
+                    names = null;
+                    break;
+                }
+            }
+            if (names != null) {
+                return names;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Searches the public method, first with String parameters and then with
+     * any supported parameter types
+     */
+    private static Method findMethod(Class<?> testClass, String methodName,
+                                     int arity) throws NoSuchMethodException {
+        Class<?>[] paramTypes = new Class<?>[arity];
+        for (int i = 0; i < arity; i++) {
+            paramTypes[i] = String.class;
+        }
+        try {
+            return testClass.getMethod(methodName, paramTypes);
+        } catch (NoSuchMethodException e) {
+            // Searching a method with typed parameters
+        }
+
+        Method found = null;
+        for (Method method : testClass.getMethods()) {
+            if (method.getName().equals(methodName)
+                    && method.getParameterTypes().length == arity
+                    && getConverters(method.getParameterTypes()) != null) {
+                if (found != null) {
+                    throw new NoSuchMethodException("There are several "
+                            + methodName + " methods with " + arity
+                            + " parameters");
+                }
+                found = method;
+            }
+        }
+        if (found == null) {
+            throw new NoSuchMethodException(testClass.getName() + "."
+                    + methodName + " with " + arity + " supported parameters");
+        }
+        return found;
+    }
+
+    /**
+     * @return the converters of the parameters or null if a type is not
+     * supported
+     */
+    private static ParamConverter[] getConverters(Class<?>[] paramTypes) {
+        ParamConverter[] converters = new ParamConverter[paramTypes.length];
+        for (int i = 0; i < paramTypes.length; i++) {
+            converters[i] = ParamConverters.get(paramTypes[i]);
+            if (converters[i] == null) {
+                return null;
+            }
+            if (paramTypes[i].isPrimitive()) {
+                converters[i] = new PrimitiveConverter(converters[i],
+                        paramTypes[i]);
+            }
+        }
+        return converters;
+    }
+
+    /**
+     * @return the number of parameters of the method
+     */
+    public int getArity() {
+        return arity;
+    }
+
+    /**
+     * Converts the values of a row to the parameter types
+     *
+     * @param rowData the row values, as many as the parameters
+     * @param params  the array that receives the parameters, it can be reused
+     * @throws IllegalArgumentException if a value can not be converted
+     */
+    public void bind(List<String> rowData, Object[] params) {
+        for (int i = 0; i < arity; i++) {
+            String value = rowData.get(i);
+            params[i] = converters[i].convert(value == null ? "" : value);
+        }
+    }
+
+    /**
+     * Invokes the test method
+     *
+     * @param target the test object
+     * @param params the method parameters, the array can be reused
+     * @throws InvocationTargetException with the error thrown by the test
+     */
+    public void invoke(Object target, Object[] params)
+            throws InvocationTargetException {
+        try {
+            handle.invokeExact(target, params);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    /**
+     * Rejects the empty values of primitive parameters
+     */
+    private static final class PrimitiveConverter implements ParamConverter {
+        private final ParamConverter converter;
+        private final Class<?> type;
+
+        PrimitiveConverter(ParamConverter converter, Class<?> type) {
+            this.converter = converter;
+            this.type = type;
+        }
+
+        public Object convert(String value) {
+            Object converted = converter.convert(value);
+            if (converted == null) {
+                throw new IllegalArgumentException("Empty value for the "
+                        + type.getName() + " parameter");
+            }
+            return converted;
+        }
+    }
+
+    /**
+     * Cache key: test class, method name and number of parameters
+     */
+    private static final class Key {
+        private final Class<?> testClass;
+        private final String methodName;
+        private final int arity;
+
+        Key(Class<?> testClass, String methodName, int arity) {
+            this.testClass = testClass;
+            this.methodName = methodName;
+            this.arity = arity;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return testClass == other.testClass && arity == other.arity
+                    && methodName.equals(other.methodName);
+        }
+
+        @Override
+        public int hashCode() {
+            return (testClass.hashCode() * 31 + methodName.hashCode()) * 31
+                    + arity;
+        }
+    }
+}
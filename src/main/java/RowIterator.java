@@ -0,0 +1,29 @@
+package main.java;
+
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Pull-based iterator over the rows of a data file.
+ * <p/>
+ * The rows are read while they are requested, so a row can be processed
+ * while the rest of the file has not been parsed yet. The iterator must be
+ * closed to release the file.
+ */
+public interface RowIterator extends Iterator<ArrayList<String>>, Closeable {
+
+    /**
+     * Reading errors end the iteration, this method tells if the last row
+     * has been reached or the file could not be read
+     *
+     * @return the reading error message or null if there are no errors
+     */
+    String getError();
+
+    /**
+     * Releases the file, the iterator can not be used anymore
+     */
+    void close();
+}
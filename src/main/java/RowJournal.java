@@ -0,0 +1,225 @@
+package main.java;
+
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.BitSet;
+
+
+/**
+ * Append-only journal with the result of the rows of a data driven test, so
+ * an interrupted execution can be resumed.
+ * <p/>
+ * The journal is identified by the test class, the method name and a hash of
+ * the data file content and the reading parameters, so it is not used if the
+ * file changes. Each row adds a 4 bytes record: the row number, negative if
+ * the row has failed. When the test is executed again, the rows that have
+ * already passed are skipped. The journal is deleted when all the rows have
+ * passed. It is enabled with the qa.journal.enabled property and saved in
+ * qa.journal.path.
+ */
+public class RowJournal {
+    /**
+     * Class logger
+     */
+    protected static Log logger = LogFactory.getLog(RowJournal.class);
+
+    private static final String DEFAULT_PATH = "target/journal/";
+
+    private final File file;
+    private final BitSet passed = new BitSet();
+    private OutputStream out;
+    private final byte[] record = new byte[4];
+
+    private RowJournal(File file) throws IOException {
+        this.file = file;
+        if (file.isFile()) {
+            load();
+        }
+        out = new FileOutputStream(file, true);
+    }
+
+    /**
+     * @return true if the journal is enabled with the qa.journal.enabled
+     * property
+     */
+    public static boolean isEnabled() {
+        PropertiesManager properties = BasicTestCase.getProperties();
+        return properties.getBooleanProperty(properties.JOURNAL_ENABLED);
+    }
+
+    /**
+     * Opens the journal of a test and a data file, creating it if it does not
+     * exist
+     *
+     * @param testClass
+     * @param methodName
+     * @param filePath
+     * @param sheetNumber [excel] the sheet number
+     * @param header      true if the first row is the header and has no data
+     * @param separator   [csv] the delimiter to use for separating entries
+     * @param quotechar   [csv] the character to use for quoted elements
+     * @param shard       the rows executed, each shard has its own journal
+     * @return the journal or null if it can not be opened
+     */
+    public static RowJournal open(BasicTestCase testClass, String methodName,
+                                  String filePath, int sheetNumber, boolean header, char separator,
+                                  char quotechar, RowShard shard) {
+        PropertiesManager properties = BasicTestCase.getProperties();
+        String path = properties.getProperty(properties.JOURNAL_PATH);
+        File folder = new File(path.isEmpty() ? DEFAULT_PATH : path);
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            logger.error("Error creating the journal folder '" + folder + "'");
+            return null;
+        }
+
+        try {
+            String shardSuffix = (shard == RowShard.ALL) ? ""
+                    : ".shard-" + shard.getIndex() + "-of-" + shard.getCount();
+            String hash = hash(filePath, testClass.getClass().getName() + "|"
+                    + methodName + "|" + sheetNumber + "|" + header + "|"
+                    + separator + "|" + quotechar + shardSuffix);
+            File file = new File(folder, testClass.getClass().getSimpleName()
+                    + "." + methodName + BrowserMatrix.getResultSuffix()
+                    + shardSuffix + "-" + hash + ".journal");
+            RowJournal journal = new RowJournal(file);
+            if (journal.passed.cardinality() > 0) {
+                logger.info("Resuming the data driven test from '" + file
+                        + "': " + journal.passed.cardinality()
+                        + " rows already passed");
+            }
+            return journal;
+        } catch (Exception e) {
+            logger.error("Error opening the journal of '" + filePath + "': "
+                    + e);
+            return null;
+        }
+    }
+
+    /**
+     * @param rowNumber the row number, starting with 1
+     * @return true if the row passed in a previous execution
+     */
+    public synchronized boolean hasPassed(int rowNumber) {
+        return passed.get(rowNumber);
+    }
+
+    /**
+     * Adds the result of a row to the journal
+     *
+     * @param rowNumber the row number, starting with 1
+     * @param error     the error message or null if the row has passed
+     */
+    public synchronized void rowExecuted(int rowNumber, String error) {
+        if (out == null) {
+            return;
+        }
+        int value = (error == null) ? rowNumber : -rowNumber;
+        record[0] = (byte) (value >>> 24);
+        record[1] = (byte) (value >>> 16);
+        record[2] = (byte) (value >>> 8);
+        record[3] = (byte) value;
+        try {
+            // Not buffered, the record is in the file if the JVM dies
+            out.write(record);
+        } catch (IOException e) {
+            logger.error("Error writing the journal '" + file + "': " + e);
+        }
+        if (error == null) {
+            passed.set(rowNumber);
+        } else {
+            passed.clear(rowNumber);
+        }
+    }
+
+    /**
+     * Closes the journal
+     *
+     * @param completed true if all the rows have passed, the journal is
+     *                  deleted
+     */
+    public synchronized void close(boolean completed) {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.warn("Error closing the journal '" + file + "': "
+                        + e.getMessage());
+            }
+            out = null;
+        }
+        if (completed && !file.delete()) {
+            logger.warn("Error deleting the journal '" + file + "'");
+        }
+    }
+
+    /**
+     * Reads the records of a previous execution. A record cut by a crash is
+     * removed, so the new records are aligned
+     */
+    private void load() throws IOException {
+        long length = file.length();
+        if (length % 4 != 0) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(length - length % 4);
+            } finally {
+                raf.close();
+            }
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)));
+        try {
+            while (true) {
+                int value = in.readInt();
+                if (value > 0) {
+                    passed.set(value);
+                } else {
+                    passed.clear(-value);
+                }
+            }
+        } catch (EOFException e) {
+            // End of the journal
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the SHA-1 of the file content and the parameters, 16 hex chars
+     */
+    private static String hash(String filePath, String parameters)
+            throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        InputStream in = new FileInputStream(filePath);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        digest.update(parameters.getBytes("UTF-8"));
+        StringBuilder hex = new StringBuilder();
+        byte[] bytes = digest.digest();
+        for (int i = 0; i < 8; i++) {
+            hex.append(String.format("%02x", bytes[i]));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,25 @@
+package main.java;
+
+
+import java.util.ArrayList;
+
+/**
+ * Receives the result of each row of a data driven test.
+ * <p/>
+ * In parallel executions it is called from several threads and the rows are
+ * not received in order, so the implementations must be thread safe.
+ */
+public interface RowResultListener {
+
+    /**
+     * Called after a row has been executed
+     *
+     * @param rowNumber the row number in the file, starting with 1
+     * @param rowData   the row values
+     * @param error     the error message or null if the row has passed
+     * @param duration  the execution time of the row in milliseconds, 0 if
+     *                  it passed in a previous execution
+     */
+    void rowExecuted(int rowNumber, ArrayList<String> rowData, String error,
+                     long duration);
+}
@@ -0,0 +1,39 @@
+package main.java;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends the results of the rows to several listeners.
+ */
+public class RowResultListeners implements RowResultListener {
+
+    private final List<RowResultListener> listeners =
+            new ArrayList<RowResultListener>();
+
+    /**
+     * @param listeners the listeners, the null ones are ignored
+     */
+    public RowResultListeners(RowResultListener... listeners) {
+        for (RowResultListener listener : listeners) {
+            if (listener != null) {
+                this.listeners.add(listener);
+            }
+        }
+    }
+
+    /**
+     * @return true if there are no listeners
+     */
+    public boolean isEmpty() {
+        return listeners.isEmpty();
+    }
+
+    public void rowExecuted(int rowNumber, ArrayList<String> rowData,
+                            String error, long duration) {
+        for (RowResultListener listener : listeners) {
+            listener.rowExecuted(rowNumber, rowData, error, duration);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package main.java;
+
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * Subset of the rows of a data driven test executed in a node.
+ * <p/>
+ * The rows are assigned round-robin by their number in the file: the shard
+ * index of n shards runs the rows whose (number - 1) % n is the index. The
+ * subsets of the shards are disjoint, cover the whole file and they are the
+ * same in every node while the file does not change.
+ */
+public class RowShard {
+    /**
+     * Class logger
+     */
+    protected static Log logger = LogFactory.getLog(RowShard.class);
+
+    /**
+     * The shard with all the rows
+     */
+    public static final RowShard ALL = new RowShard(0, 1);
+
+    private final int index;
+    private final int count;
+
+    /**
+     * @param index the shard of this node, from 0 to count - 1
+     * @param count the number of shards
+     * @throws IllegalArgumentException if the values are not valid
+     */
+    public RowShard(int index, int count) {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Wrong shard " + index
+                    + " of " + count);
+        }
+        this.index = index;
+        this.count = count;
+    }
+
+    /**
+     * Reads the shard from the qa.shard.index and qa.shard.count properties
+     *
+     * @return the configured shard, ALL if it is not configured or null if
+     * the values are not valid
+     */
+    public static RowShard fromProperties() {
+        PropertiesManager properties = BasicTestCase.getProperties();
+        String index = properties.getProperty(properties.SHARD_INDEX);
+        String count = properties.getProperty(properties.SHARD_COUNT);
+        if (count.isEmpty()) {
+            return ALL;
+        }
+        try {
+            return new RowShard(index.isEmpty() ? 0 : Integer.parseInt(index),
+                    Integer.parseInt(count));
+        } catch (IllegalArgumentException e) {
+            logger.error("Wrong shard configuration, index '" + index
+                    + "' and count '" + count + "'");
+            return null;
+        }
+    }
+
+    /**
+     * @param rowNumber the row number, starting with 1
+     * @return true if the row belongs to this shard
+     */
+    public boolean contains(int rowNumber) {
+        return (rowNumber - 1) % count == index;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "shard " + index + " of " + count;
+    }
+}
@@ -0,0 +1,290 @@
+package main.java;
+
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Saves the screenshots in a background thread.
+ * <p/>
+ * The tests capture the screenshots in memory and add them to a bounded
+ * queue without waiting: if the queue is full the screenshot is dropped
+ * and counted. The error screenshots wait a few seconds for a free place
+ * before being dropped. The writer thread encodes the screenshots (the PNG
+ * bytes of the driver are written as captured, or re-compressed as JPEG if
+ * qa.screenshots.format is jpg), creates the folders and writes the files.
+ * The pending screenshots are saved before the JVM exits.
+ */
+public class ScreenshotWriter {
+    /**
+     * Class logger
+     */
+    protected static Log logger = LogFactory.getLog(ScreenshotWriter.class);
+
+    /**
+     * Default capacity of the queue
+     */
+    private static final int DEFAULT_QUEUE_SIZE = 100;
+
+    /**
+     * Maximum time to wait for the pending screenshots, in seconds
+     */
+    private static final long FLUSH_TIMEOUT = 30;
+
+    /**
+     * Time to wait for a free place in the queue for an error screenshot,
+     * in seconds
+     */
+    private static final long ERROR_QUEUE_TIMEOUT = 5;
+
+    /**
+     * Writer of the screenshots configured in the properties
+     */
+    private static ScreenshotWriter defaultWriter;
+
+    private final String format;
+    private final BackgroundQueue<Screenshot> queue;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * @param format    the image format of the files: png or jpg
+     * @param queueSize the maximum number of screenshots waiting to be saved
+     */
+    public ScreenshotWriter(String format, int queueSize) {
+        this.format = format;
+        this.queue = new BackgroundQueue<Screenshot>("screenshot-writer",
+                "screenshots", queueSize, 1) {
+            @Override
+            protected void process(List<Screenshot> batch) {
+                for (Screenshot screenshot : batch) {
+                    saveAndCount(screenshot);
+                }
+            }
+        };
+        queue.start();
+    }
+
+    /**
+     * Returns the writer configured in the properties, it is created the
+     * first time and the pending screenshots are saved when the JVM exits
+     *
+     * @return the writer
+     */
+    public static synchronized ScreenshotWriter getDefault() {
+        if (defaultWriter == null) {
+            PropertiesManager properties = BasicTestCase.getProperties();
+            ConfigSnapshot config = properties.getSnapshot();
+            String format = config.getString(properties.SCREENSHOTS_FORMAT)
+                    .toLowerCase();
+            if (format.equals("jpeg")) {
+                format = "jpg";
+            } else if (!format.equals("jpg")) {
+                format = "png";
+            }
+            defaultWriter = new ScreenshotWriter(format, config.getInt(
+                    properties.SCREENSHOTS_QUEUESIZE, DEFAULT_QUEUE_SIZE));
+            final ScreenshotWriter screenshotWriter = defaultWriter;
+            Runtime.getRuntime().addShutdownHook(new Thread(
+                    "screenshot-flush") {
+                @Override
+                public void run() {
+                    screenshotWriter.close();
+                }
+            });
+        }
+        return defaultWriter;
+    }
+
+    /**
+     * Adds a PNG screenshot to the queue, it is dropped if the queue is full
+     * (after waiting a few seconds if it is an error screenshot)
+     *
+     * @param png      the PNG image
+     * @param basePath the file path without extension
+     * @param error    true if it is an error screenshot, it is logged as a
+     *                 warning
+     * @return the file path or null if the screenshot has been dropped
+     */
+    public String write(byte[] png, String basePath, boolean error) {
+        return enqueue(png, null, basePath, error);
+    }
+
+    /**
+     * Adds a captured image to the queue, it is encoded by the writer thread
+     * and it is dropped if the queue is full (after waiting a few seconds if
+     * it is an error screenshot)
+     *
+     * @param image    the image
+     * @param basePath the file path without extension
+     * @param error    true if it is an error screenshot, it is logged as a
+     *                 warning
+     * @return the file path or null if the screenshot has been dropped
+     */
+    public String write(BufferedImage image, String basePath, boolean error) {
+        return enqueue(null, image, basePath, error);
+    }
+
+    private String enqueue(byte[] png, BufferedImage image, String basePath,
+                           boolean error) {
+        String path = basePath + "." + format;
+        if (queue.isClosed()) {
+            logger.error("Couldn't save the screenshot " + path
+                    + ": the screenshot writer is closed");
+            return null;
+        }
+        // The error screenshots are worth waiting for
+        if (queue.offer(new Screenshot(png, image, path, error),
+                error ? ERROR_QUEUE_TIMEOUT : 0, TimeUnit.SECONDS)) {
+            return path;
+        }
+        dropped.incrementAndGet();
+        logger.warn("Screenshot " + path + " dropped: the screenshot queue is "
+                + "full");
+        return null;
+    }
+
+    /**
+     * Waits until the queued screenshots have been saved
+     *
+     * @return true if all the screenshots have been saved before the timeout
+     */
+    public boolean flush() {
+        return queue.flush(FLUSH_TIMEOUT);
+    }
+
+    /**
+     * Saves the pending screenshots and stops the writer
+     */
+    public void close() {
+        queue.close(FLUSH_TIMEOUT);
+    }
+
+    /**
+     * @return the number of screenshots waiting in the queue
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of screenshots dropped because the queue was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of screenshots saved
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return the number of screenshots that could not be saved
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Saves a screenshot and counts it, the errors are logged
+     */
+    private void saveAndCount(Screenshot screenshot) {
+        try {
+            save(screenshot);
+            written.incrementAndGet();
+            if (screenshot.error) {
+                logger.warn("Saved screenshot " + screenshot.path);
+            } else {
+                logger.debug("Saved screenshot " + screenshot.path);
+            }
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            logger.error("Couldn't save the screenshot " + screenshot.path
+                    + ": " + e.getMessage());
+        } catch (RuntimeException e) {
+            // The writer continues with the next screenshots
+            failed.incrementAndGet();
+            logger.error("Couldn't save the screenshot " + screenshot.path
+                    + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Encodes and writes a screenshot
+     */
+    private void save(Screenshot screenshot) throws IOException {
+        File file = new File(screenshot.path);
+        File folder = file.getAbsoluteFile().getParentFile();
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Error creating folder: " + folder);
+        }
+        if (format.equals("png") && screenshot.png != null) {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(screenshot.png);
+            } finally {
+                out.close();
+            }
+            return;
+        }
+
+        BufferedImage image = screenshot.image;
+        if (image == null) {
+            image = ImageIO.read(new ByteArrayInputStream(screenshot.png));
+            if (image == null) {
+                throw new IOException("The screenshot is not a PNG image");
+            }
+        }
+        if (format.equals("jpg")) {
+            // Re-compressing the screenshot, JPEG does not have transparency
+            BufferedImage rgb = new BufferedImage(image.getWidth(),
+                    image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = rgb.createGraphics();
+            try {
+                graphics.drawImage(image, 0, 0, Color.WHITE, null);
+            } finally {
+                graphics.dispose();
+            }
+            image = rgb;
+        }
+        if (!ImageIO.write(image, format, file)) {
+            throw new IOException("There is no " + format + " writer");
+        }
+    }
+
+    /**
+     * Screenshot waiting to be saved
+     */
+    private static class Screenshot {
+        private final byte[] png;
+        private final BufferedImage image;
+        private final String path;
+        private final boolean error;
+
+        Screenshot(byte[] png, BufferedImage image, String path,
+                   boolean error) {
+            this.png = png;
+            this.image = image;
+            this.path = path;
+            this.error = error;
+        }
+    }
+}
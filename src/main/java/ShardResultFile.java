@@ -0,0 +1,178 @@
+package main.java;
+
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * Csv file with the results of the rows executed by a shard.
+ * <p/>
+ * Each shard writes the file [test name].shard-[index]-of-[count].csv in the
+ * qa.shard.resultpath folder, with the columns row, status (PASS or FAIL)
+ * and message, written with the default charset as the data files are read.
+ * The files of all the shards can be merged afterwards in row order with
+ * merge.
+ */
+public class ShardResultFile implements RowResultListener {
+    /**
+     * Class logger
+     */
+    protected static Log logger = LogFactory.getLog(ShardResultFile.class);
+
+    private static final String HEADER = "row,status,message";
+
+    private final File file;
+    private Writer writer;
+
+    private ShardResultFile(File file) throws IOException {
+        this.file = file;
+        writer = new BufferedWriter(new FileWriter(file));
+        writer.write(HEADER + "\n");
+    }
+
+    /**
+     * Creates the result file of a test in the qa.shard.resultpath folder
+     *
+     * @param testName the name of the test, i.e. class.method
+     * @param shard    the shard of this node
+     * @return the result file or null if the folder is not configured or the
+     * file can not be created
+     */
+    public static ShardResultFile open(String testName, RowShard shard) {
+        PropertiesManager properties = BasicTestCase.getProperties();
+        String path = properties.getProperty(properties.SHARD_RESULTPATH);
+        if (path.isEmpty()) {
+            return null;
+        }
+        File folder = new File(path);
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            logger.error("Error creating the shard results folder '" + path
+                    + "'");
+            return null;
+        }
+        File file = new File(folder, testName + ".shard-" + shard.getIndex()
+                + "-of-" + shard.getCount() + ".csv");
+        try {
+            return new ShardResultFile(file);
+        } catch (IOException e) {
+            logger.error("Error creating the shard results file '" + file
+                    + "': " + e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the result file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public synchronized void rowExecuted(int rowNumber,
+                                         ArrayList<String> rowData, String error, long duration) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.write(rowNumber + "," + (error == null ? "PASS" : "FAIL")
+                    + "," + quote(error == null ? "" : error) + "\n");
+            // The rows are slow, saving each one keeps the results of an
+            // interrupted execution
+            writer.flush();
+        } catch (IOException e) {
+            logger.error("Error writing the shard results file '" + file
+                    + "': " + e);
+        }
+    }
+
+    /**
+     * Closes the file
+     */
+    public synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                logger.warn("Error closing the shard results file '" + file
+                        + "': " + e.getMessage());
+            }
+            writer = null;
+        }
+    }
+
+    /**
+     * Merges the result files of all the shards of a test in row order
+     *
+     * @param folder   the folder with the result files
+     * @param testName the name of the test
+     * @param output   the merged file
+     * @return the number of rows or -1 if the files could not be merged
+     */
+    public static int merge(File folder, final String testName, File output) {
+        File[] files = folder.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(testName + ".shard-")
+                        && name.endsWith(".csv");
+            }
+        });
+        if (files == null || files.length == 0) {
+            logger.error("There are no shard results of '" + testName
+                    + "' in '" + folder + "'");
+            return -1;
+        }
+
+        List<ArrayList<String>> rows = new ArrayList<ArrayList<String>>();
+        try {
+            for (File file : files) {
+                CsvParser parser = new CsvParser(file.getPath(), true, ',', '"');
+                try {
+                    rows.addAll(parser.parseAll());
+                } finally {
+                    parser.close();
+                }
+            }
+            Collections.sort(rows, new Comparator<ArrayList<String>>() {
+                public int compare(ArrayList<String> row1,
+                                   ArrayList<String> row2) {
+                    return Integer.valueOf(row1.get(0)).compareTo(
+                            Integer.valueOf(row2.get(0)));
+                }
+            });
+
+            Writer writer = new BufferedWriter(new FileWriter(output));
+            try {
+                writer.write(HEADER + "\n");
+                for (ArrayList<String> row : rows) {
+                    writer.write(row.get(0) + "," + row.get(1) + ","
+                            + quote(row.get(2)) + "\n");
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (Exception e) {
+            logger.error("Error merging the shard results of '" + testName
+                    + "': " + e);
+            return -1;
+        }
+        return rows.size();
+    }
+
+    /**
+     * Quotes a value with the escape char of the csv reader
+     */
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
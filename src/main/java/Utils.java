@@ -239,19 +239,8 @@ public class Utils {
      */
     public static void excelTest(BasicTestCase testClass, String methodName,
                                  String filePath, int sheetNumber, boolean header) {
-        testClass.setExcelTest(true);
-        ArrayList<String> errors =
-                excelUtils.fileTestExecution(testClass, methodName, filePath,
-                        sheetNumber, header, ' ', ' ');
-
-        if (errors.size() > 0) {
-            String errorMessage = (errors.size() == 1) ? " error" : " errors";
-            logger.warn(errors.size() + errorMessage + " in the excel test");
-
-            // Launching JUnit error
-            TestCase.fail(errors.size() + errorMessage + ": "
-                    + errors.toString());
-        }
+        dataDrivenTest(testClass, methodName, filePath, sheetNumber, header,
+                ' ', ' ', "excel");
     }
 
     /**
@@ -266,14 +255,53 @@ public class Utils {
      */
     public static void csvTest(BasicTestCase testClass, String methodName,
                                String filePath, boolean header, char separator, char quotechar) {
+        dataDrivenTest(testClass, methodName, filePath, 0, header, separator,
+                quotechar, "csv");
+    }
+
+    /**
+     * Runs the rows of the configured shard and fails if there are errors
+     *
+     * @param fileType the file type for the messages (excel or csv)
+     */
+    private static void dataDrivenTest(BasicTestCase testClass,
+                                       String methodName, String filePath, int sheetNumber, boolean header,
+                                       char separator, char quotechar, String fileType) {
         testClass.setExcelTest(true);
-        ArrayList<String> errors =
-                excelUtils.fileTestExecution(testClass, methodName, filePath,
-                        0, header, separator, quotechar);
+        RowShard shard = RowShard.fromProperties();
+        if (shard == null) {
+            TestCase.fail("Wrong shard configuration");
+        }
+        ShardResultFile resultFile = null;
+        if (shard != RowShard.ALL) {
+            resultFile = ShardResultFile.open(testClass.getClass()
+                    .getSimpleName() + "." + methodName
+                    + BrowserMatrix.getResultSuffix(), shard);
+        }
+        ResultWorkbookWriter resultWorkbook = ResultWorkbookWriter.open(
+                filePath, sheetNumber, header, separator, quotechar, shard);
+        RowResultListeners listeners =
+                new RowResultListeners(resultFile, resultWorkbook);
+
+        ArrayList<String> errors;
+        try {
+            errors = excelUtils.fileTestExecution(testClass, methodName,
+                    filePath, sheetNumber, header, separator, quotechar,
+                    getDataDrivenThreads(), shard,
+                    listeners.isEmpty() ? null : listeners);
+        } finally {
+            if (resultFile != null) {
+                resultFile.close();
+            }
+            if (resultWorkbook != null) {
+                resultWorkbook.close();
+            }
+        }
 
         if (errors.size() > 0) {
             String errorMessage = (errors.size() == 1) ? " error" : " errors";
-            logger.warn(errors.size() + errorMessage + " in the csv test");
+            logger.warn(errors.size() + errorMessage + " in the " + fileType
+                    + " test");
 
             // Launching JUnit error
             TestCase.fail(errors.size() + errorMessage + ": "
@@ -281,6 +309,17 @@ public class Utils {
         }
     }
 
+    /**
+     * Gets the number of threads of the excel/csv tests
+     *
+     * @return the configured threads or 1 if it is not configured
+     */
+    private static int getDataDrivenThreads() {
+        PropertiesManager properties = BasicTestCase.getProperties();
+        return properties.getSnapshot().getInt(
+                properties.DATADRIVEN_THREADS, 1);
+    }
+
     /**
      * Gets the absolute path of a resource file
      *
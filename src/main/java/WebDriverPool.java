@@ -0,0 +1,489 @@
+package main.java;
+
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Pool of warm WebDrivers of a browser.
+ * <p/>
+ * The drivers are started in background when the pool is created, so the
+ * tests do not wait for the browser startup. Each test leases a driver and
+ * returns it when it finishes: the returned driver is reset (extra windows
+ * closed, cookies and storage deleted, blank page) and it is leased again
+ * to the next test. The drivers are checked before leasing them; the dead
+ * sessions are discarded and replaced by new drivers.
+ */
+public class WebDriverPool {
+    /**
+     * Class logger
+     */
+    protected static Log logger = LogFactory.getLog(WebDriverPool.class);
+
+    /**
+     * Default time to wait for a free driver, in seconds
+     */
+    private static final int DEFAULT_TIMEOUT = 120;
+
+    /**
+     * Time to wait for a driver before checking the creation errors, in
+     * milliseconds
+     */
+    private static final long CREATION_POLL = 100;
+
+    /**
+     * Pools of the configured browsers, by browser info and driver creator
+     */
+    private static final Map<String, WebDriverPool> pools =
+            new HashMap<String, WebDriverPool>();
+
+    /**
+     * Leased drivers and their pools
+     */
+    private static final Map<WebDriver, WebDriverPool> leased =
+            Collections.synchronizedMap(new IdentityHashMap<WebDriver, WebDriverPool>());
+
+    /**
+     * Creates the drivers of a pool
+     */
+    public interface DriverFactory {
+        /**
+         * @return a new driver
+         * @throws Exception if the driver can not be started
+         */
+        WebDriver create() throws Exception;
+    }
+
+    private final BrowserSpec browser;
+    private final int size;
+    private final long timeout;
+    private final DriverFactory factory;
+    private final BlockingQueue<WebDriver> idle = new LinkedBlockingQueue<WebDriver>();
+    private final ExecutorService spawner;
+    private int live = 0;
+    private int creating = 0;
+    private Exception lastCreationError = null;
+    private volatile boolean closed = false;
+
+    private final AtomicLong leases = new AtomicLong();
+    private final AtomicLong leaseWait = new AtomicLong();
+    private final AtomicLong creations = new AtomicLong();
+    private final AtomicLong creationFailures = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates the pool and starts its drivers in background
+     *
+     * @param browser the browser of the drivers
+     * @param size    the number of drivers
+     * @param timeout the time to wait for a free driver, in milliseconds
+     * @param factory the creator of the drivers
+     */
+    public WebDriverPool(BrowserSpec browser, int size, long timeout,
+                         DriverFactory factory) {
+        this.browser = browser;
+        this.size = size;
+        this.timeout = timeout;
+        this.factory = factory;
+        spawner = Executors.newFixedThreadPool(size, new ThreadFactory() {
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    public void run() {
+                        // The drivers are set in the thread to maximize them
+                        DriverHolder.isolate();
+                        runnable.run();
+                    }
+                }, "driver-pool-" + WebDriverPool.this.browser.getInfo());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (int i = 0; i < size; i++) {
+            scheduleCreation();
+        }
+    }
+
+    /**
+     * Returns the pool of the browser of the current thread if
+     * qa.driver.pool.size is greater than 0, the pools are closed when the
+     * JVM exits
+     *
+     * @param factory the creator of the drivers, used the first time
+     * @return the pool or null if the pool is disabled
+     */
+    public static WebDriverPool getDefault(DriverFactory factory) {
+        return getDefault(null, factory);
+    }
+
+    /**
+     * Returns the pool of the browser of the current thread and a creator
+     * of drivers if qa.driver.pool.size is greater than 0, the pools are
+     * closed when the JVM exits
+     *
+     * @param factoryName the name of the creator, the drivers of each
+     *                    creator are kept in their own pool, null for the
+     *                    default creator
+     * @param factory     the creator of the drivers, used the first time
+     * @return the pool or null if the pool is disabled
+     */
+    public static WebDriverPool getDefault(String factoryName,
+                                           DriverFactory factory) {
+        PropertiesManager properties = BasicTestCase.getProperties();
+        ConfigSnapshot config = properties.getSnapshot();
+        int size = config.getInt(properties.DRIVER_POOL_SIZE, 0);
+        if (size <= 0) {
+            return null;
+        }
+        BrowserSpec browser = properties.getBrowser();
+        String key = (factoryName == null) ? browser.getInfo()
+                : browser.getInfo() + "@" + factoryName;
+        synchronized (pools) {
+            WebDriverPool pool = pools.get(key);
+            if (pool == null) {
+                if (pools.isEmpty()) {
+                    Runtime.getRuntime().addShutdownHook(new Thread(
+                            "driver-pool-close") {
+                        @Override
+                        public void run() {
+                            closeAll();
+                        }
+                    });
+                }
+                pool = new WebDriverPool(browser, size, config.getInt(
+                        properties.DRIVER_POOL_TIMEOUT, DEFAULT_TIMEOUT)
+                        * 1000L, factory);
+                pools.put(key, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Returns a driver to its pool
+     *
+     * @param driver the driver
+     * @return true if the driver has been returned, false if it was not
+     * leased from a pool
+     */
+    public static boolean release(WebDriver driver) {
+        WebDriverPool pool = leased.remove(driver);
+        if (pool == null) {
+            return false;
+        }
+        pool.giveBack(driver);
+        return true;
+    }
+
+    /**
+     * Closes the pools and quits their drivers, idle or leased
+     */
+    public static void closeAll() {
+        List<WebDriverPool> allPools;
+        synchronized (pools) {
+            allPools = new ArrayList<WebDriverPool>(pools.values());
+            pools.clear();
+        }
+        for (WebDriverPool pool : allPools) {
+            logger.info("Closing the driver pool of '" + pool.browser + "': "
+                    + pool.getMetrics());
+            pool.close();
+        }
+    }
+
+    /**
+     * Leases a healthy driver, waits if all the drivers are in use or they
+     * are being started
+     *
+     * @return the driver, it must be returned with release()
+     * @throws Exception if there are no free drivers after the timeout, or
+     *                   if the drivers can not be started
+     */
+    public WebDriver lease() throws Exception {
+        long start = System.nanoTime();
+        long limit = System.currentTimeMillis() + timeout;
+        while (true) {
+            // Replaces the drivers that could not be created
+            scheduleCreation();
+            WebDriver driver = poll(limit);
+            if (isHealthy(driver)) {
+                leased.put(driver, this);
+                leases.incrementAndGet();
+                leaseWait.addAndGet(System.nanoTime() - start);
+                return driver;
+            }
+            logger.warn("Discarding a dead driver of the browser '" + browser
+                    + "'");
+            evict(driver);
+        }
+    }
+
+    /**
+     * Waits for an idle driver, without waiting for the timeout if there
+     * are no drivers started or being started
+     */
+    private WebDriver poll(long limit) throws Exception {
+        while (true) {
+            long wait = limit - System.currentTimeMillis();
+            WebDriver driver = idle.poll(Math.max(Math.min(wait,
+                    CREATION_POLL), 0), TimeUnit.MILLISECONDS);
+            if (driver != null) {
+                return driver;
+            }
+            synchronized (this) {
+                if (live + creating == 0 && lastCreationError != null) {
+                    throw new Exception("Error starting the drivers of the "
+                            + "browser '" + browser + "': "
+                            + lastCreationError.getMessage(), lastCreationError);
+                }
+            }
+            if (wait <= CREATION_POLL) {
+                throw new Exception("Timeout waiting for a driver of the "
+                        + "browser '" + browser + "', " + size
+                        + " drivers in the pool");
+            }
+        }
+    }
+
+    /**
+     * @return the counters of the pool
+     */
+    public Metrics getMetrics() {
+        long leaseCount = leases.get();
+        synchronized (this) {
+            return new Metrics(size, live, idle.size(), leaseCount,
+                    leaseCount == 0 ? 0 : leaseWait.get() / leaseCount / 1000000,
+                    creations.get(), creationFailures.get(), evictions.get());
+        }
+    }
+
+    /**
+     * Quits the idle drivers and the drivers still leased from the pool, a
+     * leased driver returned later is not released
+     */
+    public void close() {
+        closed = true;
+        spawner.shutdownNow();
+        WebDriver driver;
+        while ((driver = idle.poll()) != null) {
+            quit(driver);
+        }
+        List<WebDriver> leasedDrivers = new ArrayList<WebDriver>();
+        synchronized (leased) {
+            Iterator<Map.Entry<WebDriver, WebDriverPool>> entries =
+                    leased.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<WebDriver, WebDriverPool> entry = entries.next();
+                if (entry.getValue() == this) {
+                    leasedDrivers.add(entry.getKey());
+                    entries.remove();
+                }
+            }
+        }
+        for (WebDriver leasedDriver : leasedDrivers) {
+            quit(leasedDriver);
+        }
+    }
+
+    /**
+     * Resets a returned driver and leaves it in the pool
+     */
+    private void giveBack(WebDriver driver) {
+        if (closed) {
+            quit(driver);
+            return;
+        }
+        try {
+            DriverHolder.reset(driver);
+            idle.offer(driver);
+        } catch (WebDriverException e) {
+            logger.warn("Discarding a driver of the browser '" + browser
+                    + "' that can not be reset: " + e.getMessage());
+            evict(driver);
+        }
+    }
+
+    private static boolean isHealthy(WebDriver driver) {
+        try {
+            driver.getWindowHandle();
+            return true;
+        } catch (WebDriverException e) {
+            return false;
+        }
+    }
+
+    private void evict(WebDriver driver) {
+        evictions.incrementAndGet();
+        synchronized (this) {
+            live--;
+        }
+        quit(driver);
+        scheduleCreation();
+    }
+
+    /**
+     * Starts a new driver in background if the pool is not full
+     */
+    private synchronized void scheduleCreation() {
+        if (closed || live + creating >= size) {
+            return;
+        }
+        creating++;
+        spawner.execute(new Runnable() {
+            public void run() {
+                createDriver();
+            }
+        });
+    }
+
+    private void createDriver() {
+        // The driver of the browser of the pool
+        PropertiesManager.setThreadBrowser(browser);
+        WebDriver driver = null;
+        Exception error = null;
+        try {
+            driver = factory.create();
+            creations.incrementAndGet();
+        } catch (Exception e) {
+            error = e;
+            creationFailures.incrementAndGet();
+            logger.error("Error starting a driver of the browser '" + browser
+                    + "': " + e.getMessage());
+        } finally {
+            PropertiesManager.setThreadBrowser(null);
+            synchronized (this) {
+                creating--;
+                if (driver != null) {
+                    live++;
+                    lastCreationError = null;
+                } else if (error != null) {
+                    lastCreationError = error;
+                }
+            }
+        }
+        if (driver != null) {
+            if (closed) {
+                quit(driver);
+            } else {
+                idle.offer(driver);
+            }
+        }
+    }
+
+    private static void quit(WebDriver driver) {
+        try {
+            driver.quit();
+        } catch (WebDriverException e) {
+            logger.debug("Error stopping the driver: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Counters of the pool
+     */
+    public static class Metrics {
+        private final int size;
+        private final int live;
+        private final int idle;
+        private final long leases;
+        private final long averageLeaseWait;
+        private final long creations;
+        private final long creationFailures;
+        private final long evictions;
+
+        Metrics(int size, int live, int idle, long leases, long averageLeaseWait,
+                long creations, long creationFailures, long evictions) {
+            this.size = size;
+            this.live = live;
+            this.idle = idle;
+            this.leases = leases;
+            this.averageLeaseWait = averageLeaseWait;
+            this.creations = creations;
+            this.creationFailures = creationFailures;
+            this.evictions = evictions;
+        }
+
+        /**
+         * @return the number of drivers of the pool
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * @return the started drivers, idle or leased
+         */
+        public int getLive() {
+            return live;
+        }
+
+        /**
+         * @return the drivers waiting in the pool
+         */
+        public int getIdle() {
+            return idle;
+        }
+
+        /**
+         * @return the number of leases
+         */
+        public long getLeases() {
+            return leases;
+        }
+
+        /**
+         * @return the average time waiting for a driver, in milliseconds
+         */
+        public long getAverageLeaseWait() {
+            return averageLeaseWait;
+        }
+
+        /**
+         * @return the drivers started
+         */
+        public long getCreations() {
+            return creations;
+        }
+
+        /**
+         * @return the drivers that could not be started
+         */
+        public long getCreationFailures() {
+            return creationFailures;
+        }
+
+        /**
+         * @return the drivers discarded because they were dead or they could
+         * not be reset
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        @Override
+        public String toString() {
+            return "size=" + size + ", live=" + live + ", idle=" + idle
+                    + ", leases=" + leases + ", averageLeaseWait="
+                    + averageLeaseWait + "ms, creations=" + creations
+                    + ", creationFailures=" + creationFailures
+                    + ", evictions=" + evictions;
+        }
+    }
+}
@@ -1,22 +1,21 @@
 package main.java;
 
 
-import au.com.bytecode.opencsv.CSVReader;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellValue;
+import org.apache.poi.ss.usermodel.ErrorConstants;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellReference;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 import java.io.FileInputStream;
-import java.io.FileReader;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Iterator;
 
 
 
@@ -46,103 +45,349 @@ public class excelUtils {
     public static ArrayList<String> fileTestExecution(main.java.BasicTestCase testClass,
                                                       String methodName, String filePath, int sheetNumber,
                                                       boolean header, char separator, char quotechar) {
-        ArrayList<String> errors = new ArrayList<String>();
-        ArrayList<ArrayList<String>> data =
-                getFileData(filePath, sheetNumber, header, separator, quotechar);
-        if (data == null) {
-            String errorMessage = "Error reading the file '" + filePath + "'";
-            errors.add(errorMessage);
-            return errors;
+        return fileTestExecution(testClass, methodName, filePath, sheetNumber,
+                header, separator, quotechar, 1, RowShard.ALL, null);
+    }
+
+    /**
+     * Invoke a test method several times with the data of the csv/excel
+     * file, running the rows in several threads. Each thread uses its own
+     * instance of the test class and its own WebDriver.
+     *
+     * @param testClass
+     * @param methodName
+     * @param file
+     * @param sheetNumber [excel] the sheet number
+     * @param header      true if the first row is the header and has no data
+     * @param separator   [csv] the delimiter to use for separating entries
+     * @param quotechar   [csv] the character to use for quoted elements
+     * @param threads     the number of parallel threads
+     * @return an array list with the error messages
+     */
+    public static ArrayList<String> fileTestExecution(main.java.BasicTestCase testClass,
+                                                      String methodName, String filePath, int sheetNumber,
+                                                      boolean header, char separator, char quotechar, int threads) {
+        return fileTestExecution(testClass, methodName, filePath, sheetNumber,
+                header, separator, quotechar, threads, RowShard.ALL, null);
+    }
+
+    /**
+     * Invoke a test method with the rows of the csv/excel file that belong
+     * to a shard, so the file can be split between several nodes. The row
+     * numbers of the error messages are the numbers in the whole file.
+     *
+     * @param testClass
+     * @param methodName
+     * @param file
+     * @param sheetNumber [excel] the sheet number
+     * @param header      true if the first row is the header and has no data
+     * @param separator   [csv] the delimiter to use for separating entries
+     * @param quotechar   [csv] the character to use for quoted elements
+     * @param threads     the number of parallel threads
+     * @param shard       the rows to execute
+     * @param listener    receives the result of each row, it can be null
+     * @return an array list with the error messages
+     */
+    public static ArrayList<String> fileTestExecution(main.java.BasicTestCase testClass,
+                                                      String methodName, String filePath, int sheetNumber,
+                                                      boolean header, char separator, char quotechar, int threads,
+                                                      RowShard shard, RowResultListener listener) {
+        ArrayList<String> columnErrors = new ArrayList<String>();
+        int[] columns = getParameterColumns(testClass, methodName, filePath,
+                sheetNumber, header, separator, quotechar, columnErrors);
+        if (!columnErrors.isEmpty()) {
+            return columnErrors;
         }
-        logger.info("Iterator test: " + data.size() + " values");
-        if (data.size() <= 0) {
-            String errorMessage =
-                    "There are no data in the sheet " + sheetNumber
-                            + " of the file '" + filePath + "'";
-            logger.error(errorMessage);
-            errors.add(errorMessage);
-            return errors;
+
+        RowJournal journal = null;
+        if (RowJournal.isEnabled()) {
+            journal = RowJournal.open(testClass, methodName, filePath,
+                    sheetNumber, header, separator, quotechar, shard);
         }
 
-        int itrNumber = 1;
-        Iterator<ArrayList<String>> iter = data.iterator();
-        while (iter.hasNext()) {
-            ArrayList<String> rowData = iter.next();
-            int paramsSize = rowData.size();
-            logger.info("Iteration " + itrNumber + " of " + data.size());
-
-            /*
-             * Class<?> testClass; try { testClass =
-             * Class.forName(excelUtils.getPreviousClassName()); } catch
-             * (ClassNotFoundException e) {
-             * logger.error("ClassNotFoundException: " + e.getMessage());
-             * fail("ClassNotFoundException"); return; }
-             */
-
-            Method test;
-            try {
-                Class<?>[] paramTypes = new Class[paramsSize];
-                for (int i = 0; i < paramsSize; i++) {
-                    paramTypes[i] = String.class;
+        ArrayList<String> errors;
+        if (threads > 1) {
+            errors = new ParallelRowRunner(testClass, methodName, threads,
+                    shard, journal, listener).execute(filePath, sheetNumber,
+                    header, separator, quotechar, columns);
+        } else {
+            errors = executeRows(testClass, methodName, filePath, sheetNumber,
+                    header, separator, quotechar, columns, shard, journal,
+                    listener);
+        }
+
+        if (journal != null) {
+            journal.close(errors.isEmpty());
+        }
+        return errors;
+    }
+
+    /**
+     * Finds the columns of the parameters of a method annotated with
+     * DataColumn in the header of the file
+     *
+     * @param errors the error message is added to this list
+     * @return the column indexes or null if the parameters are not annotated
+     */
+    private static int[] getParameterColumns(BasicTestCase testClass,
+                                             String methodName, String filePath, int sheetNumber, boolean header,
+                                             char separator, char quotechar, ArrayList<String> errors) {
+        String[] names = RowInvoker.getColumnNames(testClass.getClass(),
+                methodName);
+        if (names == null) {
+            return null;
+        }
+        String errorMessage = null;
+        int[] columns = null;
+        if (!header) {
+            errorMessage = "The parameters of the method '" + methodName
+                    + "' are bound by column name, the file '" + filePath
+                    + "' needs a header row";
+        } else {
+            ArrayList<String> headerRow =
+                    getHeader(filePath, sheetNumber, separator, quotechar);
+            if (headerRow == null) {
+                errorMessage = "Error reading the header of the file '"
+                        + filePath + "'";
+            } else {
+                columns = new int[names.length];
+                for (int i = 0; i < names.length && errorMessage == null; i++) {
+                    columns[i] = indexOfColumn(headerRow, names[i]);
+                    if (columns[i] < 0) {
+                        errorMessage = "The column '" + names[i]
+                                + "' is not in the header of the file '"
+                                + filePath + "'";
+                    }
                 }
+            }
+        }
+        if (errorMessage != null) {
+            logger.error(errorMessage);
+            errors.add(errorMessage);
+            return null;
+        }
+        return columns;
+    }
 
-                test = testClass.getClass().getMethod(methodName, paramTypes);
-            } catch (SecurityException e) {
-                String errorMessage =
-                        "Security error searching the method '" + methodName
-                                + "'";
-                logger.error(errorMessage + ": " + e.getMessage());
-                errors.add(errorMessage);
-                return errors;
-            } catch (NoSuchMethodException e) {
-                String errorMessage =
-                        "The method name (" + methodName
-                                + ") or the number of paramaters ("
-                                + paramsSize + ") are wrong";
-                logger.error(errorMessage + ": " + e.getMessage());
-                errors.add(errorMessage);
-                return errors;
+    private static int indexOfColumn(ArrayList<String> headerRow, String name) {
+        for (int i = 0; i < headerRow.size(); i++) {
+            if (headerRow.get(i).trim().equalsIgnoreCase(name.trim())) {
+                return i;
             }
+        }
+        return -1;
+    }
 
-            try {
-                Object[] params = new Object[paramsSize];
-                for (int i = 0; i < paramsSize; i++) {
-                    params[i] = rowData.get(i);
+    /**
+     * Reads the first row of a file
+     *
+     * @param filePath
+     * @param sheetNumber [excel] the sheet number
+     * @param separator   [csv] the delimiter to use for separating entries
+     * @param quotechar   [csv] the character to use for quoted elements
+     * @return the header values or null if the file can not be read
+     */
+    public static ArrayList<String> getHeader(String filePath, int sheetNumber,
+                                              char separator, char quotechar) {
+        DataSource source =
+                getDataSource(filePath, sheetNumber, false, separator, quotechar);
+        RowIterator rows = (source == null) ? null : source.open();
+        if (rows == null) {
+            return null;
+        }
+        try {
+            return rows.hasNext() ? rows.next() : null;
+        } finally {
+            rows.close();
+        }
+    }
+
+    /**
+     * Runs the rows in the calling thread
+     *
+     * @param columns the column indexes of the rows, null for all
+     * @param journal the rows that have passed are skipped, it can be null
+     * @return an array list with the error messages
+     */
+    private static ArrayList<String> executeRows(BasicTestCase testClass,
+                                                 String methodName, String filePath, int sheetNumber, boolean header,
+                                                 char separator, char quotechar, int[] columns, RowShard shard,
+                                                 RowJournal journal, RowResultListener listener) {
+        ArrayList<String> errors = new ArrayList<String>();
+        RowIterator rows = openRows(filePath, sheetNumber, header, separator,
+                quotechar, columns, errors);
+        if (rows == null) {
+            return errors;
+        }
+        if (shard != RowShard.ALL) {
+            logger.info("Data driven test with the rows of the " + shard);
+        }
+
+        try {
+            // The rows are read while the test is running, so the total
+            // number of rows is not known until the end
+            RowCall call = new RowCall(testClass, methodName);
+            int itrNumber = 1;
+            int executed = 0;
+            int skipped = 0;
+            boolean aborted = false;
+            while (rows.hasNext()) {
+                ArrayList<String> rowData = rows.next();
+                if (!shard.contains(itrNumber)) {
+                    itrNumber++;
+                    continue;
+                }
+                if (journal != null && journal.hasPassed(itrNumber)) {
+                    // Passed in a previous execution
+                    skipped++;
+                    if (listener != null) {
+                        listener.rowExecuted(itrNumber, rowData, null, 0);
+                    }
+                    itrNumber++;
+                    continue;
                 }
 
-                test.invoke(testClass, params);
-            } catch (IllegalArgumentException e) {
-                String errorMessage =
-                        "Illegal argument invoking the method '" + methodName
-                                + "'";
-                logger.error(errorMessage + ": " + e.getMessage());
-                errors.add(errorMessage);
-                return errors;
-            } catch (IllegalAccessException e) {
-                String errorMessage =
-                        "Illegal access invoking the method '" + methodName
-                                + "'";
-                logger.error(errorMessage + ": " + e.getMessage());
-                errors.add(errorMessage);
-                return errors;
-            } catch (InvocationTargetException e) {
-                // Saving the original exception
-                Throwable cause = e.getCause();
-                logger.warn("Error in row " + itrNumber + " of " + data.size()
-                        + ": " + cause.getMessage());
-                errors.add("Error in row " + itrNumber + " of " + data.size()
-                        + ": " + cause.getMessage());
-                if (testClass instanceof HtmlTestCase) {
-                    ((HtmlTestCase) testClass).captureAndSaveErrorScreenshot();
+                logger.info("Iteration " + itrNumber);
+                String error = call.execute(rowData, itrNumber);
+                executed++;
+                if (error != null) {
+                    errors.add(error);
+                    if (call.isAborted()) {
+                        aborted = true;
+                        itrNumber++;
+                        break;
+                    }
+                }
+                if (journal != null) {
+                    journal.rowExecuted(itrNumber, error);
                 }
+                if (listener != null) {
+                    listener.rowExecuted(itrNumber, rowData, error,
+                            call.getLastDuration());
+                }
+                itrNumber++;
             }
 
-            itrNumber++;
+            if (aborted) {
+                // The rest of the file is not read to count the rows
+                return errors;
+            }
+            int total = itrNumber - 1 + countRows(rows);
+            RowCall.addRowTotal(errors, total);
+            addReadingError(rows, filePath, total, errors);
+            logger.info("Iterator test: " + executed + " values"
+                    + (skipped > 0 ? ", " + skipped + " already passed" : ""));
+        } finally {
+            rows.close();
         }
 
         return errors;
     }
 
+    /**
+     * Opens the file and checks that there are rows
+     *
+     * @param columns the column indexes of the rows, null for all
+     * @param errors  the error message is added to this list
+     * @return the row iterator or null if there are no rows
+     */
+    static RowIterator openRows(String filePath, int sheetNumber,
+                                boolean header, char separator, char quotechar, int[] columns,
+                                ArrayList<String> errors) {
+        DataSource source = getDataSource(filePath, sheetNumber, header,
+                separator, quotechar, columns);
+        RowIterator rows = (source == null) ? null : source.open();
+        if (rows == null) {
+            String errorMessage = "Error reading the file '" + filePath + "'";
+            errors.add(errorMessage);
+            return null;
+        }
+
+        if (!rows.hasNext()) {
+            String errorMessage = (rows.getError() != null)
+                    ? "Error reading the file '" + filePath + "': "
+                    + rows.getError()
+                    : "There are no data in the sheet " + sheetNumber
+                    + " of the file '" + filePath + "'";
+            logger.error(errorMessage);
+            errors.add(errorMessage);
+            rows.close();
+            return null;
+        }
+        return rows;
+    }
+
+    /**
+     * Reads the remaining rows of the file
+     *
+     * @return the number of rows
+     */
+    static int countRows(RowIterator rows) {
+        int count = 0;
+        while (rows.hasNext()) {
+            rows.next();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Adds the error found reading the file after the last row, if any
+     */
+    static void addReadingError(RowIterator rows, String filePath,
+                                int lastRow, ArrayList<String> errors) {
+        if (rows.getError() != null) {
+            String errorMessage = "Error reading the file '" + filePath
+                    + "' after row " + lastRow + ": " + rows.getError();
+            logger.error(errorMessage);
+            errors.add(errorMessage);
+        }
+    }
+
+    /**
+     * Returns the data source that reads a file row by row
+     *
+     * @param filePath
+     * @param sheetNumber [excel] the sheet number
+     * @param header      true if the first row is the header and has no data
+     * @param separator   [csv] the delimiter to use for separating entries
+     * @param quotechar   [csv] the character to use for quoted elements
+     * @return the data source or null if the file format is not supported
+     */
+    public static DataSource getDataSource(String filePath, int sheetNumber,
+                                           boolean header, char separator, char quotechar) {
+        return getDataSource(filePath, sheetNumber, header, separator,
+                quotechar, null);
+    }
+
+    /**
+     * Returns the data source that reads some columns of a file row by row.
+     * The rest of the columns are not converted to values. The excel files
+     * are always read with the streaming reader, qa.excel.streaming only
+     * applies to getFileData
+     *
+     * @param filePath
+     * @param sheetNumber [excel] the sheet number
+     * @param header      true if the first row is the header and has no data
+     * @param separator   [csv] the delimiter to use for separating entries
+     * @param quotechar   [csv] the character to use for quoted elements
+     * @param columns     the column indexes of the rows, null for all
+     * @return the data source or null if the file format is not supported
+     */
+    public static DataSource getDataSource(String filePath, int sheetNumber,
+                                           boolean header, char separator, char quotechar, int[] columns) {
+        if (filePath.endsWith(".xls") || filePath.endsWith(".xlsx")) {
+            return new ExcelDataSource(filePath, sheetNumber, header, columns);
+        } else if (filePath.endsWith(".csv")) {
+            return new CsvDataSource(filePath, header, separator, quotechar,
+                    columns);
+        } else {
+            logger.error("Error reading the file '" + filePath
+                    + "': the file format must be csv, xls or xlsx");
+            return null;
+        }
+    }
+
     /**
      * Reads a file and returns a matrix with the cell values
      *
@@ -153,8 +398,26 @@ public class excelUtils {
      * @param quotechar   [csv] the character to use for quoted elements
      * @return the matrix with the file data
      */
-    public static ArrayList<ArrayList<String>> getFileData(String filePath,
-                                                           int sheetNumber, boolean header, char separator, char quotechar) {
+    public static ArrayList<ArrayList<String>> getFileData(final String filePath,
+                                                           final int sheetNumber, final boolean header,
+                                                           final char separator, final char quotechar) {
+        if (DatasetCache.isEnabled()) {
+            return DatasetCache.get(filePath, sheetNumber, header, separator,
+                    quotechar, new DatasetCache.Loader() {
+                        public ArrayList<ArrayList<String>> load() {
+                            return readFileData(filePath, sheetNumber, header,
+                                    separator, quotechar);
+                        }
+                    });
+        }
+        return readFileData(filePath, sheetNumber, header, separator, quotechar);
+    }
+
+    /**
+     * Reads a file without the cache
+     */
+    private static ArrayList<ArrayList<String>> readFileData(String filePath,
+                                                             int sheetNumber, boolean header, char separator, char quotechar) {
         if (filePath.endsWith(".xls") || filePath.endsWith(".xlsx")) {
             return getExcelData(filePath, sheetNumber, header);
         } else if (filePath.endsWith(".csv")) {
@@ -177,25 +440,17 @@ public class excelUtils {
      */
     private static ArrayList<ArrayList<String>> getCsvData(String filePath,
                                                            boolean header, char separator, char quotechar) {
-        ArrayList<ArrayList<String>> data = new ArrayList<ArrayList<String>>();
+        ArrayList<ArrayList<String>> data;
         logger.debug("Getting data from csv '" + filePath + "'");
 
         try {
-            char escape = '\\';
-            int line = header ? 1 : 0;
-
-            CSVReader reader =
-                    new CSVReader(new FileReader(filePath), separator,
-                            quotechar, escape, line);
-            String[] nextLine;
-            while ((nextLine = reader.readNext()) != null) {
-                ArrayList<String> rowData = new ArrayList<String>();
-                for (String col : nextLine) {
-                    rowData.add(col);
-                }
-                data.add(rowData);
+            CsvParser parser = new CsvParser(filePath, header, separator,
+                    quotechar);
+            try {
+                data = parser.parseAll();
+            } finally {
+                parser.close();
             }
-            reader.close();
         } catch (Exception e) {
             logger.error("Error reading the csv file '" + filePath + "': " + e);
             return null;
@@ -214,7 +469,17 @@ public class excelUtils {
      */
     private static ArrayList<ArrayList<String>> getExcelData(String filePath,
                                                              int sheetNumber, boolean header) {
-        ArrayList<ArrayList<String>> data = new ArrayList<ArrayList<String>>();
+        final ArrayList<ArrayList<String>> data = new ArrayList<ArrayList<String>>();
+        if (isExcelStreaming()) {
+            boolean read = readExcelData(filePath, sheetNumber, header,
+                    new RowHandler() {
+                        public boolean handleRow(ArrayList<String> rowData) {
+                            data.add(rowData);
+                            return true;
+                        }
+                    });
+            return read ? data : null;
+        }
         logger.debug("Getting data from excel '" + filePath + "', sheet "
                 + sheetNumber);
 
@@ -230,6 +495,11 @@ public class excelUtils {
             Row row;
             Cell cell;
 
+            // The evaluator caches the evaluated cells, so the cells used by
+            // several formulas (i.e. other sheets) are calculated once
+            FormulaEvaluator evaluator =
+                    wb.getCreationHelper().createFormulaEvaluator();
+
             int rows; // No of rows
             rows = sheet.getPhysicalNumberOfRows();
             int firstRow = 0;
@@ -258,12 +528,7 @@ public class excelUtils {
                     for (int c = 0; c < cols; c++) {
                         cell = row.getCell(c);
                         if (cell != null) {
-                            try {
-                                rowData.add(cell.getStringCellValue());
-                            } catch (Exception e) {
-                                rowData.add(Double.toString(cell
-                                        .getNumericCellValue()));
-                            }
+                            rowData.add(getCellValue(cell, evaluator));
                         } else {
                             rowData.add("");
                         }
@@ -278,6 +543,95 @@ public class excelUtils {
         }
         return data;
     }
-}
 
+    /**
+     * Returns the text of a cell according to its type, with the same format
+     * as the streaming reader (numbers and dates as Double.toString). The
+     * formulas are evaluated, if the evaluation fails the cached result is
+     * used
+     *
+     * @param cell
+     * @param evaluator the formula evaluator of the workbook
+     * @return the cell value
+     */
+    static String getCellValue(Cell cell, FormulaEvaluator evaluator) {
+        if (cell.getCellType() == Cell.CELL_TYPE_FORMULA) {
+            CellValue value = null;
+            try {
+                value = evaluator.evaluate(cell);
+            } catch (RuntimeException e) {
+                logger.warn("Error evaluating the formula '"
+                        + cell.getCellFormula() + "' of the cell "
+                        + new CellReference(cell).formatAsString()
+                        + ", using its cached value: " + e);
+            }
+            if (value != null) {
+                return getCellValue(value);
+            }
+        }
+
+        int type = cell.getCellType();
+        if (type == Cell.CELL_TYPE_FORMULA) {
+            type = cell.getCachedFormulaResultType();
+        }
+        switch (type) {
+            case Cell.CELL_TYPE_STRING:
+                return cell.getStringCellValue();
+            case Cell.CELL_TYPE_NUMERIC:
+                return Double.toString(cell.getNumericCellValue());
+            case Cell.CELL_TYPE_BOOLEAN:
+                return Boolean.toString(cell.getBooleanCellValue());
+            case Cell.CELL_TYPE_ERROR:
+                return ErrorConstants.getText(cell.getErrorCellValue());
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * Returns the text of an evaluated formula
+     */
+    private static String getCellValue(CellValue value) {
+        switch (value.getCellType()) {
+            case Cell.CELL_TYPE_STRING:
+                return value.getStringValue();
+            case Cell.CELL_TYPE_NUMERIC:
+                return Double.toString(value.getNumberValue());
+            case Cell.CELL_TYPE_BOOLEAN:
+                return Boolean.toString(value.getBooleanValue());
+            case Cell.CELL_TYPE_ERROR:
+                return ErrorConstants.getText(value.getErrorValue());
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * Reads an excel file row by row without loading the workbook in memory
+     *
+     * @param filePath
+     * @param sheetNumber
+     * @param header      true if the first row is the header and has no data
+     * @param handler     receives the rows one at a time
+     * @return true if the file has been read without errors
+     */
+    public static boolean readExcelData(String filePath, int sheetNumber,
+                                        boolean header, RowHandler handler) {
+        try {
+            ExcelStreamReader.read(filePath, sheetNumber, header, handler);
+        } catch (Exception e) {
+            logger.error("Error reading the excel file '" + filePath + "': "
+                    + e);
+            return false;
+        }
+        return true;
+    }
 
+    /**
+     * @return true if the excel files must be read with the streaming reader
+     */
+    private static boolean isExcelStreaming() {
+        PropertiesManager properties = BasicTestCase.getProperties();
+        return properties.getBooleanProperty(properties.EXCEL_STREAMING);
+    }
+}
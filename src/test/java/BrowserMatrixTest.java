@@ -0,0 +1,62 @@
+package test.java;
+
+import main.java.BrowserMatrix;
+import main.java.DriverHolder;
+import main.java.HtmlTestCase;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.Result;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the execution of the tests in several browsers.
+ */
+public class BrowserMatrixTest {
+
+    private static final List<String> executions =
+            Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Test run by the matrix
+     */
+    public static class BrowserRecorder extends HtmlTestCase {
+        @Test
+        public void recordBrowser() {
+            executions.add(getProperties().getBrowserInfo() + "|"
+                    + System.identityHashCode(DriverHolder.get()));
+            assertEquals("htmlunit", getProperties().getBrowserName());
+        }
+    }
+
+    @After
+    public void clearBrowser() {
+        System.clearProperty("qa.browser");
+    }
+
+    @Test
+    public void testsRunInEachBrowser() {
+        System.setProperty("qa.browser", "htmlunit, htmlunit-2-on-linux");
+        executions.clear();
+        Map<String, Result> results = BrowserMatrix.run(BrowserRecorder.class);
+
+        assertEquals("[htmlunit, htmlunit_2_linux]",
+                results.keySet().toString());
+        for (Result result : results.values()) {
+            assertEquals(1, result.getRunCount());
+            assertTrue(result.wasSuccessful());
+        }
+        assertEquals(2, executions.size());
+        String[] first = executions.get(0).split("\\|");
+        String[] second = executions.get(1).split("\\|");
+        assertTrue(!first[0].equals(second[0]));
+        // Each browser has its own driver
+        assertTrue(!first[1].equals(second[1]));
+    }
+}
@@ -0,0 +1,100 @@
+package test.java;
+
+import main.java.BasicTestCase;
+import main.java.DataColumn;
+import main.java.excelUtils;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the binding of the parameters to the columns by header name.
+ */
+public class ColumnBindingTest {
+
+    private static final String[] HEADER = {"id", "comment", "User",
+            "country", "Age", "notes"};
+
+    /**
+     * Data driven test class with named parameters
+     */
+    public static class NamedRecorder extends BasicTestCase {
+        public ArrayList<String> calls = new ArrayList<String>();
+
+        public void check(@DataColumn("age") int age,
+                          @DataColumn(" user ") String user) {
+            calls.add(user + "=" + age);
+        }
+
+        public void missing(@DataColumn("email") String email) {
+            calls.add(email);
+        }
+    }
+
+    @Test
+    public void csvColumnsAreBoundByName() throws Exception {
+        StringBuilder content = new StringBuilder();
+        content.append(join(HEADER)).append("\n");
+        content.append("1,\"long, quoted\ncomment\",john,es,33,x\n");
+        content.append("2,,mary,uk,21\n");
+        String filePath = TestFiles.createFile("columns", ".csv",
+                content.toString()).getPath();
+
+        NamedRecorder recorder = new NamedRecorder();
+        ArrayList<String> errors = excelUtils.fileTestExecution(recorder,
+                "check", filePath, 0, true, ',', '"');
+        assertEquals(0, errors.size());
+        assertEquals("[john=33, mary=21]", recorder.calls.toString());
+    }
+
+    @Test
+    public void xlsxColumnsAreBoundByName() throws Exception {
+        XSSFWorkbook wb = new XSSFWorkbook();
+        Sheet sheet = wb.createSheet();
+        Row row = sheet.createRow(0);
+        for (int c = 0; c < HEADER.length; c++) {
+            row.createCell(c).setCellValue(HEADER[c]);
+        }
+        for (int r = 1; r <= 3; r++) {
+            row = sheet.createRow(r);
+            row.createCell(0).setCellValue(r);
+            row.createCell(1).setCellValue("comment " + r);
+            row.createCell(2).setCellValue("user" + r);
+            row.createCell(4).setCellValue(20 + r);
+        }
+        File file = TestFiles.createFile("columns", ".xlsx", wb);
+
+        NamedRecorder recorder = new NamedRecorder();
+        ArrayList<String> errors = excelUtils.fileTestExecution(recorder,
+                "check", file.getPath(), 0, true, ',', '"');
+        assertEquals(0, errors.size());
+        assertEquals("[user1=21, user2=22, user3=23]",
+                recorder.calls.toString());
+    }
+
+    @Test
+    public void missingColumnStopsTheTest() throws Exception {
+        String filePath = TestFiles.createFile("columns", ".csv",
+                join(HEADER) + "\n1,a,john,es,33,x\n").getPath();
+        NamedRecorder recorder = new NamedRecorder();
+        ArrayList<String> errors = excelUtils.fileTestExecution(recorder,
+                "missing", filePath, 0, true, ',', '"');
+        assertEquals(0, recorder.calls.size());
+        assertEquals("The column 'email' is not in the header of the file '"
+                + filePath + "'", errors.get(0));
+    }
+
+    private static String join(String[] values) {
+        StringBuilder line = new StringBuilder();
+        for (String value : values) {
+            line.append(line.length() > 0 ? "," : "").append(value);
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,165 @@
+package test.java;
+
+import main.java.ConnectionPool;
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the connection pool with an in-memory H2 database.
+ */
+public class ConnectionPoolTest {
+
+    private ConnectionPool pool;
+
+    @After
+    public void closePool() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    private ConnectionPool createPool(String database, int maxSize,
+                                      long leakTime) throws Exception {
+        pool = new ConnectionPool("org.h2.Driver", "jdbc:h2:mem:" + database
+                + ";DB_CLOSE_DELAY=-1", "sa", "", maxSize, 200, leakTime);
+        return pool;
+    }
+
+    @Test
+    public void connectionsAreReused() throws Exception {
+        createPool("reuse", 2, 0);
+        for (int i = 0; i < 5; i++) {
+            Connection connection = pool.getConnection();
+            assertEquals(1, queryOne(connection));
+            connection.close();
+        }
+        ConnectionPool.Metrics metrics = pool.getMetrics();
+        assertEquals(1, metrics.getCreated());
+        assertEquals(5, metrics.getBorrowed());
+        assertEquals(0, metrics.getActive());
+        assertEquals(1, metrics.getIdle());
+    }
+
+    @Test
+    public void returnedConnectionsCanNotBeUsed() throws Exception {
+        createPool("returned", 2, 0);
+        Connection connection = pool.getConnection();
+        connection.close();
+        // Closing twice does not return the connection twice
+        connection.close();
+        assertTrue(connection.isClosed());
+        try {
+            connection.createStatement();
+            fail("The returned connection has been used");
+        } catch (SQLException e) {
+            assertEquals("The connection has been returned to the pool",
+                    e.getMessage());
+        }
+        assertEquals(1, pool.getMetrics().getIdle());
+    }
+
+    @Test
+    public void borrowsWaitForTheMaximumSize() throws Exception {
+        createPool("maxsize", 2, 0);
+        Connection first = pool.getConnection();
+        pool.getConnection();
+        try {
+            pool.getConnection();
+            fail("More connections than the maximum size");
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().startsWith("Timeout waiting"));
+        }
+        first.close();
+        pool.getConnection().close();
+        assertEquals(2, pool.getMetrics().getCreated());
+    }
+
+    @Test
+    public void reservedConnectionsAreAddedToTheMaximumSize() throws Exception {
+        createPool("reserve", 1, 0);
+        Connection first = pool.getConnection();
+        pool.reserve(2);
+        Connection second = pool.getConnection();
+        Connection third = pool.getConnection();
+        assertEquals(3, pool.getMetrics().getMaxSize());
+
+        // The borrowed connections over the maximum size are not replaced
+        pool.unreserve(2);
+        first.close();
+        try {
+            pool.getConnection();
+            fail("More connections than the maximum size");
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().startsWith("Timeout waiting"));
+        }
+        second.close();
+        third.close();
+        pool.getConnection().close();
+        assertEquals(1, pool.getMetrics().getMaxSize());
+    }
+
+    @Test
+    public void uncommittedChangesAreRolledBack() throws Exception {
+        createPool("rollback", 1, 0);
+        Connection connection = pool.getConnection();
+        connection.createStatement().execute("CREATE TABLE T (ID INT)");
+        connection.setAutoCommit(false);
+        connection.createStatement().execute("INSERT INTO T VALUES (1)");
+        connection.close();
+
+        connection = pool.getConnection();
+        assertTrue(connection.getAutoCommit());
+        ResultSet result = connection.createStatement().executeQuery(
+                "SELECT COUNT(*) FROM T");
+        result.next();
+        assertEquals(0, result.getInt(1));
+        connection.close();
+    }
+
+    @Test
+    public void invalidConnectionsAreDiscarded() throws Exception {
+        createPool("invalid", 2, 0);
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+        second.close();
+        // Closes all the connections of the database
+        first.createStatement().execute("SHUTDOWN");
+        first.close();
+
+        Connection connection = pool.getConnection();
+        assertEquals(1, queryOne(connection));
+        connection.close();
+        assertTrue(pool.getMetrics().getValidationFailures() >= 1);
+    }
+
+    @Test
+    public void leaksAreDetected() throws Exception {
+        createPool("leak", 2, 100);
+        Connection connection = pool.getConnection();
+        long limit = System.currentTimeMillis() + 5000;
+        while (pool.getMetrics().getLeaks() == 0
+                && System.currentTimeMillis() < limit) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, pool.getMetrics().getLeaks());
+        connection.close();
+    }
+
+    private static int queryOne(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery("SELECT 1");
+        result.next();
+        int value = result.getInt(1);
+        statement.close();
+        return value;
+    }
+}
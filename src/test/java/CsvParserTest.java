@@ -0,0 +1,72 @@
+package test.java;
+
+import au.com.bytecode.opencsv.CSVReader;
+import main.java.CsvParser;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the csv parser returns the same rows as opencsv.
+ */
+public class CsvParserTest {
+
+    private static final String SPECIAL_CASES = "name,comment,value\r\n"
+            + "john,\"hello, world\",1\r\n"
+            + "\n"
+            + "mary,\"say \"\"hi\"\"\",2\n"
+            + "peter,\"two\nlines\",3\r"
+            + "anne,ab\"cd\"ef,4\n"
+            + "\"esc \\\" and \\\\\",out\\side,5\n"
+            + "last,,";
+
+    @Test
+    public void specialCases() throws Exception {
+        File csv = TestFiles.createFile("parser", ".csv", SPECIAL_CASES);
+        assertSameRows(csv, true, ',', '"', 0);
+        assertSameRows(csv, false, ',', '"', 0);
+        assertSameRows(csv, false, ';', '\'', 0);
+    }
+
+    @Test
+    public void chunksKeepTheFileOrder() throws Exception {
+        StringBuilder content = new StringBuilder("id,text\n");
+        for (int i = 0; i < 5000; i++) {
+            content.append(i).append(",\"row ").append(i);
+            if (i % 7 == 0) {
+                content.append("\nsecond line, \"\"quoted\"\"");
+            }
+            content.append("\"\n");
+        }
+        File csv = TestFiles.createFile("parser", ".csv",
+                content.toString());
+        // Small chunks, so quoted line breaks are found near the limits
+        assertSameRows(csv, true, ',', '"', 100);
+        assertSameRows(csv, true, ',', '"', 4096);
+    }
+
+    private static void assertSameRows(File csv, boolean header,
+                                       char separator, char quotechar, int chunkSize) throws Exception {
+        ArrayList<ArrayList<String>> expected = new ArrayList<ArrayList<String>>();
+        CSVReader reader = new CSVReader(new FileReader(csv), separator,
+                quotechar, '\\', header ? 1 : 0);
+        String[] nextLine;
+        while ((nextLine = reader.readNext()) != null) {
+            expected.add(new ArrayList<String>(Arrays.asList(nextLine)));
+        }
+        reader.close();
+
+        CsvParser parser = new CsvParser(csv.getPath(), header, separator,
+                quotechar, chunkSize);
+        try {
+            assertEquals(expected, parser.parseAll());
+        } finally {
+            parser.close();
+        }
+    }
+}
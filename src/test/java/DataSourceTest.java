@@ -0,0 +1,130 @@
+package test.java;
+
+import main.java.BasicTestCase;
+import main.java.DataSource;
+import main.java.RowIterator;
+import main.java.excelUtils;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the row by row reading of the data files.
+ */
+public class DataSourceTest {
+
+    /**
+     * Data driven test class used by the tests
+     */
+    public static class RowRecorder extends BasicTestCase {
+        public ArrayList<String> calls = new ArrayList<String>();
+
+        public void check(String user, String age) {
+            calls.add(user);
+            if (user.equals("fail")) {
+                throw new IllegalStateException("wrong user");
+            }
+        }
+    }
+
+    @Test
+    public void excelRowsEqualToFileData() throws Exception {
+        String filePath = createExcel(5000);
+        checkSameRows(filePath);
+    }
+
+    @Test
+    public void csvRowsEqualToFileData() throws Exception {
+        String filePath = TestFiles.createFile("datasource", ".csv",
+                "user,age\njohn,33\n\"mary, jr\",21\n").getPath();
+        checkSameRows(filePath);
+    }
+
+    @Test
+    public void excelReadingCanBeClosedBeforeTheEnd() throws Exception {
+        String filePath = createExcel(5000);
+        RowIterator rows =
+                excelUtils.getDataSource(filePath, 0, true, ',', '"').open();
+        assertTrue(rows.hasNext());
+        assertEquals("user 1", rows.next().get(0));
+        rows.close();
+        assertFalse(rows.hasNext());
+        assertNull(rows.getError());
+    }
+
+    @Test
+    public void fileTestExecutionReportsFailedRows() throws Exception {
+        String filePath = TestFiles.createFile("datasource", ".csv",
+                "user,age\njohn,33\nfail,21\nmary,40\n").getPath();
+        RowRecorder recorder = new RowRecorder();
+        ArrayList<String> errors = excelUtils.fileTestExecution(recorder,
+                "check", filePath, 0, true, ',', '"');
+
+        assertEquals(3, recorder.calls.size());
+        assertEquals(1, errors.size());
+        assertEquals("Error in row 2 of 3: wrong user", errors.get(0));
+    }
+
+    @Test
+    public void abortedExecutionDoesNotCountTheRows() throws Exception {
+        String filePath = TestFiles.createFile("datasource", ".csv",
+                "user,age\nfail,21\nmary,40,extra\njohn,33\n").getPath();
+        RowRecorder recorder = new RowRecorder();
+        ArrayList<String> errors = excelUtils.fileTestExecution(recorder,
+                "check", filePath, 0, true, ',', '"');
+
+        assertEquals(1, recorder.calls.size());
+        assertEquals(2, errors.size());
+        assertEquals("Error in row 1: wrong user", errors.get(0));
+        assertEquals("The method name (check) or the number of paramaters "
+                + "(3) are wrong", errors.get(1));
+    }
+
+    @Test
+    public void fileTestExecutionWithoutData() throws Exception {
+        String filePath = TestFiles.createFile("datasource", ".csv",
+                "user,age\n").getPath();
+        ArrayList<String> errors = excelUtils.fileTestExecution(
+                new RowRecorder(), "check", filePath, 0, true, ',', '"');
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).startsWith("There are no data"));
+    }
+
+    private void checkSameRows(String filePath) {
+        ArrayList<ArrayList<String>> expected =
+                excelUtils.getFileData(filePath, 0, true, ',', '"');
+        DataSource source = excelUtils.getDataSource(filePath, 0, true, ',', '"');
+        ArrayList<ArrayList<String>> read = new ArrayList<ArrayList<String>>();
+        RowIterator rows = source.open();
+        while (rows.hasNext()) {
+            read.add(rows.next());
+        }
+        rows.close();
+        assertNull(rows.getError());
+        assertEquals(expected, read);
+    }
+
+    private String createExcel(int rows) throws Exception {
+        XSSFWorkbook wb = new XSSFWorkbook();
+        Sheet sheet = wb.createSheet();
+        Row row = sheet.createRow(0);
+        row.createCell(0).setCellValue("user");
+        row.createCell(1).setCellValue("age");
+        for (int r = 1; r <= rows; r++) {
+            row = sheet.createRow(r);
+            row.createCell(0).setCellValue("user " + r);
+            row.createCell(1).setCellValue(r);
+        }
+        File file = TestFiles.createFile("datasource", ".xlsx", wb);
+        return file.getPath();
+    }
+}
@@ -0,0 +1,120 @@
+package test.java;
+
+import main.java.DatasetCache;
+import main.java.excelUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the memory and disk levels of the data cache.
+ */
+public class DatasetCacheTest {
+
+    private File cacheFolder;
+
+    @Before
+    public void enableCache() throws Exception {
+        cacheFolder = File.createTempFile("datacache", "");
+        cacheFolder.delete();
+        System.setProperty("qa.datacache.enabled", "true");
+        System.setProperty("qa.datacache.path", cacheFolder.getPath());
+        DatasetCache.clearMemory();
+    }
+
+    @After
+    public void disableCache() {
+        System.clearProperty("qa.datacache.enabled");
+        System.clearProperty("qa.datacache.path");
+        DatasetCache.clearMemory();
+    }
+
+    @Test
+    public void filesAreReadOnce() throws Exception {
+        File csv = TestFiles.createFile("datacache", ".csv",
+                "user,age\njohn,33\nmary,21\n");
+        String filePath = csv.getPath();
+        long memoryHits = DatasetCache.getMemoryHits();
+        long diskHits = DatasetCache.getDiskHits();
+        long misses = DatasetCache.getMisses();
+
+        ArrayList<ArrayList<String>> first =
+                excelUtils.getFileData(filePath, 0, true, ',', '"');
+        assertEquals(misses + 1, DatasetCache.getMisses());
+        assertEquals("mary", first.get(1).get(0));
+
+        // Memory level, the returned data can be modified
+        first.get(0).set(0, "changed");
+        assertEquals(first.get(1),
+                excelUtils.getFileData(filePath, 0, true, ',', '"').get(1));
+        assertEquals("john",
+                excelUtils.getFileData(filePath, 0, true, ',', '"').get(0).get(0));
+        assertEquals(memoryHits + 2, DatasetCache.getMemoryHits());
+
+        // Disk level, as in a new execution
+        DatasetCache.clearMemory();
+        ArrayList<ArrayList<String>> fromDisk =
+                excelUtils.getFileData(filePath, 0, true, ',', '"');
+        assertEquals(diskHits + 1, DatasetCache.getDiskHits());
+        assertEquals("mary", fromDisk.get(1).get(0));
+        assertEquals(2, fromDisk.size());
+
+        // Other reading parameters
+        excelUtils.getFileData(filePath, 0, false, ',', '"');
+        assertEquals(misses + 2, DatasetCache.getMisses());
+
+        // Modified file
+        csv.setLastModified(csv.lastModified() + 2000);
+        excelUtils.getFileData(filePath, 0, true, ',', '"');
+        assertEquals(misses + 3, DatasetCache.getMisses());
+    }
+
+    @Test
+    public void excelPropertiesAndLengthAreInTheKey() throws Exception {
+        File csv = TestFiles.createFile("datacache", ".csv",
+                "user,age\njohn,33\n");
+        String filePath = csv.getPath();
+        long lastModified = csv.lastModified();
+        long misses = DatasetCache.getMisses();
+
+        excelUtils.getFileData(filePath, 0, true, ',', '"');
+        System.setProperty("qa.excel.evaluateformulas", "true");
+        try {
+            excelUtils.getFileData(filePath, 0, true, ',', '"');
+        } finally {
+            System.clearProperty("qa.excel.evaluateformulas");
+        }
+        assertEquals(misses + 2, DatasetCache.getMisses());
+
+        // Rewritten in the same second
+        FileWriter out = new FileWriter(csv);
+        out.write("user,age\njohn,33\nmary,21\n");
+        out.close();
+        csv.setLastModified(lastModified);
+        ArrayList<ArrayList<String>> data =
+                excelUtils.getFileData(filePath, 0, true, ',', '"');
+        assertEquals(misses + 3, DatasetCache.getMisses());
+        assertEquals(2, data.size());
+    }
+
+    @Test
+    public void oldVersionsAreDeleted() throws Exception {
+        File csv = TestFiles.createFile("datacache", ".csv",
+                "user,age\njohn,33\n");
+        String filePath = csv.getPath();
+        excelUtils.getFileData(filePath, 0, true, ',', '"');
+        excelUtils.getFileData(filePath, 0, false, ',', '"');
+        assertEquals(2, cacheFolder.listFiles().length);
+
+        csv.setLastModified(csv.lastModified() + 2000);
+        excelUtils.getFileData(filePath, 0, true, ',', '"');
+        // The snapshot of the other reading is kept
+        assertEquals(2, cacheFolder.listFiles().length);
+    }
+}
@@ -0,0 +1,161 @@
+package test.java;
+
+import main.java.DriverHolder;
+import main.java.HtmlTestCase;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.htmlunit.HtmlUnitDriver;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the driver of each thread.
+ */
+public class DriverHolderTest {
+
+    private static final Map<String, String> timeoutThreads =
+            new ConcurrentHashMap<String, String>();
+
+    /**
+     * Tests whose body is run by the JUnit timeout thread
+     */
+    public static class TimeoutTests extends HtmlTestCase {
+        @Test(timeout = 60000)
+        public void commandInTimeoutThread() {
+            driver.get("about:blank");
+            timeoutThreads.put(Thread.currentThread().getName(),
+                    driver.getCurrentUrl());
+        }
+    }
+
+    @After
+    public void quitDriver() {
+        DriverHolder.quit();
+        DriverHolder.setStarter(null);
+        System.clearProperty("qa.browser");
+        System.clearProperty("qa.driver.lazy");
+        System.clearProperty("qa.driver.reuse");
+    }
+
+    @Test
+    public void getRealDriverReturnsTheRealDriver() {
+        HtmlTestCase test = new HtmlTestCase();
+        assertNull(test.getRealDriver());
+
+        HtmlUnitDriver realDriver = new HtmlUnitDriver(true);
+        DriverHolder.set(realDriver);
+        // The driver can be cast to its class
+        assertSame(realDriver, (HtmlUnitDriver) test.getRealDriver());
+        assertSame(realDriver, HtmlTestCase.driver);
+    }
+
+    @Test
+    public void getDriverDoesNotStartTheLazyDriver() {
+        final AtomicBoolean started = new AtomicBoolean();
+        DriverHolder.setStarter(new Callable<Void>() {
+            public Void call() {
+                started.set(true);
+                return null;
+            }
+        });
+        HtmlTestCase test = new HtmlTestCase();
+
+        assertSame(DriverHolder.getProxy(), test.getDriver());
+        assertFalse(started.get());
+    }
+
+    @Test
+    public void threadsShareTheDriverOfTheTestThread() throws Exception {
+        DriverHolder.set(new HtmlUnitDriver(true));
+        final AtomicReference<WebDriver> childDriver =
+                new AtomicReference<WebDriver>();
+        Thread child = new Thread(new Runnable() {
+            public void run() {
+                childDriver.set(DriverHolder.get());
+            }
+        });
+        child.start();
+        child.join();
+
+        assertNotNull(childDriver.get());
+        assertSame(DriverHolder.get(), childDriver.get());
+    }
+
+    @Test
+    public void isolatedThreadsHaveTheirOwnDriver() throws Exception {
+        WebDriver testDriver = new HtmlUnitDriver(true);
+        DriverHolder.set(testDriver);
+        final AtomicReference<WebDriver> childDriver =
+                new AtomicReference<WebDriver>();
+        Thread child = new Thread(new Runnable() {
+            public void run() {
+                DriverHolder.isolate();
+                childDriver.set(DriverHolder.get());
+                DriverHolder.set(new HtmlUnitDriver(true));
+                DriverHolder.quit();
+            }
+        });
+        child.start();
+        child.join();
+
+        assertNull(childDriver.get());
+        assertSame(testDriver, DriverHolder.get());
+        assertSame(testDriver, HtmlTestCase.driver);
+    }
+
+    @Test
+    public void proxyQuitDoesNotStartTheLazyDriver() {
+        final AtomicBoolean started = new AtomicBoolean();
+        DriverHolder.setStarter(new Callable<Void>() {
+            public Void call() {
+                started.set(true);
+                return null;
+            }
+        });
+        assertSame(DriverHolder.getProxy(), HtmlTestCase.driver);
+        HtmlTestCase.driver.quit();
+        HtmlTestCase.driver.close();
+
+        assertFalse(started.get());
+        assertNull(DriverHolder.get());
+    }
+
+    @Test
+    public void timeoutThreadUsesTheDriverOfTheTest() {
+        checkTimeoutThread();
+    }
+
+    @Test
+    public void timeoutThreadStartsTheLazyDriverOfTheTest() {
+        System.setProperty("qa.driver.lazy", "true");
+        checkTimeoutThread();
+    }
+
+    private void checkTimeoutThread() {
+        System.setProperty("qa.browser", "htmlunit");
+        System.setProperty("qa.driver.reuse", "false");
+        timeoutThreads.clear();
+        Result result = new JUnitCore().run(TimeoutTests.class);
+
+        assertTrue(result.getFailures().toString(), result.wasSuccessful());
+        assertEquals(1, timeoutThreads.size());
+        assertFalse(timeoutThreads.containsKey(Thread.currentThread().getName()));
+        assertEquals("about:blank", timeoutThreads.values().iterator().next());
+        // The driver started by the timeout thread is stopped by the test
+        assertNull(DriverHolder.get());
+    }
+}
@@ -0,0 +1,62 @@
+package test.java;
+
+import main.java.DriverHolder;
+import org.openqa.selenium.Cookie;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.htmlunit.HtmlUnitDriver;
+
+/**
+ * Benchmark of the preparation of the driver of each test.
+ * <p/>
+ * Compares starting a new browser for each test (qa.driver.reuse = false)
+ * with reusing the browser and resetting its state (qa.driver.reuse = true
+ * and qa.driver.reset = true). Each simulated test leaves a cookie and an
+ * opened page. It uses HtmlUnit, the startup of the real browsers is much
+ * slower.
+ * Run the main method with the test classpath, i.e.
+ * java -cp target/test-classes:target/classes test.java.DriverResetBenchmark
+ */
+public class DriverResetBenchmark {
+
+    private static final int TESTS = 200;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        for (int round = 1; round <= ROUNDS; round++) {
+            long fresh = freshDrivers();
+            long reset = resetDriver();
+            System.out.println("Round " + round + ": new driver per test "
+                    + fresh / TESTS / 1000 + " us/test, reset driver "
+                    + reset / TESTS / 1000 + " us/test");
+        }
+    }
+
+    private static long freshDrivers() {
+        long start = System.nanoTime();
+        for (int i = 0; i < TESTS; i++) {
+            WebDriver driver = new HtmlUnitDriver(true);
+            simulateTest(driver, i);
+            driver.quit();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long resetDriver() {
+        long start = System.nanoTime();
+        WebDriver driver = new HtmlUnitDriver(true);
+        for (int i = 0; i < TESTS; i++) {
+            DriverHolder.reset(driver);
+            simulateTest(driver, i);
+        }
+        driver.quit();
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Opens a page and leaves state for the next test
+     */
+    private static void simulateTest(WebDriver driver, int test) {
+        driver.get("about:blank");
+        driver.manage().addCookie(new Cookie("test", String.valueOf(test)));
+    }
+}
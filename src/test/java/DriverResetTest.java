@@ -0,0 +1,141 @@
+package test.java;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import main.java.DriverHolder;
+import main.java.HtmlTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runners.MethodSorters;
+import org.openqa.selenium.Cookie;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.htmlunit.HtmlUnitDriver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the reset of the reused drivers between tests.
+ */
+public class DriverResetTest {
+
+    private static final List<WebDriver> usedDrivers = new ArrayList<WebDriver>();
+
+    private static String pageUrl;
+
+    private HttpServer server;
+
+    /**
+     * Tests that share the reused driver
+     */
+    @FixMethodOrder(MethodSorters.NAME_ASCENDING)
+    public static class ReusedDriverTests extends HtmlTestCase {
+        @Test
+        public void test1LeavesState() {
+            usedDrivers.add(DriverHolder.get());
+            driver.get(pageUrl);
+            driver.manage().addCookie(new Cookie("session", "1"));
+            ((JavascriptExecutor) driver).executeScript(
+                    "window.localStorage.setItem('user', 'john');"
+                            + "window.open('" + pageUrl + "', 'extra');");
+            assertEquals(1, driver.manage().getCookies().size());
+            assertEquals("john", ((JavascriptExecutor) driver).executeScript(
+                    "return window.localStorage.getItem('user');"));
+            assertEquals(2, driver.getWindowHandles().size());
+        }
+
+        @Test
+        public void test2StartsClean() {
+            usedDrivers.add(DriverHolder.get());
+            assertEquals(1, driver.getWindowHandles().size());
+            driver.get(pageUrl);
+            assertTrue("Cookies of the previous test: "
+                    + driver.manage().getCookies(),
+                    driver.manage().getCookies().isEmpty());
+            assertNull(((JavascriptExecutor) driver).executeScript(
+                    "return window.localStorage.getItem('user');"));
+        }
+    }
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/page", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] response = "<html><body><p>page</p></body></html>"
+                        .getBytes("UTF-8");
+                exchange.getResponseHeaders().add("Content-Type",
+                        "text/html");
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        server.start();
+        pageUrl = "http://127.0.0.1:" + server.getAddress().getPort()
+                + "/page";
+    }
+
+    @After
+    public void stopDriver() {
+        DriverHolder.quit();
+        System.clearProperty("qa.driver.reuse");
+        System.clearProperty("qa.driver.reset");
+        server.stop(0);
+    }
+
+    @Test
+    public void reusedDriverIsReset() {
+        System.setProperty("qa.driver.reuse", "true");
+        System.setProperty("qa.driver.reset", "true");
+        usedDrivers.clear();
+        Result result = new JUnitCore().run(ReusedDriverTests.class);
+
+        assertTrue(result.getFailures().toString(), result.wasSuccessful());
+        assertEquals(2, usedDrivers.size());
+        assertSame(usedDrivers.get(0), usedDrivers.get(1));
+    }
+
+    @Test
+    public void reusedDriverKeepsTheStateWithoutReset() {
+        System.setProperty("qa.driver.reuse", "true");
+        System.setProperty("qa.driver.reset", "false");
+        usedDrivers.clear();
+        Result result = new JUnitCore().run(ReusedDriverTests.class);
+
+        assertFalse(result.wasSuccessful());
+        assertEquals(1, result.getFailureCount());
+        assertSame(usedDrivers.get(0), usedDrivers.get(1));
+    }
+
+    @Test
+    public void deadDriverIsReplaced() {
+        System.setProperty("qa.driver.reuse", "true");
+        System.setProperty("qa.driver.reset", "true");
+        usedDrivers.clear();
+        HtmlTestCase test = new HtmlTestCase();
+        WebDriver dead = new HtmlUnitDriver();
+        dead.quit();
+        test.setDriver(dead);
+        Result result = new JUnitCore().run(ReusedDriverTests.class);
+
+        assertTrue(result.getFailures().toString(), result.wasSuccessful());
+        assertTrue(usedDrivers.get(0) != dead);
+    }
+}
@@ -0,0 +1,205 @@
+package test.java;
+
+import main.java.ExcelStreamReader;
+import main.java.RowHandler;
+import main.java.excelUtils;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the streaming excel reader returns the same rows as the
+ * workbook reader.
+ */
+public class ExcelStreamReaderTest {
+
+    @After
+    public void clearStreaming() {
+        System.clearProperty("qa.excel.streaming");
+    }
+
+    @Test
+    public void xlsxSameDataAsWorkbook() throws Exception {
+        checkSameData(createFile(new XSSFWorkbook(), ".xlsx"));
+    }
+
+    @Test
+    public void xlsSameDataAsWorkbook() throws Exception {
+        checkSameData(createFile(new HSSFWorkbook(), ".xls"));
+    }
+
+    @Test
+    public void handlerStopsReading() throws Exception {
+        String filePath = createFile(new XSSFWorkbook(), ".xlsx");
+        final ArrayList<ArrayList<String>> rows =
+                new ArrayList<ArrayList<String>>();
+        ExcelStreamReader.read(filePath, 1, false, new RowHandler() {
+            public boolean handleRow(ArrayList<String> rowData) {
+                rows.add(rowData);
+                return rows.size() < 2;
+            }
+        });
+        assertEquals(2, rows.size());
+    }
+
+    @Test
+    public void xlsxHeaderDoesNotWidenTheRows() throws Exception {
+        checkHeaderWiderThanData(new XSSFWorkbook(), ".xlsx");
+    }
+
+    @Test
+    public void xlsHeaderDoesNotWidenTheRows() throws Exception {
+        checkHeaderWiderThanData(new HSSFWorkbook(), ".xls");
+    }
+
+    @Test
+    public void xlsxIsoDatesAndEmptyStringsAreRead() throws Exception {
+        XSSFWorkbook wb = new XSSFWorkbook();
+        wb.createSheet("data").createRow(0).createCell(0).setCellValue("date");
+        File file = TestFiles.createFile("stream", ".xlsx", wb);
+        // POI does not write ISO 8601 dates, the sheet xml is replaced
+        replaceZipEntry(file, "xl/worksheets/sheet1.xml", "<?xml version=\"1.0\" "
+                + "encoding=\"UTF-8\"?><worksheet xmlns=\"http://schemas."
+                + "openxmlformats.org/spreadsheetml/2006/main\"><sheetData>"
+                + "<row r=\"1\"><c r=\"A1\" t=\"s\"><v>0</v></c>"
+                + "<c r=\"B1\" t=\"s\"><v>0</v></c></row>"
+                + "<row r=\"2\"><c r=\"A2\" t=\"d\"><v>2024-01-15T00:00:00</v>"
+                + "</c><c r=\"B2\" t=\"s\"><v></v></c></row>"
+                + "</sheetData></worksheet>");
+
+        final ArrayList<ArrayList<String>> rows =
+                new ArrayList<ArrayList<String>>();
+        ExcelStreamReader.read(file.getPath(), 0, true, new RowHandler() {
+            public boolean handleRow(ArrayList<String> rowData) {
+                rows.add(rowData);
+                return true;
+            }
+        });
+        assertEquals("[[2024-01-15T00:00:00, ]]", rows.toString());
+    }
+
+    /**
+     * Replaces the content of an entry of a zip file
+     */
+    private static void replaceZipEntry(File file, String name, String content)
+            throws Exception {
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        ZipInputStream in = new ZipInputStream(new FileInputStream(file));
+        ZipOutputStream out = new ZipOutputStream(copy);
+        try {
+            byte[] buffer = new byte[4096];
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                if (entry.getName().equals(name)) {
+                    out.write(content.getBytes("UTF-8"));
+                } else {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+                out.closeEntry();
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+        FileOutputStream fileOut = new FileOutputStream(file);
+        try {
+            fileOut.write(copy.toByteArray());
+        } finally {
+            fileOut.close();
+        }
+    }
+
+    /**
+     * The header has a comments column without data, the rows have the
+     * width of the data rows with both readers
+     */
+    private void checkHeaderWiderThanData(Workbook wb, String extension)
+            throws Exception {
+        Sheet sheet = wb.createSheet("data");
+        Row row = sheet.createRow(0);
+        row.createCell(0).setCellValue("user");
+        row.createCell(1).setCellValue("age");
+        row.createCell(2).setCellValue("comments");
+        row = sheet.createRow(1);
+        row.createCell(0).setCellValue("john");
+        row = sheet.createRow(2);
+        row.createCell(0).setCellValue("mary");
+        row.createCell(1).setCellValue(21);
+        String filePath = TestFiles.createFile("stream", extension, wb)
+                .getPath();
+
+        System.setProperty("qa.excel.streaming", "false");
+        ArrayList<ArrayList<String>> expected =
+                excelUtils.getFileData(filePath, 0, true, ',', '"');
+        System.setProperty("qa.excel.streaming", "true");
+        ArrayList<ArrayList<String>> streamed =
+                excelUtils.getFileData(filePath, 0, true, ',', '"');
+        assertEquals(expected, streamed);
+        assertEquals("[john, ]", streamed.get(0).toString());
+        assertEquals("[mary, 21.0]", streamed.get(1).toString());
+    }
+
+    private void checkSameData(String filePath) {
+        for (int sheet = 0; sheet < 2; sheet++) {
+            for (boolean header : new boolean[]{false, true}) {
+                System.setProperty("qa.excel.streaming", "false");
+                ArrayList<ArrayList<String>> expected =
+                        excelUtils.getFileData(filePath, sheet, header, ',', '"');
+                System.setProperty("qa.excel.streaming", "true");
+                ArrayList<ArrayList<String>> streamed =
+                        excelUtils.getFileData(filePath, sheet, header, ',', '"');
+                assertEquals("Sheet " + sheet + ", header " + header,
+                        expected, streamed);
+            }
+        }
+    }
+
+    /**
+     * Creates a workbook with strings, numbers and empty cells in two sheets
+     */
+    private String createFile(Workbook wb, String extension) throws Exception {
+        Sheet first = wb.createSheet("first");
+        Row row = first.createRow(0);
+        row.createCell(0).setCellValue("user");
+        row.createCell(1).setCellValue("age");
+        row.createCell(2).setCellValue("city");
+        row = first.createRow(1);
+        row.createCell(0).setCellValue("john");
+        row.createCell(1).setCellValue(33);
+        row.createCell(2).setCellValue("Madrid");
+        row = first.createRow(2);
+        row.createCell(0).setCellValue("mary");
+        row.createCell(2).setCellValue("Berlin");
+        row = first.createRow(3);
+        row.createCell(1).setCellValue(1.5);
+
+        Sheet second = wb.createSheet("second");
+        for (int r = 0; r < 300; r++) {
+            row = second.createRow(r);
+            row.createCell(0).setCellValue("value " + r);
+            row.createCell(1).setCellValue(r);
+        }
+
+        File file = TestFiles.createFile("stream", extension, wb);
+        return file.getPath();
+    }
+}
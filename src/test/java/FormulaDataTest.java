@@ -0,0 +1,139 @@
+package test.java;
+
+import main.java.BasicTestCase;
+import main.java.excelUtils;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the formulas of the data files are evaluated.
+ */
+public class FormulaDataTest {
+
+    /**
+     * Data driven test class that checks the evaluated formulas
+     */
+    public static class DoubleChecker extends BasicTestCase {
+        public int rows = 0;
+
+        public void check(String value, String doubled) {
+            rows++;
+            if (Double.parseDouble(doubled) != 2 * Double.parseDouble(value)) {
+                throw new IllegalStateException(doubled + " is not the double "
+                        + "of " + value);
+            }
+        }
+    }
+
+    @After
+    public void clearEvaluation() {
+        System.clearProperty("qa.excel.evaluateformulas");
+    }
+
+    @Test
+    public void dataDrivenTestsEvaluateStaleXlsxFormulas() throws Exception {
+        System.setProperty("qa.excel.evaluateformulas", "true");
+        ArrayList<String> errors = runStaleFormulas(new XSSFWorkbook(),
+                ".xlsx");
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    @Test
+    public void dataDrivenTestsEvaluateStaleXlsFormulas() throws Exception {
+        System.setProperty("qa.excel.evaluateformulas", "true");
+        ArrayList<String> errors = runStaleFormulas(new HSSFWorkbook(),
+                ".xls");
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    @Test
+    public void dataDrivenTestsUseTheCachedResultsByDefault()
+            throws Exception {
+        ArrayList<String> errors = runStaleFormulas(new XSSFWorkbook(),
+                ".xlsx");
+        assertEquals(5, errors.size());
+        assertEquals("Error in row 1 of 5: 2.0 is not the double of 10.0",
+                errors.get(0));
+    }
+
+    /**
+     * Runs a data driven test with formulas whose cached results are not
+     * the current ones
+     *
+     * @return the errors of the test
+     */
+    private ArrayList<String> runStaleFormulas(Workbook wb, String extension)
+            throws Exception {
+        Sheet data = wb.createSheet("data");
+        Row row = data.createRow(0);
+        row.createCell(0).setCellValue("value");
+        row.createCell(1).setCellValue("doubled");
+        for (int r = 1; r <= 5; r++) {
+            row = data.createRow(r);
+            row.createCell(0).setCellValue(r);
+            row.createCell(1).setCellFormula("A" + (r + 1) + "*2");
+        }
+        // The cached results are saved and then the values are changed
+        // without evaluating the formulas again
+        FormulaEvaluator evaluator =
+                wb.getCreationHelper().createFormulaEvaluator();
+        for (int r = 1; r <= 5; r++) {
+            evaluator.evaluateFormulaCell(data.getRow(r).getCell(1));
+            data.getRow(r).getCell(0).setCellValue(r * 10);
+        }
+        File file = TestFiles.createFile("stale", extension, wb);
+
+        DoubleChecker checker = new DoubleChecker();
+        ArrayList<String> errors = excelUtils.fileTestExecution(checker,
+                "check", file.getPath(), 0, true, ',', '"');
+
+        assertEquals(5, checker.rows);
+        return errors;
+    }
+
+    @Test
+    public void crossSheetFormulasAreEvaluated() throws Exception {
+        // The workbook is saved without evaluating, there are no cached
+        // results
+        XSSFWorkbook wb = new XSSFWorkbook();
+        Sheet data = wb.createSheet("data");
+        Sheet prices = wb.createSheet("prices");
+        for (int r = 0; r < 3; r++) {
+            Row row = prices.createRow(r);
+            row.createCell(0).setCellValue("item" + r);
+            row.createCell(1).setCellValue(10 * (r + 1));
+        }
+        Row row = data.createRow(0);
+        row.createCell(0).setCellValue("item");
+        row.createCell(1).setCellValue("total");
+        row.createCell(2).setCellValue("label");
+        for (int r = 1; r <= 3; r++) {
+            row = data.createRow(r);
+            row.createCell(0).setCellValue("item" + (r - 1));
+            row.createCell(1).setCellFormula(
+                    "VLOOKUP(A" + (r + 1) + ",prices!$A$1:$B$3,2,FALSE)*2");
+            row.createCell(2).setCellFormula(
+                    "UPPER(A" + (r + 1) + ")&\"-\"&SUM(prices!$B$1:$B$3)");
+        }
+        File file = TestFiles.createFile("formulas", ".xlsx", wb);
+
+        ArrayList<ArrayList<String>> rows =
+                excelUtils.getFileData(file.getPath(), 0, true, ',', '"');
+        assertEquals(3, rows.size());
+        assertEquals("20.0", rows.get(0).get(1));
+        assertEquals("ITEM0-60", rows.get(0).get(2));
+        assertEquals("60.0", rows.get(2).get(1));
+    }
+}
@@ -0,0 +1,88 @@
+package test.java;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+/**
+ * Benchmark of the formula evaluation of a formula-dense data sheet.
+ * <p/>
+ * Each data row has several formulas that reference the same ranges of a
+ * second sheet. Compares a new FormulaEvaluator for each cell (the
+ * referenced cells are calculated again for every formula) with the
+ * evaluator shared by the whole workbook that getExcelData uses.
+ * Run the main method with the test classpath, i.e.
+ * java -cp target/test-classes:target/classes test.java.FormulaEvaluationBenchmark
+ */
+public class FormulaEvaluationBenchmark {
+
+    private static final int BASE_ROWS = 500;
+    private static final int DATA_ROWS = 1000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        for (int round = 1; round <= ROUNDS; round++) {
+            long perCell = evaluate(createWorkbook(), false);
+            long shared = evaluate(createWorkbook(), true);
+            System.out.println("Round " + round + ": evaluator per cell "
+                    + perCell / 1000000 + " ms, shared evaluator "
+                    + shared / 1000000 + " ms");
+        }
+    }
+
+    /**
+     * Evaluates all the formulas of the data sheet
+     */
+    private static long evaluate(XSSFWorkbook wb, boolean sharedEvaluator) {
+        long start = System.nanoTime();
+        FormulaEvaluator evaluator =
+                wb.getCreationHelper().createFormulaEvaluator();
+        double checksum = 0;
+        Sheet data = wb.getSheet("data");
+        for (Row row : data) {
+            for (Cell cell : row) {
+                if (cell.getCellType() != Cell.CELL_TYPE_FORMULA) {
+                    continue;
+                }
+                if (!sharedEvaluator) {
+                    evaluator = wb.getCreationHelper().createFormulaEvaluator();
+                }
+                checksum += evaluator.evaluate(cell).getNumberValue();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (checksum == 0) {
+            System.out.println("Wrong checksum");
+        }
+        return elapsed;
+    }
+
+    /**
+     * Creates a base sheet with values and a data sheet whose formulas use
+     * them
+     */
+    private static XSSFWorkbook createWorkbook() {
+        XSSFWorkbook wb = new XSSFWorkbook();
+        Sheet data = wb.createSheet("data");
+        Sheet base = wb.createSheet("base");
+        for (int r = 0; r < BASE_ROWS; r++) {
+            Row row = base.createRow(r);
+            row.createCell(0).setCellValue(r);
+            row.createCell(1).setCellFormula("A" + (r + 1) + "*1.21");
+        }
+        for (int r = 0; r < DATA_ROWS; r++) {
+            Row row = data.createRow(r);
+            int ref = r % BASE_ROWS + 1;
+            row.createCell(0).setCellValue(ref);
+            row.createCell(1).setCellFormula("SUM(base!$B$1:$B$" + BASE_ROWS
+                    + ")/A" + (r + 1));
+            row.createCell(2).setCellFormula("VLOOKUP(A" + (r + 1)
+                    + ",base!$A$1:$B$" + BASE_ROWS + ",2,FALSE)");
+            row.createCell(3).setCellFormula("AVERAGE(base!$B$1:$B$"
+                    + BASE_ROWS + ")+B" + (r + 1));
+        }
+        return wb;
+    }
+}
@@ -0,0 +1,184 @@
+package test.java;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import main.java.JiraReporter;
+import main.java.JiraStatusCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the Jira reporter against a local HTTP server.
+ */
+public class JiraReporterTest {
+
+    private HttpServer server;
+    private final List<String> requests =
+            Collections.synchronizedList(new ArrayList<String>());
+    private final Set<Integer> clientPorts =
+            Collections.synchronizedSet(new HashSet<Integer>());
+    private volatile int serverErrors = 0;
+    private String url;
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/jira", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String query = exchange.getRequestURI().getRawQuery();
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                int code = 200;
+                String body = "OK";
+                if (query.contains("jiraTestCaseId=BAD")) {
+                    code = 404;
+                    body = "<p><u>Test case not found</u></p><p>";
+                } else if (serverErrors > 0) {
+                    serverErrors--;
+                    code = 503;
+                    body = "Busy";
+                } else {
+                    requests.add(query);
+                }
+                byte[] response = body.getBytes("UTF-8");
+                exchange.sendResponseHeaders(code, response.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/jira?";
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void resultsAreSentInBackground() {
+        JiraReporter reporter = new JiraReporter(url, 100);
+        for (int i = 1; i <= 20; i++) {
+            assertTrue(reporter.report(new JiraReporter.JiraResult("QA-" + i,
+                    i % 2 == 0 ? "Pass" : "Fail", "1.0", "run " + i, false)));
+        }
+        assertTrue(reporter.flush());
+        reporter.close();
+
+        assertEquals(20, requests.size());
+        assertEquals("jiraTestCaseId=QA-1&jiraStatus=Fail&comments=run+1"
+                + "&version=1.0", requests.get(0));
+        // The connection is reused
+        assertTrue(clientPorts.toString(), clientPorts.size() < 20);
+    }
+
+    @Test
+    public void serverErrorsAreRetried() {
+        serverErrors = 2;
+        JiraReporter reporter = new JiraReporter(url, 10);
+        reporter.report(new JiraReporter.JiraResult("QA-1", "Pass", null,
+                null, true));
+        reporter.report(new JiraReporter.JiraResult("BAD", "Pass", null,
+                null, false));
+        reporter.close();
+
+        assertEquals(0, serverErrors);
+        assertEquals("[jiraTestCaseId=QA-1&jiraStatus=Pass"
+                + "&onlyIfStatusChanges=true]", requests.toString());
+    }
+
+    @Test
+    public void unchangedStatusesAreNotSent() throws Exception {
+        File file = File.createTempFile("jira-status", ".properties");
+        file.delete();
+        file.deleteOnExit();
+
+        JiraReporter reporter = new JiraReporter(url, 10,
+                JiraStatusCache.load(file));
+        reporter.report(new JiraReporter.JiraResult("QA-1", "Pass", "1.0",
+                null, true));
+        reporter.report(new JiraReporter.JiraResult("QA-2", "Fail", "1.0",
+                null, true));
+        reporter.close();
+        assertEquals(2, requests.size());
+        assertTrue(file.isFile());
+
+        // Next execution, only the changed status is sent
+        requests.clear();
+        reporter = new JiraReporter(url, 10, JiraStatusCache.load(file));
+        reporter.report(new JiraReporter.JiraResult("QA-1", "Pass", "1.0",
+                null, true));
+        reporter.report(new JiraReporter.JiraResult("QA-2", "Pass", "1.0",
+                null, true));
+        reporter.report(new JiraReporter.JiraResult("QA-1", "Pass", "2.0",
+                null, true));
+        reporter.close();
+        assertEquals("[jiraTestCaseId=QA-2&jiraStatus=Pass&version=1.0"
+                + "&onlyIfStatusChanges=true, jiraTestCaseId=QA-1"
+                + "&jiraStatus=Pass&version=2.0&onlyIfStatusChanges=true]",
+                requests.toString());
+    }
+
+    @Test
+    public void statusesQueuedAfterAChangeAreSent() throws Exception {
+        File file = File.createTempFile("jira-status", ".properties");
+        file.delete();
+        file.deleteOnExit();
+        JiraReporter reporter = new JiraReporter(url, 10,
+                JiraStatusCache.load(file));
+        reporter.report(new JiraReporter.JiraResult("QA-1", "Pass", null,
+                null, true));
+        reporter.close();
+
+        // The Pass is compared with the queued Fail, not with the cache
+        requests.clear();
+        reporter = new JiraReporter(url, 10, JiraStatusCache.load(file));
+        reporter.report(new JiraReporter.JiraResult("QA-1", "Fail", null,
+                null, true));
+        reporter.report(new JiraReporter.JiraResult("QA-1", "Pass", null,
+                null, true));
+        reporter.close();
+        assertEquals("[jiraTestCaseId=QA-1&jiraStatus=Fail"
+                + "&onlyIfStatusChanges=true, jiraTestCaseId=QA-1"
+                + "&jiraStatus=Pass&onlyIfStatusChanges=true]",
+                requests.toString());
+        assertTrue(JiraStatusCache.load(file).isUnchanged("QA-1", null,
+                "Pass"));
+    }
+
+    @Test
+    public void failedResultsDoNotStopTheReporter() throws Exception {
+        File file = File.createTempFile("jira-status", ".properties");
+        file.delete();
+        file.deleteOnExit();
+
+        JiraReporter reporter = new JiraReporter(url, 10,
+                JiraStatusCache.load(file));
+        // The status cache fails with a result without status
+        reporter.report(new JiraReporter.JiraResult("QA-1", null, null,
+                null, false));
+        assertTrue(reporter.flush());
+        reporter.report(new JiraReporter.JiraResult("QA-2", "Pass", null,
+                null, false));
+        assertTrue(reporter.flush());
+        reporter.close();
+
+        assertEquals("[jiraTestCaseId=QA-1&jiraStatus=null, "
+                + "jiraTestCaseId=QA-2&jiraStatus=Pass]", requests.toString());
+    }
+}
@@ -0,0 +1,62 @@
+package test.java;
+
+import main.java.DriverHolder;
+import main.java.HtmlTestCase;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the lazy driver is started only by the tests that use it.
+ */
+public class LazyDriverTest {
+
+    private static final Map<String, Boolean> startedDrivers =
+            new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * Tests with and without browser
+     */
+    public static class LazyTests extends HtmlTestCase {
+        @Test
+        public void backendTest() {
+            startedDrivers.put("backend", DriverHolder.get() != null);
+        }
+
+        @Test
+        public void browserTest() {
+            startedDrivers.put("beforeCommand", DriverHolder.get() != null);
+            driver.get("about:blank");
+            startedDrivers.put("browser", DriverHolder.get() != null);
+        }
+    }
+
+    @After
+    public void clearProperties() {
+        System.clearProperty("qa.driver.lazy");
+    }
+
+    @Test
+    public void driverIsStartedByTheFirstCommand() {
+        System.setProperty("qa.driver.lazy", "true");
+        startedDrivers.clear();
+        Result result = new JUnitCore().run(LazyTests.class);
+
+        assertTrue(result.getFailures().toString(), result.wasSuccessful());
+        assertEquals(2, result.getRunCount());
+        assertFalse(startedDrivers.get("backend"));
+        assertFalse(startedDrivers.get("beforeCommand"));
+        assertTrue(startedDrivers.get("browser"));
+        // The drivers are stopped after each test
+        assertNull(DriverHolder.get());
+    }
+}
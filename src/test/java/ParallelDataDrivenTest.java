@@ -0,0 +1,173 @@
+package test.java;
+
+import main.java.ConnectionPool;
+import main.java.DriverHolder;
+import main.java.HtmlTestCase;
+import main.java.RowResultListener;
+import main.java.RowShard;
+import main.java.excelUtils;
+import org.junit.Test;
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebDriver;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a csv test in parallel with HtmlUnit drivers.
+ */
+public class ParallelDataDrivenTest extends HtmlTestCase {
+
+    private static final List<Integer> usedDrivers =
+            Collections.synchronizedList(new ArrayList<Integer>());
+
+    private static final List<Integer> usedConnections =
+            Collections.synchronizedList(new ArrayList<Integer>());
+
+    private static String pageUrl;
+
+    @Test
+    public void rowsRunInParallelDrivers() throws Exception {
+        pageUrl = TestFiles.createFile("parallel", ".html",
+                "<html><body><p id='message'>hello</p></body></html>")
+                .toURI().toString();
+        StringBuilder csv = new StringBuilder("row,expected\n");
+        for (int i = 1; i <= 12; i++) {
+            csv.append(i).append(',').append(i == 5 ? "bye" : "hello").append('\n');
+        }
+        String filePath = TestFiles.createFile("parallel", ".csv",
+                csv.toString()).getPath();
+
+        ArrayList<String> errors = excelUtils.fileTestExecution(this,
+                "checkMessage", filePath, 0, true, ',', '"', 3);
+
+        assertEquals(12, usedDrivers.size());
+        Set<Integer> drivers = new HashSet<Integer>(usedDrivers);
+        assertTrue("Drivers used: " + drivers.size(), drivers.size() > 1);
+        assertTrue(drivers.size() <= 3);
+        assertEquals(1, errors.size());
+        assertEquals("Error in row 5 of 12: Expected 'bye' but found 'hello'",
+                errors.get(0));
+    }
+
+    @Test
+    public void failingListenerDoesNotStopTheThreads() throws Exception {
+        pageUrl = TestFiles.createFile("parallel", ".html",
+                "<html><body><p id='message'>hello</p></body></html>")
+                .toURI().toString();
+        StringBuilder csv = new StringBuilder("row,expected\n");
+        for (int i = 1; i <= 12; i++) {
+            csv.append(i).append(",hello\n");
+        }
+        String filePath = TestFiles.createFile("parallel", ".csv",
+                csv.toString()).getPath();
+        final AtomicInteger reported = new AtomicInteger();
+        RowResultListener listener = new RowResultListener() {
+            public void rowExecuted(int rowNumber, ArrayList<String> rowData,
+                                    String error, long duration) {
+                reported.incrementAndGet();
+                throw new IllegalStateException("Listener error");
+            }
+        };
+
+        ArrayList<String> errors = excelUtils.fileTestExecution(this,
+                "checkMessage", filePath, 0, true, ',', '"', 2, RowShard.ALL,
+                listener);
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(12, reported.get());
+    }
+
+    @Test
+    public void threadsBorrowTheirOwnConnections() throws Exception {
+        enableDatabase();
+        try {
+            checkConnections(8, 2);
+        } finally {
+            disableDatabase();
+        }
+    }
+
+    @Test
+    public void threadsOverThePoolSizeBorrowReservedConnections()
+            throws Exception {
+        enableDatabase();
+        try {
+            checkConnections(12, 6);
+            assertEquals(2, ConnectionPool.getDefault().getMetrics()
+                    .getMaxSize());
+        } finally {
+            disableDatabase();
+        }
+    }
+
+    private void checkConnections(int rows, int threads) throws Exception {
+        StringBuilder csv = new StringBuilder("row\n");
+        for (int i = 1; i <= rows; i++) {
+            csv.append(i).append('\n');
+        }
+        String filePath = TestFiles.createFile("parallel", ".csv",
+                csv.toString()).getPath();
+        usedConnections.clear();
+
+        ArrayList<String> errors = excelUtils.fileTestExecution(this,
+                "checkConnection", filePath, 0, true, ',', '"', threads);
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(rows, usedConnections.size());
+        assertTrue(new HashSet<Integer>(usedConnections).size() <= threads);
+    }
+
+    /**
+     * Enables the database of the default pool, smaller than the threads of
+     * some tests and with a short timeout so the waits fail fast
+     */
+    private static void enableDatabase() {
+        System.setProperty("qa.database.enabled", "true");
+        System.setProperty("qa.database.drivername", "org.h2.Driver");
+        System.setProperty("qa.database.url",
+                "jdbc:h2:mem:parallel;DB_CLOSE_DELAY=-1");
+        System.setProperty("qa.database.username", "sa");
+        System.setProperty("qa.database.password", "");
+        System.setProperty("qa.database.pool.maxsize", "2");
+        System.setProperty("qa.database.pool.timeout", "5");
+    }
+
+    private static void disableDatabase() {
+        System.clearProperty("qa.database.enabled");
+        System.clearProperty("qa.database.drivername");
+        System.clearProperty("qa.database.url");
+        System.clearProperty("qa.database.username");
+        System.clearProperty("qa.database.password");
+        System.clearProperty("qa.database.pool.maxsize");
+        System.clearProperty("qa.database.pool.timeout");
+    }
+
+    public void checkConnection(String row) throws Exception {
+        Connection connection = getDbconnection();
+        if (connection == null || connection.isClosed()) {
+            throw new IllegalStateException("No database connection");
+        }
+        usedConnections.add(System.identityHashCode(connection));
+    }
+
+    public void checkMessage(String row, String expected) {
+        WebDriver threadDriver = DriverHolder.get();
+        usedDrivers.add(System.identityHashCode(threadDriver));
+        driver.get(pageUrl);
+        String message = driver.findElement(By.id("message")).getText();
+        if (!message.equals(expected)) {
+            throw new IllegalStateException("Expected '" + expected
+                    + "' but found '" + message + "'");
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+package test.java;
+
+import main.java.DriverHolder;
+import main.java.HtmlTestCase;
+import main.java.ParallelTestComputer;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.Result;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the parallel execution of the html tests.
+ */
+public class ParallelTestComputerTest {
+
+    private static final AtomicInteger running = new AtomicInteger();
+    private static final AtomicInteger maxRunning = new AtomicInteger();
+    private static final Map<WebDriver, String> driverThreads =
+            new ConcurrentHashMap<WebDriver, String>();
+
+    /**
+     * Records the driver and the thread of the test and waits, so the tests
+     * of the workers overlap
+     */
+    private static void recordTest() throws InterruptedException {
+        int now = running.incrementAndGet();
+        int max;
+        while (now > (max = maxRunning.get())
+                && !maxRunning.compareAndSet(max, now)) {
+            // Retry
+        }
+        String previous = driverThreads.put(DriverHolder.get(),
+                Thread.currentThread().getName());
+        if (previous != null && !previous.equals(Thread.currentThread()
+                .getName())) {
+            fail("The driver is shared by the threads " + previous + " and "
+                    + Thread.currentThread().getName());
+        }
+        Thread.sleep(300);
+        running.decrementAndGet();
+    }
+
+    /**
+     * First test class
+     */
+    public static class FirstHtmlTests extends HtmlTestCase {
+        @Test
+        public void first() throws Exception {
+            recordTest();
+        }
+
+        @Test
+        public void second() throws Exception {
+            recordTest();
+        }
+    }
+
+    /**
+     * Second test class
+     */
+    public static class SecondHtmlTests extends HtmlTestCase {
+        @Test
+        public void first() throws Exception {
+            recordTest();
+        }
+
+        @Test
+        public void second() throws Exception {
+            recordTest();
+        }
+    }
+
+    @After
+    public void clearProperties() {
+        System.clearProperty("qa.parallel.threads");
+        System.clearProperty("qa.driver.reuse");
+    }
+
+    @Test
+    public void testsRunInParallelWithTheirOwnDrivers() {
+        System.setProperty("qa.parallel.threads", "4");
+        System.setProperty("qa.driver.reuse", "true");
+        driverThreads.clear();
+        maxRunning.set(0);
+        Result result = ParallelTestComputer.run(FirstHtmlTests.class,
+                SecondHtmlTests.class);
+
+        assertTrue(result.getFailures().toString(), result.wasSuccessful());
+        assertEquals(4, result.getRunCount());
+        assertTrue("Maximum parallel tests: " + maxRunning.get(),
+                maxRunning.get() > 1);
+        assertTrue(driverThreads.size() > 1);
+
+        // The reused drivers are stopped with the workers
+        List<WebDriver> alive = new ArrayList<WebDriver>();
+        for (WebDriver driver : driverThreads.keySet()) {
+            try {
+                driver.getWindowHandle();
+                alive.add(driver);
+            } catch (WebDriverException e) {
+                // Stopped
+            }
+        }
+        assertTrue(alive.isEmpty());
+    }
+}
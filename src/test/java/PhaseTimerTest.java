@@ -0,0 +1,105 @@
+package test.java;
+
+import main.java.HtmlTestCase;
+import main.java.PhaseTimer;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the timings of the framework phases.
+ */
+public class PhaseTimerTest {
+
+    /**
+     * Tests whose phases are timed
+     */
+    public static class TimedTest extends HtmlTestCase {
+        @Test
+        public void first() throws Exception {
+            Thread.sleep(20);
+        }
+
+        @Test
+        public void second() throws Exception {
+            Thread.sleep(40);
+        }
+    }
+
+    @After
+    public void clearTimings() {
+        System.clearProperty("qa.timings.path");
+        PhaseTimer.clear();
+    }
+
+    @Test
+    public void phasesAreExported() throws Exception {
+        File folder = File.createTempFile("timings", "");
+        folder.delete();
+        System.setProperty("qa.timings.path", folder.getPath());
+        PhaseTimer.clear();
+
+        Result result = new JUnitCore().run(TimedTest.class);
+        assertTrue(result.wasSuccessful());
+        assertTrue(PhaseTimer.export());
+
+        List<String> csv = readLines(new File(folder, "timings.csv"));
+        assertEquals("test,phase,milliseconds", csv.get(0));
+        List<String> phases = new ArrayList<String>();
+        for (String line : csv) {
+            String[] values = line.split(",");
+            if (values[0].equals("TimedTest.second")) {
+                phases.add(values[1]);
+                if (values[1].equals("test")) {
+                    assertTrue(line, Double.parseDouble(values[2]) >= 40);
+                }
+            }
+        }
+        assertTrue(phases.toString(), phases.contains("setup.properties"));
+        assertTrue(phases.toString(), phases.contains("driver.create"));
+        assertTrue(phases.toString(), phases.contains("test"));
+        assertTrue(phases.toString(), phases.contains("driver.stop"));
+        assertTrue(phases.toString(), phases.contains("total"));
+
+        List<String> prom = readLines(new File(folder, "timings.prom"));
+        assertTrue(prom.contains("# TYPE qa_phase_duration_seconds summary"));
+        assertTrue(prom.contains(
+                "qa_phase_duration_seconds_count{phase=\"test\"} 2"));
+        String p99Prefix =
+                "qa_phase_duration_seconds{phase=\"test\",quantile=\"0.99\"} ";
+        String p99 = null;
+        for (String line : prom) {
+            if (line.startsWith(p99Prefix)) {
+                p99 = line.substring(p99Prefix.length());
+            }
+        }
+        assertTrue(prom.toString(), p99 != null);
+        // The slowest test sleeps 40 ms, a loaded host adds more
+        assertTrue(p99, Double.parseDouble(p99) >= 0.040);
+
+        List<String> json = readLines(new File(folder, "timings.json"));
+        assertTrue(json.get(2).contains("\"test\": \"TimedTest."));
+        assertTrue(json.contains("  \"summary\": {"));
+    }
+
+    private static List<String> readLines(File file) throws Exception {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        String line;
+        while ((line = in.readLine()) != null) {
+            lines.add(line);
+        }
+        in.close();
+        return lines;
+    }
+}
@@ -0,0 +1,90 @@
+package test.java;
+
+import main.java.PropertiesManager;
+import main.java.Utils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the reload of the properties file when it changes.
+ */
+public class PropertiesReloadTest {
+
+    private static final String FILE_NAME = "reload-test.properties";
+
+    private PropertiesManager properties;
+
+    @After
+    public void stopWatcher() {
+        System.clearProperty("qa.properties.reload");
+        if (properties != null) {
+            properties.stopWatcher();
+        }
+        new File(new File(Utils.getResourcePath("test.properties"))
+                .getParentFile(), FILE_NAME).delete();
+    }
+
+    @Test
+    public void changesArePublished() throws Exception {
+        File file = new File(new File(Utils.getResourcePath("test.properties"))
+                .getParentFile(), FILE_NAME);
+        write(file, "qa.timeout = 10\nqa.url = http://localhost/a\n");
+        System.setProperty("qa.properties.reload", "true");
+        properties = new PropertiesManager(FILE_NAME);
+        assertEquals("10", properties.getProperty(properties.TIMEOUT));
+
+        write(file, "qa.timeout = 30\nqa.url = http://localhost/b\n");
+        long limit = System.currentTimeMillis() + 10000;
+        while (!properties.getProperty(properties.TIMEOUT).equals("30")
+                && System.currentTimeMillis() < limit) {
+            Thread.sleep(50);
+        }
+        assertEquals("30", properties.getProperty(properties.TIMEOUT));
+        assertEquals("http://localhost/b",
+                properties.getProperty(properties.URL));
+    }
+
+    @Test
+    public void reloadReplacesTheValues() throws Exception {
+        File file = new File(new File(Utils.getResourcePath("test.properties"))
+                .getParentFile(), FILE_NAME);
+        write(file, "qa.timeout = 10\nqa.browser = firefox\n");
+        properties = new PropertiesManager(FILE_NAME);
+        assertEquals("firefox", properties.getBrowserName());
+
+        write(file, "qa.timeout = 10\n");
+        assertEquals(true, properties.reloadProperties());
+        assertEquals("", properties.getBrowserName());
+        assertEquals("10", properties.getProperty(properties.TIMEOUT));
+    }
+
+    @Test
+    public void storesDoNotReloadTheFile() throws Exception {
+        File file = new File(new File(Utils.getResourcePath("test.properties"))
+                .getParentFile(), FILE_NAME);
+        write(file, "qa.timeout = 10\n");
+        System.setProperty("qa.properties.reload", "true");
+        properties = new PropertiesManager(FILE_NAME);
+
+        properties.setProperty("test.first", "1");
+        assertTrue(properties.storeProperties());
+        assertTrue(properties.flushProperties());
+        // Not stored yet, it is kept while the watcher sees the write
+        properties.setProperty("test.second", "2");
+        Thread.sleep(2000);
+        assertEquals("2", properties.getProperty("test.second"));
+        assertEquals("1", properties.getProperty("test.first"));
+    }
+
+    private static void write(File file, String content) throws Exception {
+        FileWriter out = new FileWriter(file);
+        out.write(content);
+        out.close();
+    }
+}
@@ -0,0 +1,72 @@
+package test.java;
+
+import main.java.PropertiesFileWriter;
+import main.java.PropertiesManager;
+import main.java.Utils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the background writes of the properties file.
+ */
+public class PropertiesStoreTest {
+
+    private static final String FILE_NAME = "store-test.properties";
+
+    @After
+    public void deleteFile() {
+        getFile().delete();
+    }
+
+    @Test
+    public void storesAreCoalesced() throws Exception {
+        File file = getFile();
+        FileWriter out = new FileWriter(file);
+        out.write("qa.timeout = 10\n");
+        out.close();
+
+        PropertiesManager properties = new PropertiesManager(FILE_NAME);
+        for (int i = 1; i <= 100; i++) {
+            properties.setProperty("test.counter", String.valueOf(i));
+            assertTrue(properties.storeProperties());
+        }
+        assertTrue(properties.flushProperties());
+
+        Properties saved = new Properties();
+        InputStream in = new FileInputStream(file);
+        saved.load(in);
+        in.close();
+        assertEquals("100", saved.getProperty("test.counter"));
+        assertEquals("10", saved.getProperty("qa.timeout"));
+        // No temporary files are left
+        File[] files = file.getParentFile().listFiles();
+        for (File other : files) {
+            assertTrue(other.getName(), !other.getName().endsWith(".tmp"));
+        }
+    }
+
+    @Test
+    public void failedWritesAreReported() {
+        PropertiesFileWriter writer = new PropertiesFileWriter(
+                new File(getFile().getParentFile(), "missing/store.properties"));
+        Properties properties = new Properties();
+        properties.setProperty("test.counter", "1");
+        writer.store(properties);
+        assertFalse(writer.flush());
+    }
+
+    private static File getFile() {
+        return new File(new File(Utils.getResourcePath("test.properties"))
+                .getParentFile(), FILE_NAME);
+    }
+}
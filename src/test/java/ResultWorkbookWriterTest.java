@@ -0,0 +1,108 @@
+package test.java;
+
+import main.java.ResultWorkbookWriter;
+import main.java.RowShard;
+import main.java.excelUtils;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the workbook with the results of the rows.
+ */
+public class ResultWorkbookWriterTest {
+
+    @After
+    public void clearResultsPath() {
+        System.clearProperty("qa.results.path");
+    }
+
+    @Test
+    public void resultsAreWrittenInRowOrder() throws Exception {
+        StringBuilder content = new StringBuilder("user,age\n");
+        for (int i = 1; i <= 300; i++) {
+            content.append(i == 150 ? "fail" : "user" + i).append(",")
+                    .append(i).append("\n");
+        }
+        File csv = TestFiles.createFile("results", ".csv",
+                content.toString());
+        File folder = File.createTempFile("results", "");
+        folder.delete();
+        System.setProperty("qa.results.path", folder.getPath());
+
+        // Three threads, the results arrive out of order
+        ResultWorkbookWriter writer = ResultWorkbookWriter.open(csv.getPath(),
+                0, true, ',', '"', RowShard.ALL);
+        ArrayList<String> errors = excelUtils.fileTestExecution(
+                new DataSourceTest.RowRecorder(), "check", csv.getPath(), 0,
+                true, ',', '"', 3, RowShard.ALL, writer);
+        writer.close();
+        assertEquals(1, errors.size());
+
+        XSSFWorkbook wb = new XSSFWorkbook(new FileInputStream(
+                writer.getOutput()));
+        Sheet sheet = wb.getSheetAt(0);
+        assertEquals(300, sheet.getLastRowNum());
+        Row header = sheet.getRow(0);
+        assertEquals("user", header.getCell(0).getStringCellValue());
+        assertEquals("Status", header.getCell(2).getStringCellValue());
+        assertEquals("Error", header.getCell(4).getStringCellValue());
+        for (int r = 1; r <= 300; r++) {
+            Row row = sheet.getRow(r);
+            // The csv values are text
+            assertEquals(String.valueOf(r),
+                    row.getCell(1).getStringCellValue());
+            if (r == 150) {
+                assertEquals("FAIL", row.getCell(2).getStringCellValue());
+                assertEquals("Error in row 150: wrong user",
+                        row.getCell(4).getStringCellValue());
+            } else {
+                assertEquals("PASS", row.getCell(2).getStringCellValue());
+                assertNull(row.getCell(4));
+            }
+        }
+    }
+
+    @Test
+    public void cellsKeepTheTypeOfTheDataFile() throws Exception {
+        XSSFWorkbook data = new XSSFWorkbook();
+        Sheet dataSheet = data.createSheet();
+        Row dataHeader = dataSheet.createRow(0);
+        dataHeader.createCell(0).setCellValue("user");
+        dataHeader.createCell(1).setCellValue("age");
+        Row dataRow = dataSheet.createRow(1);
+        dataRow.createCell(0).setCellValue("00123");
+        dataRow.createCell(1).setCellValue(42);
+        dataRow = dataSheet.createRow(2);
+        dataRow.createCell(0).setCellValue("12345678901234567890");
+        dataRow.createCell(1).setCellValue(21);
+        File xlsx = TestFiles.createFile("results", ".xlsx", data);
+        File folder = File.createTempFile("results", "");
+        folder.delete();
+        System.setProperty("qa.results.path", folder.getPath());
+
+        ResultWorkbookWriter writer = ResultWorkbookWriter.open(xlsx.getPath(),
+                0, true, ',', '"', RowShard.ALL);
+        excelUtils.fileTestExecution(new DataSourceTest.RowRecorder(), "check",
+                xlsx.getPath(), 0, true, ',', '"', 1, RowShard.ALL, writer);
+        writer.close();
+
+        XSSFWorkbook wb = new XSSFWorkbook(new FileInputStream(
+                writer.getOutput()));
+        Sheet sheet = wb.getSheetAt(0);
+        assertEquals("00123", sheet.getRow(1).getCell(0).getStringCellValue());
+        assertEquals(42, sheet.getRow(1).getCell(1).getNumericCellValue(), 0);
+        assertEquals("12345678901234567890",
+                sheet.getRow(2).getCell(0).getStringCellValue());
+        assertEquals(21, sheet.getRow(2).getCell(1).getNumericCellValue(), 0);
+    }
+}
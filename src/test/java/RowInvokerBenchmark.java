@@ -0,0 +1,92 @@
+package test.java;
+
+import main.java.RowInvoker;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+
+/**
+ * Microbenchmark of the per-row invocation cost of a data driven test.
+ * <p/>
+ * Compares the previous invocation of fileTestExecution (Class[] creation,
+ * getMethod and Method.invoke for every row) with the cached RowInvoker.
+ * Run the main method with the test classpath, i.e.
+ * java -cp target/test-classes:target/classes test.java.RowInvokerBenchmark
+ */
+public class RowInvokerBenchmark {
+
+    private static final int ROWS = 1000000;
+    private static final int ROUNDS = 5;
+
+    private static long blackhole = 0;
+
+    /**
+     * Data driven test method with three parameters
+     */
+    public void rowTest(String field1, String field2, String field3) {
+        blackhole += field1.length() + field2.length() + field3.length();
+    }
+
+    public static void main(String[] args) throws Exception {
+        RowInvokerBenchmark testClass = new RowInvokerBenchmark();
+        ArrayList<String> rowData = new ArrayList<String>();
+        rowData.add("user");
+        rowData.add("password");
+        rowData.add("welcome");
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            long reflection = reflectionPerRow(testClass, rowData);
+            long cached = cachedInvoker(testClass, rowData);
+            System.out.println("Round " + round + ": reflection per row "
+                    + String.format("%.1f", (double) reflection / ROWS)
+                    + " ns, cached invoker "
+                    + String.format("%.1f", (double) cached / ROWS) + " ns");
+        }
+        System.out.println("(" + blackhole + ")");
+    }
+
+    /**
+     * Previous implementation: the method is searched for every row
+     */
+    private static long reflectionPerRow(Object testClass,
+                                         ArrayList<String> rowData) throws Exception {
+        long start = System.nanoTime();
+        for (int row = 0; row < ROWS; row++) {
+            int paramsSize = rowData.size();
+            Class<?>[] paramTypes = new Class<?>[paramsSize];
+            for (int i = 0; i < paramsSize; i++) {
+                paramTypes[i] = String.class;
+            }
+            Method test = testClass.getClass().getMethod("rowTest", paramTypes);
+            Object[] params = new Object[paramsSize];
+            for (int i = 0; i < paramsSize; i++) {
+                params[i] = rowData.get(i);
+            }
+            test.invoke(testClass, params);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Current implementation: the invoker and the parameters are reused, the
+     * values are bound as in excelUtils.executeRows
+     */
+    private static long cachedInvoker(Object testClass,
+                                      ArrayList<String> rowData) throws Exception {
+        long start = System.nanoTime();
+        RowInvoker invoker = null;
+        Object[] params = null;
+        for (int row = 0; row < ROWS; row++) {
+            int paramsSize = rowData.size();
+            if (invoker == null || invoker.getArity() != paramsSize) {
+                invoker = RowInvoker.getInvoker(testClass.getClass(),
+                        "rowTest", paramsSize);
+                params = new Object[paramsSize];
+            }
+            // Same calls as RowCall, with the conversion of the values
+            invoker.bind(rowData, params);
+            invoker.invoke(testClass, params);
+        }
+        return System.nanoTime() - start;
+    }
+}
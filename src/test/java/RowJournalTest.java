@@ -0,0 +1,111 @@
+package test.java;
+
+import main.java.BasicTestCase;
+import main.java.RowShard;
+import main.java.excelUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that an execution with failed rows is resumed from the journal.
+ */
+public class RowJournalTest {
+
+    /**
+     * Data driven test class that fails the rows of the broken user
+     */
+    public static class FlakyTest extends BasicTestCase {
+        public static String brokenUser = "";
+        public ArrayList<String> calls = new ArrayList<String>();
+
+        public void check(String user, String age) {
+            calls.add(user);
+            if (user.equals(brokenUser)) {
+                throw new IllegalStateException("broken " + user);
+            }
+        }
+    }
+
+    private File journalFolder;
+
+    @Before
+    public void enableJournal() throws Exception {
+        journalFolder = File.createTempFile("journal", "");
+        journalFolder.delete();
+        System.setProperty("qa.journal.enabled", "true");
+        System.setProperty("qa.journal.path", journalFolder.getPath());
+    }
+
+    @After
+    public void disableJournal() {
+        System.clearProperty("qa.journal.enabled");
+        System.clearProperty("qa.journal.path");
+    }
+
+    @Test
+    public void passedRowsAreSkipped() throws Exception {
+        File csv = TestFiles.createFile("journal", ".csv",
+                "user,age\njohn,33\nmary,21\npeter,40\nanne,18\n");
+
+        FlakyTest.brokenUser = "mary";
+        FlakyTest first = new FlakyTest();
+        ArrayList<String> errors = excelUtils.fileTestExecution(first, "check",
+                csv.getPath(), 0, true, ',', '"');
+        assertEquals(4, first.calls.size());
+        assertEquals("Error in row 2 of 4: broken mary", errors.get(0));
+        assertEquals(1, journalFolder.list().length);
+
+        // Only the failed row is executed again
+        FlakyTest.brokenUser = "";
+        FlakyTest second = new FlakyTest();
+        errors = excelUtils.fileTestExecution(second, "check", csv.getPath(),
+                0, true, ',', '"');
+        assertEquals(0, errors.size());
+        assertEquals("[mary]", second.calls.toString());
+
+        // All the rows have passed, the journal is deleted
+        assertEquals(0, journalFolder.list().length);
+        FlakyTest third = new FlakyTest();
+        excelUtils.fileTestExecution(third, "check", csv.getPath(), 0, true,
+                ',', '"');
+        assertEquals(4, third.calls.size());
+    }
+
+    @Test
+    public void shardsHaveTheirOwnJournals() throws Exception {
+        File csv = TestFiles.createFile("journal", ".csv",
+                "user,age\njohn,33\nmary,21\npeter,40\nanne,18\n");
+
+        // The first shard fails and keeps its journal
+        FlakyTest.brokenUser = "john";
+        FlakyTest first = new FlakyTest();
+        excelUtils.fileTestExecution(first, "check", csv.getPath(), 0, true,
+                ',', '"', 1, new RowShard(0, 2), null);
+        assertEquals(1, journalFolder.list().length);
+
+        // The second shard passes and deletes only its own journal
+        FlakyTest second = new FlakyTest();
+        ArrayList<String> errors = excelUtils.fileTestExecution(second,
+                "check", csv.getPath(), 0, true, ',', '"', 1,
+                new RowShard(1, 2), null);
+        assertEquals(0, errors.size());
+        assertEquals("[mary, anne]", second.calls.toString());
+        assertEquals(1, journalFolder.list().length);
+        assertTrue(journalFolder.list()[0].contains(".shard-0-of-2"));
+
+        // The first shard resumes from its journal
+        FlakyTest.brokenUser = "";
+        FlakyTest third = new FlakyTest();
+        excelUtils.fileTestExecution(third, "check", csv.getPath(), 0, true,
+                ',', '"', 1, new RowShard(0, 2), null);
+        assertEquals("[john]", third.calls.toString());
+        assertEquals(0, journalFolder.list().length);
+    }
+}
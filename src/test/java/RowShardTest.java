@@ -0,0 +1,74 @@
+package test.java;
+
+import main.java.RowShard;
+import main.java.ShardResultFile;
+import main.java.excelUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the shards run disjoint subsets of the rows and that their
+ * results can be merged.
+ */
+public class RowShardTest {
+
+    @After
+    public void clearResultPath() {
+        System.clearProperty("qa.shard.resultpath");
+    }
+
+    @Test
+    public void shardsRunDisjointRows() throws Exception {
+        StringBuilder content = new StringBuilder("user,age\n");
+        for (int i = 1; i <= 10; i++) {
+            content.append(i == 5 ? "fail" : "user" + i).append(",").append(i)
+                    .append("\n");
+        }
+        File csv = TestFiles.createFile("shard", ".csv",
+                content.toString());
+        File folder = File.createTempFile("shards", "");
+        folder.delete();
+        System.setProperty("qa.shard.resultpath", folder.getPath());
+
+        TreeSet<String> executed = new TreeSet<String>();
+        ArrayList<String> errors = new ArrayList<String>();
+        for (int index = 0; index < 3; index++) {
+            RowShard shard = new RowShard(index, 3);
+            DataSourceTest.RowRecorder recorder = new DataSourceTest.RowRecorder();
+            ShardResultFile resultFile =
+                    ShardResultFile.open("RowRecorder.check", shard);
+            errors.addAll(excelUtils.fileTestExecution(recorder, "check",
+                    csv.getPath(), 0, true, ',', '"', 1, shard, resultFile));
+            resultFile.close();
+
+            assertEquals(index == 0 ? 4 : 3, recorder.calls.size());
+            for (String user : recorder.calls) {
+                assertTrue("Row executed twice: " + user, executed.add(user));
+            }
+        }
+        assertEquals(10, executed.size());
+        assertEquals(1, errors.size());
+        assertEquals("Error in row 5 of 10: wrong user", errors.get(0));
+
+        File merged = new File(folder, "merged.csv");
+        assertEquals(10, ShardResultFile.merge(folder, "RowRecorder.check",
+                merged));
+        BufferedReader reader = new BufferedReader(new FileReader(merged));
+        assertEquals("row,status,message", reader.readLine());
+        for (int i = 1; i <= 10; i++) {
+            String line = reader.readLine();
+            assertEquals(i == 5 ? "5,FAIL,\"Error in row 5: wrong user\""
+                    : i + ",PASS,\"\"", line);
+        }
+        reader.close();
+    }
+}
@@ -0,0 +1,166 @@
+package test.java;
+
+import main.java.ScreenshotWriter;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the background writing of the screenshots.
+ */
+public class ScreenshotWriterTest {
+
+    private static final String FOLDER = "target/screenshot-writer-test/";
+
+    private static byte[] createPng() throws Exception {
+        BufferedImage image = new BufferedImage(20, 10,
+                BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(5, 5, 0xFFFF0000);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        return png.toByteArray();
+    }
+
+    @Test
+    public void pngScreenshotsAreWrittenAsCaptured() throws Exception {
+        ScreenshotWriter writer = new ScreenshotWriter("png", 10);
+        byte[] png = createPng();
+        String path = writer.write(png, FOLDER + "png/01_test", false);
+        assertEquals(FOLDER + "png/01_test.png", path);
+        assertTrue(writer.flush());
+        writer.close();
+
+        assertArrayEquals(png, Files.readAllBytes(new File(path).toPath()));
+        assertEquals(1, writer.getWritten());
+        assertEquals(0, writer.getQueueDepth());
+    }
+
+    @Test
+    public void jpgScreenshotsAreRecompressed() throws Exception {
+        ScreenshotWriter writer = new ScreenshotWriter("jpg", 10);
+        String path = writer.write(createPng(), FOLDER + "jpg/01_test", true);
+        assertTrue(writer.flush());
+        writer.close();
+
+        BufferedImage image = ImageIO.read(new File(path));
+        assertNotNull(image);
+        assertEquals(20, image.getWidth());
+        assertEquals(1, writer.getWritten());
+    }
+
+    @Test
+    public void screenshotsAreDroppedWhenTheQueueIsFull() throws Exception {
+        ScreenshotWriter writer = new ScreenshotWriter("png", 1);
+        byte[] png = createPng();
+        BlockingImage blocking = new BlockingImage();
+        fillQueue(writer, blocking, png, "drop");
+        assertNull(writer.write(png, FOLDER + "drop/03_test", false));
+        blocking.release.countDown();
+        assertTrue(writer.flush());
+        writer.close();
+
+        assertEquals(2, writer.getWritten());
+        assertEquals(1, writer.getDropped());
+        assertTrue(!new File(FOLDER + "drop/03_test.png").exists());
+    }
+
+    @Test
+    public void errorsDoNotStopTheWriter() throws Exception {
+        ScreenshotWriter writer = new ScreenshotWriter("jpg", 10);
+        writer.write(new FailingImage(), FOLDER + "failing/01_test", false);
+        assertTrue(writer.flush());
+        String path = writer.write(createPng(), FOLDER + "failing/02_test",
+                false);
+        assertTrue(writer.flush());
+        writer.close();
+
+        assertNotNull(ImageIO.read(new File(path)));
+        assertEquals(1, writer.getWritten());
+    }
+
+    @Test
+    public void errorScreenshotsWaitForTheQueue() throws Exception {
+        ScreenshotWriter writer = new ScreenshotWriter("png", 1);
+        byte[] png = createPng();
+        final BlockingImage blocking = new BlockingImage();
+        fillQueue(writer, blocking, png, "error");
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                blocking.release.countDown();
+            }
+        }).start();
+        assertNotNull(writer.write(png, FOLDER + "error/03_test", true));
+        assertTrue(writer.flush());
+        writer.close();
+
+        assertEquals(3, writer.getWritten());
+        assertEquals(0, writer.getDropped());
+        assertTrue(new File(FOLDER + "error/03_test.png").exists());
+    }
+
+    /**
+     * Blocks the writer thread with the first screenshot and fills the
+     * queue with the second one
+     */
+    private static void fillQueue(ScreenshotWriter writer,
+                                  BlockingImage blocking, byte[] png,
+                                  String folder) throws Exception {
+        writer.write(blocking, FOLDER + folder + "/01_test", false);
+        while (writer.getQueueDepth() > 0) {
+            Thread.sleep(10);
+        }
+        assertNotNull(writer.write(png, FOLDER + folder + "/02_test", false));
+        assertEquals(1, writer.getQueueDepth());
+    }
+
+    /**
+     * Image that blocks the writer thread until it is released
+     */
+    /**
+     * Image that can not be decoded, as with an out of memory error
+     */
+    private static class FailingImage extends BufferedImage {
+        FailingImage() {
+            super(20, 10, BufferedImage.TYPE_INT_ARGB);
+        }
+
+        @Override
+        public int getWidth() {
+            throw new OutOfMemoryError("Test error");
+        }
+    }
+
+    private static class BlockingImage extends BufferedImage {
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        BlockingImage() {
+            super(20, 10, BufferedImage.TYPE_INT_ARGB);
+        }
+
+        @Override
+        public int getWidth() {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.getWidth();
+        }
+    }
+}
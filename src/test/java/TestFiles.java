@@ -0,0 +1,63 @@
+package test.java;
+
+import org.apache.poi.ss.usermodel.Workbook;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+
+/**
+ * Temporary data files of the tests, deleted when the JVM exits.
+ */
+final class TestFiles {
+
+    private TestFiles() {
+    }
+
+    /**
+     * Creates a text file (csv, properties...)
+     *
+     * @param prefix    the prefix of the file name
+     * @param extension the file extension, with the dot
+     * @param content   the text of the file
+     * @return the file
+     */
+    static File createFile(String prefix, String extension, String content)
+            throws Exception {
+        File file = newFile(prefix, extension);
+        FileWriter out = new FileWriter(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Creates an excel file
+     *
+     * @param prefix    the prefix of the file name
+     * @param extension .xls or .xlsx, according to the workbook type
+     * @param wb        the workbook saved in the file
+     * @return the file
+     */
+    static File createFile(String prefix, String extension, Workbook wb)
+            throws Exception {
+        File file = newFile(prefix, extension);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            wb.write(out);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static File newFile(String prefix, String extension)
+            throws Exception {
+        File file = File.createTempFile(prefix, extension);
+        file.deleteOnExit();
+        return file;
+    }
+}
@@ -0,0 +1,94 @@
+package test.java;
+
+import main.java.BasicTestCase;
+import main.java.excelUtils;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the data driven test methods with typed parameters.
+ */
+public class TypedParametersTest {
+
+    public enum Level {
+        LOW, HIGH
+    }
+
+    /**
+     * Data driven test class used by the tests
+     */
+    public static class TypedRecorder extends BasicTestCase {
+        public ArrayList<String> calls = new ArrayList<String>();
+
+        public void check(String user, int age, double score, boolean active,
+                          Date birth, Level level) {
+            calls.add(user + "|" + age + "|" + score + "|" + active + "|"
+                    + new SimpleDateFormat("yyyy-MM-dd").format(birth) + "|"
+                    + level);
+        }
+    }
+
+    @Test
+    public void csvValuesAreConverted() throws Exception {
+        String filePath = TestFiles.createFile("typed", ".csv",
+                "user,age,score,active,birth,level\n"
+                + "john,33,7.5,true,1981-02-03,high\n"
+                + "mary,21.0,9,0,03/04/1993,LOW\n"
+                + "peter,,1,true,1990-01-01,LOW\n"
+                + "anne,40,1,maybe,1990-01-01,LOW\n"
+                + "paul,50,1,true,20240115,LOW\n").getPath();
+        TypedRecorder recorder = new TypedRecorder();
+        ArrayList<String> errors = excelUtils.fileTestExecution(recorder,
+                "check", filePath, 0, true, ',', '"');
+
+        assertEquals(2, recorder.calls.size());
+        assertEquals("john|33|7.5|true|1981-02-03|HIGH", recorder.calls.get(0));
+        assertEquals("mary|21|9.0|false|1993-04-03|LOW", recorder.calls.get(1));
+        assertEquals(3, errors.size());
+        assertEquals("Error in row 3 of 5: wrong value, Empty value for the int "
+                + "parameter", errors.get(0));
+        assertEquals("Error in row 4 of 5: wrong value, 'maybe' is not a boolean",
+                errors.get(1));
+        // A number out of the excel dates is not read as a serial
+        assertEquals("Error in row 5 of 5: wrong value, '20240115' is not a "
+                + "date", errors.get(2));
+    }
+
+    @Test
+    public void excelCellsAreReadByType() throws Exception {
+        XSSFWorkbook wb = new XSSFWorkbook();
+        CellStyle dateStyle = wb.createCellStyle();
+        dateStyle.setDataFormat(wb.getCreationHelper().createDataFormat()
+                .getFormat("yyyy-mm-dd"));
+        Sheet sheet = wb.createSheet();
+        sheet.createRow(0).createCell(0).setCellValue("header");
+        Row row = sheet.createRow(1);
+        row.createCell(0).setCellValue("john");
+        row.createCell(1).setCellValue(33);
+        row.createCell(2).setCellFormula("1.5*5");
+        row.createCell(3).setCellValue(true);
+        row.createCell(4).setCellValue(
+                new SimpleDateFormat("yyyy-MM-dd").parse("1981-02-03"));
+        row.getCell(4).setCellStyle(dateStyle);
+        row.createCell(5).setCellValue("High");
+        wb.getCreationHelper().createFormulaEvaluator().evaluateAll();
+        File file = TestFiles.createFile("typed", ".xlsx", wb);
+
+        TypedRecorder recorder = new TypedRecorder();
+        ArrayList<String> errors = excelUtils.fileTestExecution(recorder,
+                "check", file.getPath(), 0, true, ',', '"');
+
+        assertEquals(0, errors.size());
+        assertEquals("john|33|7.5|true|1981-02-03|HIGH", recorder.calls.get(0));
+    }
+}
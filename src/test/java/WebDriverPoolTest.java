@@ -0,0 +1,212 @@
+package test.java;
+
+import main.java.BrowserSpec;
+import main.java.DriverHolder;
+import main.java.HtmlTestCase;
+import main.java.WebDriverPool;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.openqa.selenium.Cookie;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.htmlunit.HtmlUnitDriver;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the leases, the reset and the health checks of the driver pool.
+ */
+public class WebDriverPoolTest {
+
+    private static final Set<WebDriver> usedDrivers = Collections.newSetFromMap(
+            new IdentityHashMap<WebDriver, Boolean>());
+
+    private static final WebDriverPool.DriverFactory htmlUnit =
+            new WebDriverPool.DriverFactory() {
+                public WebDriver create() {
+                    return new HtmlUnitDriver();
+                }
+            };
+
+    /**
+     * Tests run with the pool of HtmlTestCase
+     */
+    public static class PooledTests extends HtmlTestCase {
+        @Test
+        public void first() {
+            usedDrivers.add(DriverHolder.get());
+        }
+
+        @Test
+        public void second() {
+            usedDrivers.add(DriverHolder.get());
+        }
+
+        @Test
+        public void third() {
+            usedDrivers.add(DriverHolder.get());
+        }
+    }
+
+    private WebDriverPool pool;
+
+    /**
+     * Tests with their own drivers, run with the pool of HtmlTestCase
+     */
+    public static class CustomDriverTests extends HtmlTestCase {
+        @Override
+        public WebDriver createWebDriver() {
+            return new CustomDriver();
+        }
+
+        @Test
+        public void custom() {
+            usedDrivers.add(DriverHolder.get());
+        }
+    }
+
+    private static class CustomDriver extends HtmlUnitDriver {
+    }
+
+    @After
+    public void closePools() {
+        if (pool != null) {
+            pool.close();
+        }
+        WebDriverPool.closeAll();
+        System.clearProperty("qa.driver.pool.size");
+    }
+
+    @Test
+    public void returnedDriversAreResetAndReused() throws Exception {
+        pool = new WebDriverPool(BrowserSpec.parse("htmlunit"), 1, 10000,
+                htmlUnit);
+        WebDriver driver = pool.lease();
+        driver.get("about:blank");
+        driver.manage().addCookie(new Cookie("session", "1"));
+        assertTrue(WebDriverPool.release(driver));
+
+        assertSame(driver, pool.lease());
+        assertTrue(driver.manage().getCookies().isEmpty());
+        assertEquals("about:blank", driver.getCurrentUrl());
+        WebDriverPool.release(driver);
+
+        WebDriverPool.Metrics metrics = pool.getMetrics();
+        assertEquals(1, metrics.getCreations());
+        assertEquals(2, metrics.getLeases());
+        assertEquals(0, metrics.getEvictions());
+        assertEquals(1, metrics.getIdle());
+    }
+
+    @Test
+    public void deadDriversAreReplaced() throws Exception {
+        pool = new WebDriverPool(BrowserSpec.parse("htmlunit"), 1, 10000,
+                htmlUnit);
+        WebDriver driver = pool.lease();
+        driver.quit();
+        assertTrue(WebDriverPool.release(driver));
+
+        WebDriver replacement = pool.lease();
+        assertNotNull(replacement);
+        assertFalse(replacement == driver);
+        WebDriverPool.release(replacement);
+
+        WebDriverPool.Metrics metrics = pool.getMetrics();
+        assertEquals(2, metrics.getCreations());
+        assertEquals(1, metrics.getEvictions());
+        assertEquals(1, metrics.getLive());
+    }
+
+    @Test
+    public void creationErrorsFailFast() {
+        pool = new WebDriverPool(BrowserSpec.parse("htmlunit"), 1, 60000,
+                new WebDriverPool.DriverFactory() {
+                    public WebDriver create() throws Exception {
+                        throw new Exception("No browser");
+                    }
+                });
+        long start = System.currentTimeMillis();
+        try {
+            pool.lease();
+            fail("A driver has been leased");
+        } catch (Exception e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("No browser"));
+        }
+        assertTrue(System.currentTimeMillis() - start < 10000);
+    }
+
+    @Test
+    public void closeQuitsTheLeasedDrivers() throws Exception {
+        final Set<WebDriver> quitDrivers = Collections.newSetFromMap(
+                new IdentityHashMap<WebDriver, Boolean>());
+        pool = new WebDriverPool(BrowserSpec.parse("htmlunit"), 1, 10000,
+                new WebDriverPool.DriverFactory() {
+                    public WebDriver create() {
+                        return new HtmlUnitDriver() {
+                            @Override
+                            public void quit() {
+                                quitDrivers.add(this);
+                                super.quit();
+                            }
+                        };
+                    }
+                });
+        WebDriver driver = pool.lease();
+        pool.close();
+
+        assertTrue(quitDrivers.contains(driver));
+        // The pool does not take back the driver it has quit
+        assertFalse(WebDriverPool.release(driver));
+    }
+
+    @Test
+    public void notPooledDriversAreNotReleased() {
+        WebDriver driver = new HtmlUnitDriver();
+        assertFalse(WebDriverPool.release(driver));
+        driver.quit();
+    }
+
+    @Test
+    public void testsLeaseTheWarmDrivers() {
+        System.setProperty("qa.driver.pool.size", "2");
+        usedDrivers.clear();
+        Result result = new JUnitCore().run(PooledTests.class);
+
+        assertEquals(3, result.getRunCount());
+        assertTrue(result.getFailures().toString(), result.wasSuccessful());
+        assertTrue(usedDrivers.size() <= 2);
+        WebDriverPool.Metrics metrics = WebDriverPool.getDefault(htmlUnit)
+                .getMetrics();
+        assertEquals(3, metrics.getLeases());
+        // The drivers are started only once
+        assertTrue(metrics.getCreations() <= 2);
+    }
+
+    @Test
+    public void classesWithTheirOwnDriversHaveTheirOwnPool() {
+        System.setProperty("qa.driver.pool.size", "1");
+        usedDrivers.clear();
+        Result result = new JUnitCore().run(PooledTests.class,
+                CustomDriverTests.class);
+
+        assertTrue(result.getFailures().toString(), result.wasSuccessful());
+        int customDrivers = 0;
+        for (WebDriver usedDriver : usedDrivers) {
+            if (usedDriver instanceof CustomDriver) {
+                customDrivers++;
+            }
+        }
+        assertEquals(2, usedDrivers.size());
+        assertEquals(1, customDrivers);
+    }
+}